@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.reflect.Method;
+
+/**
+ * Invocation over an array of boxed arguments, for calls to an {@link InvocationProxyHandler} which do not 
+ * come from a proxy method
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+final class ArrayInvocation extends Invocation {
+    
+    private final Class<?>[] types;
+    private final Object[] args;
+    
+    ArrayInvocation(Method method, int methodIndex, ProxyHandler<?> handler, Object proxy, Object[] args) {
+        super(method, methodIndex, handler, proxy);
+        this.types = method.getParameterTypes();
+        this.args = args == null ? new Object[0] : args.clone();
+    }
+
+    @Override
+    public Object[] getArguments() {
+        return args.clone();
+    }
+    
+    private Object get(int index, Class<?> type) {
+        check(index, type);
+        return args[index];
+    }
+    
+    private void set(int index, Class<?> type, Object value) {
+        check(index, type);
+        args[index] = value;
+    }
+    
+    private void check(int index, Class<?> type) {
+        if (index < 0 || index >= types.length)
+            throw noSuchArgument(index);
+        if (type == null ? types[index].isPrimitive() : types[index] != type)
+            throw noSuchArgument(index);
+    }
+
+    @Override
+    public boolean getBoolean(int index) {
+        return (Boolean)get(index, Boolean.TYPE);
+    }
+
+    @Override
+    public void setBoolean(int index, boolean value) {
+        set(index, Boolean.TYPE, value);
+    }
+
+    @Override
+    public byte getByte(int index) {
+        return (Byte)get(index, Byte.TYPE);
+    }
+
+    @Override
+    public void setByte(int index, byte value) {
+        set(index, Byte.TYPE, value);
+    }
+
+    @Override
+    public char getChar(int index) {
+        return (Character)get(index, Character.TYPE);
+    }
+
+    @Override
+    public void setChar(int index, char value) {
+        set(index, Character.TYPE, value);
+    }
+
+    @Override
+    public short getShort(int index) {
+        return (Short)get(index, Short.TYPE);
+    }
+
+    @Override
+    public void setShort(int index, short value) {
+        set(index, Short.TYPE, value);
+    }
+
+    @Override
+    public int getInt(int index) {
+        return (Integer)get(index, Integer.TYPE);
+    }
+
+    @Override
+    public void setInt(int index, int value) {
+        set(index, Integer.TYPE, value);
+    }
+
+    @Override
+    public long getLong(int index) {
+        return (Long)get(index, Long.TYPE);
+    }
+
+    @Override
+    public void setLong(int index, long value) {
+        set(index, Long.TYPE, value);
+    }
+
+    @Override
+    public float getFloat(int index) {
+        return (Float)get(index, Float.TYPE);
+    }
+
+    @Override
+    public void setFloat(int index, float value) {
+        set(index, Float.TYPE, value);
+    }
+
+    @Override
+    public double getDouble(int index) {
+        return (Double)get(index, Double.TYPE);
+    }
+
+    @Override
+    public void setDouble(int index, double value) {
+        set(index, Double.TYPE, value);
+    }
+
+    @Override
+    public Object getObject(int index) {
+        return get(index, null);
+    }
+
+    @Override
+    public void setObject(int index, Object value) {
+        check(index, null);
+        args[index] = types[index].cast(value);
+    }
+}
@@ -21,31 +21,25 @@
  */
 package org.jboss.javassist.classfilewriter.proxyfactory;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-
 class Boxing {
-	static final Map<String, Boxing> BOXERS;
+	/** The boxers indexed by the ordinal of their primitive, void has none */
+	private static final Boxing[] BOXERS;
 	static {
-		Map<String, Boxing> map = new HashMap<String, Boxing>();
-		addEntry(map, BytecodePrimitive.BOOLEAN);
-		addEntry(map, BytecodePrimitive.BYTE);
-		addEntry(map, BytecodePrimitive.CHAR);
-		addEntry(map, BytecodePrimitive.DOUBLE);
-		addEntry(map, BytecodePrimitive.FLOAT);
-		addEntry(map, BytecodePrimitive.INT);
-		addEntry(map, BytecodePrimitive.LONG);
-		addEntry(map, BytecodePrimitive.SHORT);
-		BOXERS = Collections.unmodifiableMap(map);
+		BOXERS = new Boxing[BytecodePrimitive.VALUES.length];
+		addEntry(BytecodePrimitive.BOOLEAN);
+		addEntry(BytecodePrimitive.BYTE);
+		addEntry(BytecodePrimitive.CHAR);
+		addEntry(BytecodePrimitive.DOUBLE);
+		addEntry(BytecodePrimitive.FLOAT);
+		addEntry(BytecodePrimitive.INT);
+		addEntry(BytecodePrimitive.LONG);
+		addEntry(BytecodePrimitive.SHORT);
 	}
 
-	static void addEntry(Map<String, Boxing> map, BytecodePrimitive primitive) {
+	private static void addEntry(BytecodePrimitive primitive) {
 		String jvmClassName = ClassFileWriterContext.jvmClassName(primitive.getWrapperClassName());
-		Boxing boxing = new Boxing(jvmClassName, primitive.getValueMethodName(), "()" + primitive.getArrayComponentName(), "("
+		BOXERS[primitive.ordinal()] = new Boxing(jvmClassName, primitive.getValueMethodName(), "()" + primitive.getArrayComponentName(), "("
 		        + primitive.getArrayComponentName() + ")L" + jvmClassName + ";");
-		map.put(primitive.getName(), boxing);
-		map.put(primitive.getArrayComponentName(), boxing);
 	}
 
 	private final String className;
@@ -53,8 +47,14 @@ class Boxing {
 	private final String unboxMethodDescriptor;
 	private final String boxMethodDescriptor;
 
-	static Boxing getUnboxer(Class<?> clazz) {
-		return BOXERS.get(clazz.getName());
+	/**
+	 * Get the boxing for a primitive
+	 * 
+	 * @param primitive the primitive, may be null for reference types
+	 * @return the boxing, or null for reference types and void
+	 */
+	static Boxing getBoxing(BytecodePrimitive primitive) {
+		return primitive == null ? null : BOXERS[primitive.ordinal()];
 	}
 
 	Boxing(String className, String methodName, String unboxMethodDescriptor, String boxMethodDescriptor) {
@@ -21,52 +21,29 @@
  */
 package org.jboss.javassist.classfilewriter.proxyfactory;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-
 class BytecodePrimitive {
-	static final BytecodePrimitive BOOLEAN = new BytecodePrimitive("boolean", "Z", Boolean.class, Boolean.TYPE, "booleanValue");
-
-	static final BytecodePrimitive CHAR = new BytecodePrimitive("char", "C", Character.class, Character.TYPE, "charValue");
-
-	static final BytecodePrimitive BYTE = new BytecodePrimitive("byte", "B", Byte.class, Byte.TYPE, "byteValue");
-
-	static final BytecodePrimitive SHORT = new BytecodePrimitive("short", "S", Short.class, Short.TYPE, "shortValue");
-
-	static final BytecodePrimitive INT = new BytecodePrimitive("int", "I", Integer.class, Integer.TYPE, "intValue");
-
-	static final BytecodePrimitive LONG = new BytecodePrimitive("long", "J", Long.class, Long.TYPE, "longValue");
-
-	static final BytecodePrimitive FLOAT = new BytecodePrimitive("float", "F", Float.class, Float.TYPE, "floatValue");
-
-	static final BytecodePrimitive DOUBLE = new BytecodePrimitive("double", "D", Double.class, Double.TYPE, "doubleValue");
-
-	static final BytecodePrimitive VOID = new BytecodePrimitive("void", "V", Void.class, Void.TYPE, null);
-
-	static final Map<String, BytecodePrimitive> primitives;
-	static {
-		Map<String, BytecodePrimitive> map = new HashMap<String, BytecodePrimitive>();
-		map.put(BOOLEAN.getName(), BOOLEAN);
-		map.put(BOOLEAN.getArrayComponentName(), BOOLEAN);
-		map.put(CHAR.getName(), CHAR);
-		map.put(CHAR.getArrayComponentName(), CHAR);
-		map.put(BYTE.getName(), BYTE);
-		map.put(BYTE.getArrayComponentName(), BYTE);
-		map.put(SHORT.getName(), SHORT);
-		map.put(SHORT.getArrayComponentName(), SHORT);
-		map.put(INT.getName(), INT);
-		map.put(INT.getArrayComponentName(), INT);
-		map.put(LONG.getName(), LONG);
-		map.put(LONG.getArrayComponentName(), LONG);
-		map.put(FLOAT.getName(), FLOAT);
-		map.put(FLOAT.getArrayComponentName(), FLOAT);
-		map.put(DOUBLE.getName(), DOUBLE);
-		map.put(DOUBLE.getArrayComponentName(), DOUBLE);
-		map.put(VOID.getName(), VOID);
-		map.put(VOID.getArrayComponentName(), VOID);
-		primitives = Collections.unmodifiableMap(map);
-	}
+	static final BytecodePrimitive BOOLEAN = new BytecodePrimitive(0, "boolean", "Z", Boolean.class, Boolean.TYPE, "booleanValue");
+
+	static final BytecodePrimitive CHAR = new BytecodePrimitive(1, "char", "C", Character.class, Character.TYPE, "charValue");
+
+	static final BytecodePrimitive BYTE = new BytecodePrimitive(2, "byte", "B", Byte.class, Byte.TYPE, "byteValue");
+
+	static final BytecodePrimitive SHORT = new BytecodePrimitive(3, "short", "S", Short.class, Short.TYPE, "shortValue");
+
+	static final BytecodePrimitive INT = new BytecodePrimitive(4, "int", "I", Integer.class, Integer.TYPE, "intValue");
+
+	static final BytecodePrimitive LONG = new BytecodePrimitive(5, "long", "J", Long.class, Long.TYPE, "longValue");
+
+	static final BytecodePrimitive FLOAT = new BytecodePrimitive(6, "float", "F", Float.class, Float.TYPE, "floatValue");
+
+	static final BytecodePrimitive DOUBLE = new BytecodePrimitive(7, "double", "D", Double.class, Double.TYPE, "doubleValue");
+
+	static final BytecodePrimitive VOID = new BytecodePrimitive(8, "void", "V", Void.class, Void.TYPE, null);
+
+	/** All the primitives indexed by their ordinal */
+	static final BytecodePrimitive[] VALUES = new BytecodePrimitive[] {BOOLEAN, CHAR, BYTE, SHORT, INT, LONG, FLOAT, DOUBLE, VOID};
+
+	private final int ordinal;
 
 	private final String name;
 
@@ -80,7 +57,8 @@ class BytecodePrimitive {
 
 	private final String valueMethodName;
 
-	private BytecodePrimitive(String name, String arrayComponentName, Class<?> wrapperClass, Class<?> primitiveClass, String valueMethodName) {
+	private BytecodePrimitive(int ordinal, String name, String arrayComponentName, Class<?> wrapperClass, Class<?> primitiveClass, String valueMethodName) {
+		this.ordinal = ordinal;
 		this.name = name;
 		this.arrayComponentName = arrayComponentName;
 		this.wrapperClass = wrapperClass;
@@ -89,8 +67,25 @@ class BytecodePrimitive {
 		this.valueMethodName = valueMethodName;
 	}
 
-	static BytecodePrimitive valueOf(String name) {
-		return primitives.get(name);
+	/**
+	 * Get the primitive for a class by identity, without going through its name
+	 * 
+	 * @param clazz the class
+	 * @return the primitive, or null if <code>clazz</code> is not a primitive type
+	 */
+	static BytecodePrimitive forClass(Class<?> clazz) {
+		if (!clazz.isPrimitive())
+			return null;
+		for (BytecodePrimitive primitive : VALUES) {
+			if (primitive.primitiveClass == clazz)
+				return primitive;
+		}
+		//Shouldn't happen
+		throw new IllegalArgumentException("Unknown primitive " + clazz);
+	}
+
+	int ordinal() {
+		return ordinal;
 	}
 
 	String getName() {
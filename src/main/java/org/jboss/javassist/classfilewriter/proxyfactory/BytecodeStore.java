@@ -0,0 +1,393 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFileWriter;
+
+/**
+ * On-disk store of generated proxy class bytes, so that a restarted JVM, or another JVM 
+ * on the same host, can define the proxy classes without generating them again.
+ * <p>
+ * Each entry is keyed by the proxy name and a fingerprint of the bytes of the target 
+ * class hierarchy, of the classes generating the proxies and of the javassist version, so an 
+ * entry is never used after any of those change. Each entry lives in its own file named after the digest of 
+ * its key, and is memory mapped when read. Entries are written to a temporary file which is 
+ * then renamed, so concurrent readers and writers in different processes never see a partial entry.
+ * <p>
+ * The classes in the store get defined in the protection domain of the target class, and the fingerprint only 
+ * covers public bytes which anybody can work out. So whoever can write to the directory or to its entries can get
+ * their code run as the target class. The directory and each entry must therefore be owned by the current user and 
+ * not be writable by the group or by other users, otherwise they are not used. This needs Java 7 on a file system 
+ * with POSIX permissions to check, and the store is never used where that cannot be checked.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+final class BytecodeStore {
+    
+    private static final int MAGIC = 0x50525859;
+    
+    private static final String SUFFIX = ".proxy";
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    /** The classes whose code affects the generated bytes, including the javassist ones writing them */
+    private static final Class<?>[] GENERATOR_CLASSES = new Class<?>[] {ProxyFactory.class, ClassFileWriterContext.class, MethodInformationCache.class, 
+        InvocationFactory.class, TargetInvokerFactory.class, TypeDescriptor.class, ProxyFilters.class, Boxing.class, BytecodePrimitive.class, 
+        ClassFileWriter.class, Bytecode.class};
+    
+    private static volatile byte[] generatorFingerprint;
+    
+    /** The methods of java.nio.file from Java 7 for checking the owner and permissions of the files, or null if they are not there */
+    private static final Method TO_PATH;
+    private static final Method GET_OWNER;
+    private static final Method GET_POSIX_PERMISSIONS;
+    private static final Object FOLLOW_LINKS;
+    private static final Object NOFOLLOW_LINKS;
+    static {
+        Method toPath = null;
+        Method getOwner = null;
+        Method getPosixPermissions = null;
+        Object followLinks = null;
+        Object nofollowLinks = null;
+        try {
+            Class<?> path = Class.forName("java.nio.file.Path");
+            Class<?> files = Class.forName("java.nio.file.Files");
+            Class<?> linkOption = Class.forName("java.nio.file.LinkOption");
+            Class<?> linkOptions = Array.newInstance(linkOption, 0).getClass();
+            toPath = File.class.getMethod("toPath");
+            getOwner = files.getMethod("getOwner", path, linkOptions);
+            getPosixPermissions = files.getMethod("getPosixFilePermissions", path, linkOptions);
+            followLinks = Array.newInstance(linkOption, 0);
+            nofollowLinks = Array.newInstance(linkOption, 1);
+            Array.set(nofollowLinks, 0, linkOption.getField("NOFOLLOW_LINKS").get(null));
+        } catch (Exception e) {
+            //Before Java 7
+            toPath = null;
+        }
+        TO_PATH = toPath;
+        GET_OWNER = getOwner;
+        GET_POSIX_PERMISSIONS = getPosixPermissions;
+        FOLLOW_LINKS = followLinks;
+        NOFOLLOW_LINKS = nofollowLinks;
+    }
+    
+    private final File dir;
+    
+    /**
+     * Constructor
+     * 
+     * @param dir the directory, which gets created if it does not exist
+     * @throws IllegalArgumentException if the directory could not be created, or could be written by other users
+     */
+    BytecodeStore(File dir) {
+        if (!dir.exists()) {
+            if (!dir.mkdirs())
+                throw new IllegalArgumentException("Could not create bytecode cache directory " + dir);
+            //The umask might have let the group write to it
+            restrictWriting(dir);
+        }
+        if (!dir.isDirectory())
+            throw new IllegalArgumentException(dir + " is not a directory");
+        String untrusted = checkOnlyWritableByOwner(dir, true);
+        if (untrusted != null)
+            throw new IllegalArgumentException("Bytecode cache directory " + dir + " cannot be used, since " + untrusted);
+        this.dir = dir;
+    }
+    
+    File getDirectory() {
+        return dir;
+    }
+    
+    /**
+     * Get the fingerprint for the proxies of a class
+     * 
+     * @param clazz the target class
+     * @return the fingerprint, or null if the bytes of the target class hierarchy are not available
+     */
+    byte[] getFingerprint(Class<?> clazz) {
+        MessageDigest digest = createDigest();
+        digest.update(getGeneratorFingerprint());
+        for (Class<?> current = clazz ; current != Object.class ; current = current.getSuperclass()) {
+            byte[] bytes = readClassBytes(current);
+            if (bytes == null)
+                return null;
+            digest.update(current.getName().getBytes(UTF8));
+            digest.update(bytes);
+        }
+        return digest.digest();
+    }
+    
+    /**
+     * Load the classes stored for a proxy
+     * 
+     * @param proxyName the name of the proxy class
+     * @param fingerprint the fingerprint of the target class
+     * @return the class names and their bytes, or null if there is no valid entry
+     */
+    Map<String, ByteBuffer> load(String proxyName, byte[] fingerprint) {
+        File file = getFile(proxyName, fingerprint);
+        if (!file.exists())
+            return null;
+        //The permissions might have changed since the store was created, and the entry could have been put there by someone else
+        if (checkOnlyWritableByOwner(dir, true) != null || checkOnlyWritableByOwner(file, false) != null)
+            return null;
+        
+        try {
+            MappedByteBuffer buffer;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                raf.close();
+            }
+            
+            if (buffer.getInt() != MAGIC)
+                return null;
+            if (!proxyName.equals(readString(buffer)))
+                return null;
+            byte[] storedFingerprint = new byte[buffer.getInt()];
+            buffer.get(storedFingerprint);
+            if (!Arrays.equals(fingerprint, storedFingerprint))
+                return null;
+            
+            int count = buffer.getInt();
+            Map<String, ByteBuffer> classes = new LinkedHashMap<String, ByteBuffer>();
+            for (int i = 0 ; i < count ; i++) {
+                String name = readString(buffer);
+                int length = buffer.getInt();
+                ByteBuffer bytes = buffer.slice();
+                bytes.limit(length);
+                buffer.position(buffer.position() + length);
+                classes.put(name, bytes);
+            }
+            return classes;
+        } catch (IOException e) {
+            return null;
+        } catch (BufferUnderflowException e) {
+            //Corrupt entry
+            return null;
+        } catch (IllegalArgumentException e) {
+            //Corrupt entry
+            return null;
+        }
+    }
+    
+    /**
+     * Store the classes generated for a proxy. Failures are ignored since the store is only an optimization. 
+     * 
+     * @param proxyName the name of the proxy class
+     * @param fingerprint the fingerprint of the target class
+     * @param classes the class names and their bytes
+     */
+    void store(String proxyName, byte[] fingerprint, Map<String, byte[]> classes) {
+        File file = getFile(proxyName, fingerprint);
+        File tmp = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            writeString(out, proxyName);
+            out.writeInt(fingerprint.length);
+            out.write(fingerprint);
+            out.writeInt(classes.size());
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+            out.flush();
+            
+            tmp = File.createTempFile("proxy", ".tmp", dir);
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                fos.write(bytes.toByteArray());
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            restrictWriting(tmp);
+            if (tmp.renameTo(file))
+                tmp = null;
+        } catch (IOException e) {
+            //Another process might have stored it, or the directory is not writable
+        } finally {
+            if (tmp != null)
+                tmp.delete();
+        }
+    }
+    
+    /**
+     * Only let the owner write to a file created by the store
+     */
+    private static void restrictWriting(File file) {
+        file.setWritable(false, false);
+        file.setWritable(true, true);
+    }
+    
+    /**
+     * Check that nobody but the current user can change a file
+     * 
+     * @param file the file
+     * @param followLinks false to check a symbolic link itself rather than the file it points to
+     * @return null if only the current user can write to it, otherwise the reason why it cannot be trusted
+     */
+    private static String checkOnlyWritableByOwner(File file, boolean followLinks) {
+        if (TO_PATH == null)
+            return "the owner and permissions of files can only be checked from Java 7";
+        try {
+            Object path = TO_PATH.invoke(file);
+            Object options = followLinks ? FOLLOW_LINKS : NOFOLLOW_LINKS;
+            for (Object permission : (Set<?>)GET_POSIX_PERMISSIONS.invoke(null, path, options)) {
+                String name = permission.toString();
+                if (name.equals("GROUP_WRITE") || name.equals("OTHERS_WRITE"))
+                    return file + " can be written by other users";
+            }
+            String owner = ((Principal)GET_OWNER.invoke(null, path, options)).getName();
+            String user = SecurityActions.getSystemProperty("user.name");
+            if (!owner.equals(user))
+                return file + " is owned by " + owner + " rather than " + user;
+            return null;
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof UnsupportedOperationException)
+                return "the file system of " + file + " does not have POSIX permissions";
+            return "the owner and permissions of " + file + " could not be read: " + e.getCause();
+        } catch (IllegalAccessException e) {
+            return "the owner and permissions of " + file + " could not be read: " + e;
+        }
+    }
+    
+    private File getFile(String proxyName, byte[] fingerprint) {
+        MessageDigest digest = createDigest();
+        digest.update(proxyName.getBytes(UTF8));
+        digest.update(fingerprint);
+        byte[] key = digest.digest();
+        
+        StringBuilder sb = new StringBuilder(key.length * 2 + SUFFIX.length());
+        for (byte b : key) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        sb.append(SUFFIX);
+        return new File(dir, sb.toString());
+    }
+    
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+    
+    private static byte[] getGeneratorFingerprint() {
+        byte[] fingerprint = generatorFingerprint;
+        if (fingerprint == null) {
+            MessageDigest digest = createDigest();
+            for (Class<?> clazz : GENERATOR_CLASSES) {
+                byte[] bytes = readClassBytes(clazz);
+                if (bytes == null)
+                    throw new IllegalStateException("Could not read the bytes of " + clazz.getName());
+                digest.update(clazz.getName().getBytes(UTF8));
+                digest.update(bytes);
+            }
+            //The javassist version, in case a different one writes the same bytes differently
+            Package javassist = ClassFileWriter.class.getPackage();
+            if (javassist != null) {
+                updateIfNotNull(digest, javassist.getSpecificationVersion());
+                updateIfNotNull(digest, javassist.getImplementationVersion());
+            }
+            fingerprint = digest.digest();
+            generatorFingerprint = fingerprint;
+        }
+        return fingerprint;
+    }
+    
+    /**
+     * Read the class file of a class from its classloader
+     * 
+     * @return the bytes, or null if they could not be read
+     */
+    static byte[] readClassBytes(Class<?> clazz) {
+        String resource = ClassFileWriterContext.jvmClassName(clazz) + ".class";
+        ClassLoader cl = SecurityActions.getClassLoader(clazz);
+        InputStream in = cl == null ? ClassLoader.getSystemResourceAsStream(resource) : cl.getResourceAsStream(resource);
+        if (in == null)
+            return null;
+        try {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                    out.write(buffer, 0, read);
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    private static void updateIfNotNull(MessageDigest digest, String s) {
+        if (s != null)
+            digest.update(s.getBytes(UTF8));
+    }
+    
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -22,6 +22,7 @@
 package org.jboss.javassist.classfilewriter.proxyfactory;
 
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
 
 import javassist.Modifier;
@@ -42,7 +43,7 @@ import javassist.bytecode.ClassFileWriter.MethodWriter;
  * @version $Revision: 1.1 $
  */
 class ClassFileWriterContext<T> {
-    private static final java.lang.reflect.Method defineClass1, defineClass2;
+    private static final java.lang.reflect.Method defineClass1, defineClass2, defineClass3;
 
     static {
         try {
@@ -52,12 +53,16 @@ class ClassFileWriterContext<T> {
 
             defineClass2 = SecurityActions.getDeclaredMethod(cl, "defineClass", new Class[] { String.class,
                     byte[].class, int.class, int.class, ProtectionDomain.class });
+
+            defineClass3 = SecurityActions.getDeclaredMethod(cl, "defineClass", new Class<?>[] { String.class,
+                    ByteBuffer.class, ProtectionDomain.class });
         } catch (Exception e) {
             throw new RuntimeException("cannot initialize");
         }
 
         SecurityActions.setAccessible(defineClass1);
         SecurityActions.setAccessible(defineClass2);
+        SecurityActions.setAccessible(defineClass3);
     }
 
     /** The class of the interface we are implementing */
@@ -103,16 +108,7 @@ class ClassFileWriterContext<T> {
         superClass = poolWriter.addClassInfo(superClassName);
         interfaces = poolWriter.addClassInfo(interfaceNames);
 
-        // Add default constructor
         mw = fileWriter.getMethodWriter();
-        mw.begin(Modifier.PUBLIC, MethodInfo.nameInit, "()V", null, null);
-        mw.add(Opcode.ALOAD_0);
-        mw.add(Opcode.INVOKESPECIAL);
-        int signature = poolWriter.addNameAndTypeInfo(MethodInfo.nameInit, "()V");
-        mw.add16(poolWriter.addMethodrefInfo(superClass, signature));
-        mw.add(Opcode.RETURN);
-        mw.codeEnd(1, 1);
-        mw.end(null, null);
     }
 
     // String getSimpleType()
@@ -124,13 +120,31 @@ class ClassFileWriterContext<T> {
         return name;
     }
 
+    /**
+     * Add a public default constructor calling the superclass default constructor
+     */
+    void createDefaultConstructor() {
+        mw.begin(Modifier.PUBLIC, MethodInfo.nameInit, "()V", null, null);
+        mw.add(Opcode.ALOAD_0);
+        mw.add(Opcode.INVOKESPECIAL);
+        int signature = poolWriter.addNameAndTypeInfo(MethodInfo.nameInit, "()V");
+        mw.add16(poolWriter.addMethodrefInfo(superClass, signature));
+        mw.add(Opcode.RETURN);
+        mw.codeEnd(1, 1);
+        mw.end(null, null);
+    }
+
     void createField(int accessFlags, String name, String descriptor) {
         FieldWriter fw = fileWriter.getFieldWriter();
         fw.add(accessFlags, name, descriptor, null);
     }
 
     void beginMethod(int accessFlags, String name, String descriptor, String[] exceptions) {
-        mw.begin(Modifier.PUBLIC, name, descriptor, exceptions, null);
+        mw.begin(accessFlags, name, descriptor, exceptions, null);
+    }
+
+    void beginStaticInitializer() {
+        mw.begin(Modifier.STATIC, MethodInfo.nameClinit, "()V", null, null);
     }
 
     void endMethod(int maxLocals) {
@@ -153,7 +167,10 @@ class ClassFileWriterContext<T> {
     }
 
     void addInvokeInterface(String targetClass, String methodName, String descriptor, int count) {
-        mw.addInvoke(Opcode.INVOKEINTERFACE, targetClass, methodName, descriptor);
+        //MethodWriter.addInvoke() always adds a Methodref, while invokeinterface needs an InterfaceMethodref
+        mw.add(Opcode.INVOKEINTERFACE);
+        addIndex(poolWriter.addInterfaceMethodrefInfo(addClassInfo(targetClass), poolWriter.addNameAndTypeInfo(
+                methodName, descriptor)));
         mw.add(count);
         mw.add(0);
 
@@ -239,6 +256,54 @@ class ClassFileWriterContext<T> {
         mw.add(Opcode.RETURN);
     }
 
+    /**
+     * Get the number of bytes used by the xLOAD instruction for a local variable, for working out branch offsets
+     */
+    static int getLoadLength(int i) {
+        if (i < 4)
+            return 1;
+        if (i < 0x100)
+            return 2;
+        return 4;
+    }
+    
+    void addIfeq(int offset) {
+        mw.add(Opcode.IFEQ);
+        addIndex(offset);
+
+        // From Opcode.STACK_GROW[]
+        growStack(-1);
+    }
+
+    void addIfle(int offset) {
+        mw.add(Opcode.IFLE);
+        addIndex(offset);
+
+        // From Opcode.STACK_GROW[]
+        growStack(-1);
+    }
+
+    void addIshl() {
+        mw.add(Opcode.ISHL);
+
+        // From Opcode.STACK_GROW[]
+        growStack(-1);
+    }
+
+    void addIadd() {
+        mw.add(Opcode.IADD);
+
+        // From Opcode.STACK_GROW[]
+        growStack(-1);
+    }
+
+    void addAThrow() {
+        mw.add(Opcode.ATHROW);
+
+        // From Opcode.STACK_GROW[]
+        growStack(-1);
+    }
+
     void addAConstNull() {
         mw.add(Opcode.ACONST_NULL);
 
@@ -463,6 +528,55 @@ class ClassFileWriterContext<T> {
         addIndex(addClassInfo(className));
     }
 
+    /**
+     * Add a tableswitch on the int on the stack for the cases from 0
+     * 
+     * @param pc the position of the tableswitch in the method's code, which determines the padding
+     * @param defaultOffset the offset of the default case from the tableswitch
+     * @param offsets the offsets of the cases from the tableswitch
+     */
+    void addTableSwitch(int pc, int defaultOffset, int[] offsets) {
+        mw.add(Opcode.TABLESWITCH);
+        for (int i = 0 ; i < getTableSwitchPadding(pc) ; i++)
+            mw.add(0);
+        mw.add32(defaultOffset);
+        mw.add32(0);
+        mw.add32(offsets.length - 1);
+        for (int offset : offsets)
+            mw.add32(offset);
+
+        // From Opcode.STACK_GROW[]
+        growStack(-1);
+    }
+    
+    /**
+     * Get the number of bytes taken by a tableswitch
+     * 
+     * @param pc the position of the tableswitch in the method's code
+     * @param count the number of cases
+     */
+    static int getTableSwitchLength(int pc, int count) {
+        return 1 + getTableSwitchPadding(pc) + 12 + 4 * count;
+    }
+    
+    private static int getTableSwitchPadding(int pc) {
+        return 3 - (pc % 4);
+    }
+
+    void addPop() {
+        mw.add(Opcode.POP);
+
+        // From Opcode.STACK_GROW[]
+        growStack(-1);
+    }
+
+    void addPop2() {
+        mw.add(Opcode.POP2);
+
+        // From Opcode.STACK_GROW[]
+        growStack(-2);
+    }
+
     void addDup() {
         mw.add(Opcode.DUP);
 
@@ -496,6 +610,14 @@ class ClassFileWriterContext<T> {
             return (Class<T>) SecurityActions.invoke(defineClass2, loader, name, bytes, Integer.valueOf(0), Integer.valueOf(bytes.length), domain);
     }
 
+    /**
+     * Define a class from a buffer, e.g. one mapped from a file, without copying it into an array first
+     */
+    static Class<?> defineClass(ClassLoader loader, String name, ByteBuffer bytes, ProtectionDomain domain) throws InvocationTargetException,
+            IllegalAccessException {
+        return (Class<?>)SecurityActions.invoke(defineClass3, loader, name, bytes, domain);
+    }
+
     private void addIndex(int i) {
         mw.add(i >> 8);
         mw.add(i);
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A concurrent map with weakly referenced keys compared by identity, meant for 
+ * keying caches by class without causing classloader leaks. Lookups never block. 
+ * Entries for collected keys are purged on the next write. As for 
+ * {@link java.util.WeakHashMap}, the values must not strongly reference their keys.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+final class ConcurrentWeakIdentityMap<K, V> {
+    
+    private final ConcurrentMap<Object, V> map = new ConcurrentHashMap<Object, V>();
+    
+    private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+    
+    V get(K key) {
+        return map.get(new LookupKey(key));
+    }
+    
+    /**
+     * Put a value unless there is one already
+     * 
+     * @param key the key
+     * @param value the value
+     * @return the existing value, or null if <code>value</code> was put 
+     */
+    V putIfAbsent(K key, V value) {
+        expungeStaleEntries();
+        return map.putIfAbsent(new WeakKey<K>(key, queue), value);
+    }
+    
+    void put(K key, V value) {
+        expungeStaleEntries();
+        map.put(new WeakKey<K>(key, queue), value);
+    }
+    
+    V remove(K key) {
+        expungeStaleEntries();
+        return map.remove(new LookupKey(key));
+    }
+    
+    private void expungeStaleEntries() {
+        Reference<? extends K> ref;
+        while ((ref = queue.poll()) != null)
+            map.remove(ref);
+    }
+    
+    private static final class WeakKey<K> extends WeakReference<K> {
+        private final int hashCode;
+        
+        WeakKey(K key, ReferenceQueue<K> queue) {
+            super(key, queue);
+            hashCode = System.identityHashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            Object key = get();
+            if (key == null)
+                return false;
+            if (obj instanceof WeakKey<?>)
+                return key == ((WeakKey<?>)obj).get();
+            if (obj instanceof LookupKey)
+                return key == ((LookupKey)obj).key;
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+    
+    /**
+     * Used for lookups to avoid creating a weak reference
+     */
+    private static final class LookupKey {
+        private final Object key;
+        
+        LookupKey(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof WeakKey<?>)
+                return key == ((WeakKey<?>)obj).get();
+            if (obj instanceof LookupKey)
+                return key == ((LookupKey)obj).key;
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.reflect.Method;
+
+/**
+ * Superclass of the generated interceptor chains. There is one subclass per proxy class and combination of 
+ * interceptors applying to each method, where each step calls the next interceptor or the target directly. 
+ * The subclasses need this to be public, but only {@link #proceed(int, Object[])} is meant to be used.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public abstract class InterceptorChain {
+    
+    protected ProxyInterceptor[] interceptors;
+    protected Method[] methods;
+    protected Object target;
+    protected TargetInvoker invoker;
+    private int[] firstSteps;
+    private ProxyShape<?> shape;
+    
+    protected InterceptorChain() {
+    }
+    
+    /**
+     * Create another instance of the generated class
+     */
+    protected abstract InterceptorChain newInstance();
+    
+    /**
+     * Call the next step of the chain
+     * 
+     * @param next the step passed in to {@link ProxyInterceptor#intercept(Method, Object[], InterceptorChain, int)}
+     * @param args the arguments of the call
+     * @return the value of calling the method
+     * @throws Throwable any exception
+     */
+    public abstract Object proceed(int next, Object[] args) throws Throwable;
+    
+    /**
+     * Called by the generated code for an unknown step
+     */
+    protected final Object noSuchStep(int next) {
+        throw new IllegalArgumentException("No step " + next + " in interceptor chain for " + target.getClass().getName());
+    }
+    
+    void initPrototype(ProxyShape<?> shape, int[] firstSteps) {
+        this.shape = shape;
+        this.firstSteps = firstSteps;
+    }
+    
+    /**
+     * Get the shape of the proxy class this chain was generated for
+     */
+    ProxyShape<?> getShape() {
+        return shape;
+    }
+    
+    /**
+     * Create the chain for a proxy from the prototype created by {@link InterceptorChainFactory}. The chains 
+     * share the method table of the shape.
+     */
+    InterceptorChain bind(ProxyInterceptor[] interceptors, Object target) {
+        InterceptorChain chain = newInstance();
+        chain.interceptors = interceptors;
+        chain.shape = shape;
+        chain.methods = shape.getMethodTable();
+        chain.target = target;
+        chain.invoker = shape.getTargetInvoker();
+        chain.firstSteps = firstSteps;
+        return chain;
+    }
+    
+    Object start(int methodIndex, Object[] args) throws Throwable {
+        return proceed(firstSteps[methodIndex], args);
+    }
+}
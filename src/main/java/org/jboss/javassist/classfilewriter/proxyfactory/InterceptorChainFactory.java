@@ -0,0 +1,307 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.MethodInformationCache.MethodInformation;
+
+/**
+ * Generates the {@link InterceptorChain} subclass for a proxy class and the interceptors applying to each of its methods. 
+ * Each step of the chain, i.e. each interceptor applying to a method and the final call to the target, gets a number. 
+ * <code>proceed()</code> is a tableswitch on that number, where each case calls the accessor method for the step. The 
+ * accessor calls the interceptor with the method, and the number of the following step as constants.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+class InterceptorChainFactory {
+    
+    static final String CHAIN_SUFFIX = "$Chain";
+    
+    private static final int[] NONE = new int[0];
+    
+    private static final String CHAIN_TYPE = ClassFileWriterContext.jvmClassName(InterceptorChain.class);
+    
+    private static final String INTERCEPTOR_TYPE = ClassFileWriterContext.jvmClassName(ProxyInterceptor.class);
+    
+    private static final String TARGET_INVOKER_TYPE = ClassFileWriterContext.jvmClassName(TargetInvoker.class);
+    
+    private static final String PROCEED_SIGNATURE = "(I[Ljava/lang/Object;)Ljava/lang/Object;";
+    
+    private static final String STEP_PREFIX = "step$";
+    
+    private static final String STEP_SIGNATURE = "([Ljava/lang/Object;)Ljava/lang/Object;";
+    
+    private static final String INTERCEPT_SIGNATURE = "(Ljava/lang/reflect/Method;[Ljava/lang/Object;L" + CHAIN_TYPE + ";I)Ljava/lang/Object;";
+    
+    /** The size of aload_0, aload_2, invokevirtual, areturn */
+    private static final int CASE_LENGTH = 6;
+    
+    /** The tableswitch comes after iload_1 */
+    private static final int SWITCH_PC = 1;
+    
+    private final ProxyShape<?> shape;
+    private final int[][] applying;
+    private final ClassFileWriterContext<InterceptorChain> context;
+    
+    /** The method index of each step */
+    private final int[] stepMethods;
+    
+    /** The interceptor index of each step, or -1 for the call to the target */
+    private final int[] stepInterceptors;
+    
+    /** The first step of each method, or -1 for the methods without interceptors */
+    private final int[] firstSteps;
+
+    InterceptorChainFactory(ProxyShape<?> shape, int[][] applying, int chainIndex) {
+        this.shape = shape;
+        this.applying = applying;
+        context = new ClassFileWriterContext<InterceptorChain>(shape.getProxyName() + CHAIN_SUFFIX + chainIndex, InterceptorChain.class.getName(), new String[0]);
+        
+        int steps = 0;
+        for (int[] positions : applying) {
+            if (positions.length > 0)
+                steps += positions.length + 1;
+        }
+        stepMethods = new int[steps];
+        stepInterceptors = new int[steps];
+        firstSteps = new int[applying.length];
+        int step = 0;
+        for (int i = 0 ; i < applying.length ; i++) {
+            if (applying[i].length == 0) {
+                firstSteps[i] = -1;
+                continue;
+            }
+            firstSteps[i] = step;
+            for (int position : applying[i]) {
+                stepMethods[step] = i;
+                stepInterceptors[step++] = position;
+            }
+            stepMethods[step] = i;
+            stepInterceptors[step++] = -1;
+        }
+    }
+    
+    /**
+     * Get the indexes of the interceptors applying to each method
+     * 
+     * @param interceptors the interceptors in the order they are called
+     * @param methods the sorted proxyable methods
+     * @return the indexes of the interceptors applying to each method, where the methods without interceptors share an empty array
+     */
+    static int[][] getApplying(ProxyInterceptor[] interceptors, MethodInformation[] methods) {
+        int[][] applying = new int[methods.length][];
+        int[] positions = new int[interceptors.length];
+        for (int i = 0 ; i < methods.length ; i++) {
+            Method m = methods[i].getMethod();
+            int count = 0;
+            for (int j = 0 ; j < interceptors.length ; j++) {
+                if (interceptors[j].appliesTo(m))
+                    positions[count++] = j;
+            }
+            applying[i] = count == 0 ? NONE : Arrays.copyOf(positions, count);
+        }
+        return applying;
+    }
+    
+    /**
+     * Generate and define the chain class
+     * 
+     * @return an unbound instance to create the chains for each proxy from
+     */
+    InterceptorChain createPrototype() {
+        context.createDefaultConstructor();
+        createNewInstanceMethod();
+        createProceedMethod();
+        for (int step = 0 ; step < stepMethods.length ; step++)
+            createStep(step);
+        
+        Class<?> proxyClass = shape.getProxyClass();
+        InterceptorChain prototype;
+        try {
+            prototype = context.toClass(ProxyFactory.getClassLoader(proxyClass), proxyClass.getProtectionDomain()).newInstance();
+        } catch (Exception e) {
+            throw new RuntimeException("Could not create interceptor chain for " + shape.getProxyName(), e);
+        }
+        prototype.initPrototype(shape, firstSteps);
+        return prototype;
+    }
+    
+    private void createNewInstanceMethod() {
+        context.beginMethod(Modifier.PROTECTED, "newInstance", "()L" + CHAIN_TYPE + ";", null);
+        context.addNew(context.getName());
+        context.addDup();
+        context.addInvokeSpecial(context.getName(), "<init>", "()V");
+        context.addAReturn();
+        context.endMethod(1);
+    }
+    
+    private void createProceedMethod() {
+        context.beginMethod(Modifier.PUBLIC, "proceed", PROCEED_SIGNATURE, null);
+        if (stepMethods.length > 0) {
+            context.addIload(1);
+            int[] offsets = new int[stepMethods.length];
+            int offset = ClassFileWriterContext.getTableSwitchLength(SWITCH_PC, offsets.length);
+            for (int step = 0 ; step < offsets.length ; step++) {
+                offsets[step] = offset;
+                offset += CASE_LENGTH;
+            }
+            context.addTableSwitch(SWITCH_PC, offset, offsets);
+            for (int step = 0 ; step < offsets.length ; step++) {
+                context.addAload(0);
+                context.addAload(2);
+                context.addInvokeVirtual(context.getName(), STEP_PREFIX + step, STEP_SIGNATURE);
+                context.addAReturn();
+            }
+        }
+        context.addAload(0);
+        context.addIload(1);
+        context.addInvokeVirtual(CHAIN_TYPE, "noSuchStep", "(I)Ljava/lang/Object;");
+        context.addAReturn();
+        context.endMethod(3);
+    }
+    
+    /**
+     * Create the accessor for a step, which calls the interceptor or the target
+     */
+    private void createStep(int step) {
+        context.beginMethod(Modifier.PUBLIC, STEP_PREFIX + step, STEP_SIGNATURE, null);
+        int methodIndex = stepMethods[step];
+        if (stepInterceptors[step] >= 0) {
+            context.addAload(0);
+            context.addGetField(CHAIN_TYPE, "interceptors", "[L" + INTERCEPTOR_TYPE + ";");
+            context.addIconst(stepInterceptors[step]);
+            context.addAALoad();
+            context.addAload(0);
+            context.addGetField(CHAIN_TYPE, "methods", "[Ljava/lang/reflect/Method;");
+            context.addIconst(methodIndex);
+            context.addAALoad();
+            context.addAload(1);
+            context.addAload(0);
+            context.addIconst(step + 1);
+            context.addInvokeInterface(INTERCEPTOR_TYPE, "intercept", INTERCEPT_SIGNATURE, 5);
+        } else {
+            context.addAload(0);
+            context.addGetField(CHAIN_TYPE, "invoker", "L" + TARGET_INVOKER_TYPE + ";");
+            context.addIconst(methodIndex);
+            context.addAload(0);
+            context.addGetField(CHAIN_TYPE, "target", "Ljava/lang/Object;");
+            context.addAload(1);
+            context.addInvokeVirtual(TARGET_INVOKER_TYPE, "invoke", "(ILjava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;");
+        }
+        context.addAReturn();
+        context.endMethod(2);
+    }
+    
+    /**
+     * Key for the chain classes of a proxy class
+     */
+    static final class Key {
+        private final int[][] applying;
+        private final int hash;
+        
+        Key(int[][] applying) {
+            this.applying = applying;
+            this.hash = Arrays.deepHashCode(applying);
+        }
+        
+        int[][] getApplying() {
+            return applying;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key)obj;
+            return hash == other.hash && Arrays.deepEquals(applying, other.applying);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+    
+    /**
+     * Key for the chains of a target class by the classes of the interceptors, which is only used when all of them 
+     * are annotated with {@link StableFilters}. The classes are held weakly, since they might come from a different 
+     * classloader than the target class.
+     */
+    static final class InterceptorsKey {
+        private final WeakReference<Class<?>>[] classes;
+        private final int hash;
+        
+        @SuppressWarnings("unchecked")
+        private InterceptorsKey(ProxyInterceptor[] interceptors) {
+            classes = (WeakReference<Class<?>>[])new WeakReference<?>[interceptors.length];
+            int hash = interceptors.length;
+            for (int i = 0 ; i < interceptors.length ; i++) {
+                Class<?> clazz = interceptors[i].getClass();
+                classes[i] = new WeakReference<Class<?>>(clazz);
+                hash = 31 * hash + System.identityHashCode(clazz);
+            }
+            this.hash = hash;
+        }
+        
+        /**
+         * Create the key for the interceptors
+         * 
+         * @return the key, or null if the result of {@link ProxyInterceptor#appliesTo(Method)} might depend on the state of any of the interceptors
+         */
+        static InterceptorsKey create(ProxyInterceptor[] interceptors) {
+            for (ProxyInterceptor interceptor : interceptors) {
+                if (!interceptor.getClass().isAnnotationPresent(StableFilters.class))
+                    return null;
+            }
+            return new InterceptorsKey(interceptors);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            if (!(obj instanceof InterceptorsKey))
+                return false;
+            InterceptorsKey other = (InterceptorsKey)obj;
+            if (hash != other.hash || classes.length != other.classes.length)
+                return false;
+            for (int i = 0 ; i < classes.length ; i++) {
+                Class<?> clazz = classes[i].get();
+                if (clazz == null || clazz != other.classes[i].get())
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
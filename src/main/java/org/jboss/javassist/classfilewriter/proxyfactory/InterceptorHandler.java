@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.reflect.Method;
+
+/**
+ * The handler used for proxies with interceptors, which passes the calls on to the compiled chain. Which
+ * interceptors apply to each method is worked out before creating the proxy, and the filters are created 
+ * from that rather than by this handler.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+final class InterceptorHandler<T> extends ProxyHandler<T> {
+    
+    private final InterceptorChain chain;
+    
+    InterceptorHandler(T instance, InterceptorChain chain) {
+        super(instance);
+        this.chain = chain;
+    }
+
+    @Override
+    public Object invokeMethod(T proxy, int index, Method m, Object[] args) throws Throwable {
+        return chain.start(index, args);
+    }
+
+    @Override
+    protected Object invokeMethod(T instance, Method m, Object[] args) throws Throwable {
+        return chain.start(getShape().getMethodIndex(m), args);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * A call of a proxied method, passed to {@link InvocationProxyHandler}. The proxy creates an instance of a 
+ * subclass generated for each proxied method, which keeps the arguments as they are rather than boxing them 
+ * into an array. The typed accessors read and change the arguments, and throw an {@link IllegalArgumentException} 
+ * if the type does not match the parameter type of the method, e.g. <code>getInt(0)</code> for a method whose
+ * first parameter is a <code>long</code>. {@link #getObject(int)} and {@link #setObject(int, Object)} are
+ * used for all the parameters which are not primitives.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public abstract class Invocation {
+    
+    private final Method method;
+    private final int methodIndex;
+    private final ProxyHandler<?> handler;
+    private final Object proxy;
+    
+    protected Invocation(Method method, int methodIndex, ProxyHandler<?> handler, Object proxy) {
+        this.method = method;
+        this.methodIndex = methodIndex;
+        this.handler = handler;
+        this.proxy = proxy;
+    }
+    
+    /**
+     * Get the method being called
+     * 
+     * @return the method
+     */
+    public final Method getMethod() {
+        return method;
+    }
+    
+    /**
+     * Get the index of the method in the method table of the proxy class
+     * 
+     * @return the index
+     */
+    public final int getMethodIndex() {
+        return methodIndex;
+    }
+    
+    /**
+     * Get the arguments of the call
+     * 
+     * @return a new array containing the arguments, boxed if they are primitives
+     */
+    public abstract Object[] getArguments();
+    
+    /**
+     * Call the method on the instance handled with the current arguments. The generated subclasses call the 
+     * method directly if it is accessible, otherwise this goes through the target invoker like 
+     * {@link ProxyHandler#proceed(Method, Object[])}.
+     * 
+     * @return the value returned by the method, boxed if it is a primitive
+     * @throws Throwable the exception thrown by the method
+     */
+    public Object proceed() throws Throwable {
+        return handler.getShape().getTargetInvoker().invoke(methodIndex, handler.getInstance(), getArguments());
+    }
+    
+    /**
+     * Call the superclass implementation of the method on the proxy with the current arguments
+     * 
+     * @return the value returned by the method, boxed if it is a primitive
+     * @throws IllegalArgumentException if the call did not come from a proxy
+     * @throws Throwable the exception thrown by the method
+     */
+    public Object invokeSuper() throws Throwable {
+        return ProxyFactory.getProxyShape(proxy).getSuperInvoker().invoke(methodIndex, proxy, getArguments());
+    }
+    
+    public boolean getBoolean(int index) {
+        throw noSuchArgument(index);
+    }
+    
+    public void setBoolean(int index, boolean value) {
+        throw noSuchArgument(index);
+    }
+    
+    public byte getByte(int index) {
+        throw noSuchArgument(index);
+    }
+    
+    public void setByte(int index, byte value) {
+        throw noSuchArgument(index);
+    }
+    
+    public char getChar(int index) {
+        throw noSuchArgument(index);
+    }
+    
+    public void setChar(int index, char value) {
+        throw noSuchArgument(index);
+    }
+    
+    public short getShort(int index) {
+        throw noSuchArgument(index);
+    }
+    
+    public void setShort(int index, short value) {
+        throw noSuchArgument(index);
+    }
+    
+    public int getInt(int index) {
+        throw noSuchArgument(index);
+    }
+    
+    public void setInt(int index, int value) {
+        throw noSuchArgument(index);
+    }
+    
+    public long getLong(int index) {
+        throw noSuchArgument(index);
+    }
+    
+    public void setLong(int index, long value) {
+        throw noSuchArgument(index);
+    }
+    
+    public float getFloat(int index) {
+        throw noSuchArgument(index);
+    }
+    
+    public void setFloat(int index, float value) {
+        throw noSuchArgument(index);
+    }
+    
+    public double getDouble(int index) {
+        throw noSuchArgument(index);
+    }
+    
+    public void setDouble(int index, double value) {
+        throw noSuchArgument(index);
+    }
+    
+    public Object getObject(int index) {
+        throw noSuchArgument(index);
+    }
+    
+    /**
+     * Change a non-primitive argument
+     * 
+     * @throws ClassCastException if the value is not of the parameter type
+     */
+    public void setObject(int index, Object value) {
+        throw noSuchArgument(index);
+    }
+    
+    /**
+     * Get the instance handled, for the generated code
+     */
+    protected final Object getTarget() {
+        return handler.getInstance();
+    }
+    
+    /**
+     * Get the proxy, for the generated code
+     */
+    protected final Object getProxy() {
+        return proxy;
+    }
+    
+    /**
+     * Called by the accessors for an index with another type
+     */
+    protected final IllegalArgumentException noSuchArgument(int index) {
+        return new IllegalArgumentException("No argument " + index + " of the requested type for " + method.getName() + 
+                Arrays.toString(method.getParameterTypes()));
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.reflect.Modifier;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.MethodInformationCache.MethodInformation;
+
+/**
+ * Generates the {@link Invocation} subclass for a proxied method. The arguments are kept in a field each, with 
+ * their own types. The typed accessors for the parameter types present are tableswitches on the argument index, 
+ * and <code>proceed()</code> and <code>invokeSuper()</code> call the target and the proxy's super method directly.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+class InvocationFactory {
+    
+    static final String INVOCATION_SUFFIX = "$Invocation";
+    
+    static final String INVOCATION_TYPE = ClassFileWriterContext.jvmClassName(Invocation.class);
+    
+    private static final String PROXY_HANDLER_SIGNATURE = "L" + ClassFileWriterContext.jvmClassName(ProxyHandler.class) + ";";
+    
+    private static final String BASE_CONSTRUCTOR_SIGNATURE = "(Ljava/lang/reflect/Method;I" + PROXY_HANDLER_SIGNATURE + "Ljava/lang/Object;)V";
+    
+    private static final String ARG_FIELD_PREFIX = "arg";
+    
+    /** The tableswitch comes after iload_1 */
+    private static final int SWITCH_PC = 1;
+    
+    private static final TypeDescriptor OBJECT_TYPE = TypeDescriptor.forClass(Object.class);
+    
+    /** The types with accessors in Invocation, where Object is used for all the non-primitive types */
+    private static final TypeDescriptor[] ACCESSOR_TYPES = {TypeDescriptor.forClass(Boolean.TYPE), TypeDescriptor.forClass(Byte.TYPE), 
+        TypeDescriptor.forClass(Character.TYPE), TypeDescriptor.forClass(Short.TYPE), TypeDescriptor.forClass(Integer.TYPE), 
+        TypeDescriptor.forClass(Long.TYPE), TypeDescriptor.forClass(Float.TYPE), TypeDescriptor.forClass(Double.TYPE), 
+        OBJECT_TYPE};
+    
+    private static final String[] ACCESSOR_NAMES = {"Boolean", "Byte", "Char", "Short", "Int", "Long", "Float", "Double", "Object"};
+    
+    private final String proxyName;
+    private final Class<?> clazz;
+    private final int methodIndex;
+    private final MethodInformation methodInformation;
+    private final TypeDescriptor[] params;
+    private final ClassFileWriterContext<Invocation> context;
+
+    InvocationFactory(String proxyName, Class<?> clazz, int methodIndex, MethodInformation methodInformation) {
+        this.proxyName = proxyName;
+        this.clazz = clazz;
+        this.methodIndex = methodIndex;
+        this.methodInformation = methodInformation;
+        this.params = methodInformation.getParameterTypes();
+        context = new ClassFileWriterContext<Invocation>(getInvocationClassName(proxyName, methodIndex), Invocation.class.getName(), new String[0]);
+    }
+    
+    static String getInvocationClassName(String proxyName, int methodIndex) {
+        return proxyName + INVOCATION_SUFFIX + methodIndex;
+    }
+    
+    /**
+     * Get the signature of the constructor, which takes the method, the handler, the proxy and the arguments
+     */
+    static String getConstructorSignature(MethodInformation methodInformation) {
+        String signature = methodInformation.getFullSignature();
+        return "(Ljava/lang/reflect/Method;" + PROXY_HANDLER_SIGNATURE + "Ljava/lang/Object;" + signature.substring(1, signature.indexOf(')')) + ")V";
+    }
+    
+    /**
+     * Generate the invocation class
+     * 
+     * @return the context containing the class bytes
+     */
+    ClassFileWriterContext<Invocation> createInvocation() {
+        for (int i = 0 ; i < params.length ; i++)
+            context.createField(Modifier.PRIVATE, ARG_FIELD_PREFIX + i, params[i].getDescriptor());
+        createConstructor();
+        createGetArguments();
+        for (int i = 0 ; i < ACCESSOR_TYPES.length ; i++) {
+            if (hasParameterOfType(ACCESSOR_TYPES[i])) {
+                createGetter(ACCESSOR_NAMES[i], ACCESSOR_TYPES[i]);
+                createSetter(ACCESSOR_NAMES[i], ACCESSOR_TYPES[i]);
+            }
+        }
+        if (TargetInvokerFactory.isDirectlyCallable(clazz, methodInformation))
+            createCall("proceed", "getTarget", ClassFileWriterContext.jvmClassName(clazz), methodInformation.getName());
+        createCall("invokeSuper", "getProxy", ClassFileWriterContext.jvmClassName(proxyName), 
+                ProxyFactory.getSuperMethodName(methodInformation.getName(), methodIndex));
+        return context;
+    }
+    
+    private void createConstructor() {
+        context.beginMethod(Modifier.PUBLIC, "<init>", getConstructorSignature(methodInformation), null);
+        context.addAload(0);
+        context.addAload(1);
+        context.addIconst(methodIndex);
+        context.addAload(2);
+        context.addAload(3);
+        context.addInvokeSpecial(INVOCATION_TYPE, "<init>", BASE_CONSTRUCTOR_SIGNATURE);
+        int slot = 4;
+        for (int i = 0 ; i < params.length ; i++) {
+            context.addAload(0);
+            ProxyFactory.loadParameter(context, params[i], slot);
+            context.addPutField(context.getName(), ARG_FIELD_PREFIX + i, params[i].getDescriptor());
+            slot = ProxyFactory.offsetParam(params[i], slot) + 1;
+        }
+        context.addReturn();
+        context.endMethod(slot);
+    }
+    
+    private void createGetArguments() {
+        context.beginMethod(Modifier.PUBLIC, "getArguments", "()[Ljava/lang/Object;", null);
+        context.addAnewArray("java/lang/Object", params.length);
+        for (int i = 0 ; i < params.length ; i++) {
+            context.addDup();
+            context.addIconst(i);
+            loadField(i);
+            ProxyFactory.boxValue(context, params[i]);
+            context.addAAStore();
+        }
+        context.addAReturn();
+        context.endMethod(1);
+    }
+    
+    private void createGetter(String name, TypeDescriptor type) {
+        context.beginMethod(Modifier.PUBLIC, "get" + name, "(I)" + type.getDescriptor(), null);
+        context.addIload(1);
+        int[] offsets = new int[params.length];
+        int offset = ClassFileWriterContext.getTableSwitchLength(SWITCH_PC, offsets.length);
+        for (int i = 0 ; i < params.length ; i++) {
+            if (isOfType(params[i], type)) {
+                offsets[i] = offset;
+                //aload_0, getfield, xreturn
+                offset += 5;
+            }
+        }
+        setDefaultOffsets(offsets, type, offset);
+        context.addTableSwitch(SWITCH_PC, offset, offsets);
+        for (int i = 0 ; i < params.length ; i++) {
+            if (isOfType(params[i], type)) {
+                loadField(i);
+                ProxyFactory.addReturn(context, params[i]);
+            }
+        }
+        addNoSuchArgument();
+        context.endMethod(2);
+    }
+    
+    private void createSetter(String name, TypeDescriptor type) {
+        context.beginMethod(Modifier.PUBLIC, "set" + name, "(I" + type.getDescriptor() + ")V", null);
+        context.addIload(1);
+        int[] offsets = new int[params.length];
+        int offset = ClassFileWriterContext.getTableSwitchLength(SWITCH_PC, offsets.length);
+        for (int i = 0 ; i < params.length ; i++) {
+            if (isOfType(params[i], type)) {
+                offsets[i] = offset;
+                //aload_0, xload_2, [checkcast], putfield, return
+                offset += needsCast(params[i]) ? 9 : 6;
+            }
+        }
+        setDefaultOffsets(offsets, type, offset);
+        context.addTableSwitch(SWITCH_PC, offset, offsets);
+        for (int i = 0 ; i < params.length ; i++) {
+            if (isOfType(params[i], type)) {
+                context.addAload(0);
+                ProxyFactory.loadParameter(context, type, 2);
+                if (needsCast(params[i]))
+                    context.addCheckcast(params[i].getInternalName());
+                context.addPutField(context.getName(), ARG_FIELD_PREFIX + i, params[i].getDescriptor());
+                context.addReturn();
+            }
+        }
+        addNoSuchArgument();
+        context.endMethod(ProxyFactory.offsetParam(type, 2) + 1);
+    }
+    
+    /**
+     * Call the method with the arguments on the object returned by the accessor
+     */
+    private void createCall(String name, String accessor, String owner, String methodName) {
+        context.beginMethod(Modifier.PUBLIC, name, "()Ljava/lang/Object;", null);
+        context.addAload(0);
+        context.addInvokeVirtual(INVOCATION_TYPE, accessor, "()Ljava/lang/Object;");
+        context.addCheckcast(owner);
+        for (int i = 0 ; i < params.length ; i++)
+            loadField(i);
+        context.addInvokeVirtual(owner, methodName, methodInformation.getFullSignature());
+        TypeDescriptor returnType = methodInformation.getReturnType();
+        if (returnType.getPrimitive() == BytecodePrimitive.VOID)
+            context.addAConstNull();
+        else
+            ProxyFactory.boxValue(context, returnType);
+        context.addAReturn();
+        context.endMethod(1);
+    }
+    
+    private void setDefaultOffsets(int[] offsets, TypeDescriptor type, int defaultOffset) {
+        for (int i = 0 ; i < params.length ; i++) {
+            if (!isOfType(params[i], type))
+                offsets[i] = defaultOffset;
+        }
+    }
+    
+    private void addNoSuchArgument() {
+        context.addAload(0);
+        context.addIload(1);
+        context.addInvokeVirtual(INVOCATION_TYPE, "noSuchArgument", "(I)Ljava/lang/IllegalArgumentException;");
+        context.addAThrow();
+    }
+    
+    private void loadField(int i) {
+        context.addAload(0);
+        context.addGetField(context.getName(), ARG_FIELD_PREFIX + i, params[i].getDescriptor());
+    }
+    
+    private boolean hasParameterOfType(TypeDescriptor type) {
+        for (TypeDescriptor param : params) {
+            if (isOfType(param, type))
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * The descriptors are canonical, so the primitive types and Object can be compared by identity
+     */
+    private static boolean isOfType(TypeDescriptor param, TypeDescriptor type) {
+        return param.isPrimitive() ? param == type : type == OBJECT_TYPE;
+    }
+    
+    private static boolean needsCast(TypeDescriptor param) {
+        return !param.isPrimitive() && param != OBJECT_TYPE;
+    }
+}
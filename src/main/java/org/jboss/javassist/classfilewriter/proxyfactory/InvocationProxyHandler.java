@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.reflect.Method;
+
+/**
+ * A handler receiving the calls as {@link Invocation}s. The proxy methods create an invocation of a class 
+ * generated for the method, which holds the arguments as they are, so handlers which only look at some of the 
+ * arguments or just proceed do not box them.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public abstract class InvocationProxyHandler<T> extends ProxyHandler<T> {
+    
+    protected InvocationProxyHandler(T instance) {
+        super(instance);
+    }
+    
+    /**
+     * Called by the proxy methods
+     * 
+     * @param invocation the call
+     * @return the value of calling the method
+     */
+    public final Object invokeMethod(Invocation invocation) throws Throwable {
+        return invoke(invocation);
+    }
+    
+    /**
+     * Calls from outside the proxy methods, e.g. {@link ProxyHandler#invokeMethod(int, Object[])}, get wrapped 
+     * in an invocation over the array
+     */
+    @Override
+    public final Object invokeMethod(T proxy, int index, Method m, Object[] args) throws Throwable {
+        return invoke(new ArrayInvocation(m, index, this, proxy, args));
+    }
+    
+    @Override
+    protected final Object invokeMethod(T instance, Method m, Object[] args) throws Throwable {
+        return invokeMethod(null, getShape().getMethodIndex(m), m, args);
+    }
+    
+    /**
+     * Override to handle the method calls
+     * 
+     * @param invocation the call
+     * @return the value of calling the method
+     */
+    protected abstract Object invoke(Invocation invocation) throws Throwable;
+}
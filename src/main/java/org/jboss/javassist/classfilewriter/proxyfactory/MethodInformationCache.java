@@ -21,18 +21,30 @@
  */
 package org.jboss.javassist.classfilewriter.proxyfactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ExceptionsAttribute;
+import javassist.bytecode.MethodInfo;
 
 /**
  * 
@@ -40,138 +52,375 @@ import java.util.WeakHashMap;
  * @version $Revision: 1.1 $
  */
 public class MethodInformationCache {
+    /** 
+     * Set this system property to <code>true</code> to get the methods of the proxied classes using reflection rather than 
+     * by reading their class files, e.g. if the classes are transformed when loaded 
+     */
+    public static final String REFLECTIVE_SCANNING_PROPERTY = "org.jboss.javassist.classfilewriter.proxyfactory.reflectiveMethodScanning";
+    
+    private static final boolean REFLECTIVE_SCANNING = Boolean.valueOf(SecurityActions.getSystemProperty(REFLECTIVE_SCANNING_PROPERTY)).booleanValue();
+    
     private static final String[] NO_EXCEPTIONS = new String[0];
     
-    private static final Map<Class<?>, List<WeakMethodInformation>> CACHE = Collections.synchronizedMap(new WeakHashMap<Class<?>, List<WeakMethodInformation>>());
+    private static final MethodInformation[] NO_METHODS = new MethodInformation[0];
+    
+    /** Orders the methods by name and parameters */
+    private static final Comparator<MethodInformation> COMPARATOR = new Comparator<MethodInformation>() {
+        public int compare(MethodInformation m1, MethodInformation m2) {
+            return MethodInformationCache.compare(m1.name, m1.params, m2.name, m2.params);
+        }
+    };
+    
+    /** 
+     * The cached methods hold their Method weakly, so they do not keep the class alive. The arrays are 
+     * shared by all callers and must not be modified 
+     */
+    private static final ConcurrentWeakIdentityMap<Class<?>, MethodInformation[]> CACHE = new ConcurrentWeakIdentityMap<Class<?>, MethodInformation[]>();
+    
+    /** The scans in progress, so that threads missing on the same class wait for the one scanning it */
+    private static final ConcurrentMap<Class<?>, FutureTask<MethodInformation[]>> IN_FLIGHT = new ConcurrentHashMap<Class<?>, FutureTask<MethodInformation[]>>();
     
+    /**
+     * Get the proxyable methods of a class sorted by name and parameters. The returned array is shared, so callers 
+     * must not modify it
+     */
     static MethodInformation[] getSortedProxyableMethods(Class<?> clazz) {
+        MethodInformation[] methods = CACHE.get(clazz); 
+        if (methods == null)
+            methods = scan(clazz);
+        return methods;
+    }
+
+    /**
+     * Find a method by its name and parameters in methods sorted by {@link #getSortedProxyableMethods(Class)}, 
+     * without resolving any of them
+     * 
+     * @return the index of the method, or -1 if there is none
+     */
+    static int indexOf(MethodInformation[] methods, String name, Class<?>[] parameterTypes) {
+        TypeDescriptor[] params = new TypeDescriptor[parameterTypes.length];
+        for (int i = 0 ; i < params.length ; i++)
+            params[i] = TypeDescriptor.forClass(parameterTypes[i]);
         
-        List<WeakMethodInformation> methods = CACHE.get(clazz); 
-        if (methods == null) {
-	        SortedSet<WeakMethodInformation> methodSet = new TreeSet<WeakMethodInformation>(new Comparator<WeakMethodInformation>() {
-				@Override
-	            public int compare(WeakMethodInformation m1, WeakMethodInformation m2) {
-					int nameCompare = m1.getName().compareTo(m2.getName());
-					if (nameCompare != 0)
-						return nameCompare;
-		            return m1.getParams().compareTo(m2.getParams());
-	            }
-			});
-	        getProxyableMethods(methodSet, clazz);
-	        
-	        methods = Collections.unmodifiableList(new ArrayList<WeakMethodInformation>(methodSet)); 
-	        CACHE.put(clazz, new ArrayList<WeakMethodInformation>(methods));
-        }        
+        int low = 0;
+        int high = methods.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = compare(methods[mid].name, methods[mid].params, name, params);
+            if (compare < 0)
+                low = mid + 1;
+            else if (compare > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+    
+    private static int compare(String name1, TypeDescriptor[] params1, String name2, TypeDescriptor[] params2) {
+        int nameCompare = name1.compareTo(name2);
+        if (nameCompare != 0)
+            return nameCompare;
+        //Descriptors are prefix free, so this gives the same order as comparing the concatenated descriptors
+        int length = Math.min(params1.length, params2.length);
+        for (int i = 0 ; i < length ; i++) {
+            int paramCompare = params1[i].compareTo(params2[i]);
+            if (paramCompare != 0)
+                return paramCompare;
+        }
+        return params1.length - params2.length;
+    }
+
+    /**
+     * Scan the class, making sure that it only happens once even if several threads ask for it at the same time
+     */
+    private static MethodInformation[] scan(final Class<?> clazz) {
+        FutureTask<MethodInformation[]> task = IN_FLIGHT.get(clazz);
+        if (task == null) {
+            FutureTask<MethodInformation[]> newTask = new FutureTask<MethodInformation[]>(new Callable<MethodInformation[]>() {
+                public MethodInformation[] call() {
+                    //Another thread might have finished scanning it since we checked
+                    MethodInformation[] methods = CACHE.get(clazz);
+                    if (methods != null)
+                        return methods;
+                    
+                    methods = getProxyableMethods(clazz); 
+                    CACHE.put(clazz, methods);
+                    return methods;
+                }
+            });
+            task = IN_FLIGHT.putIfAbsent(clazz, newTask);
+            if (task == null) {
+                task = newTask;
+                try {
+                    newTask.run();
+                } finally {
+                    IN_FLIGHT.remove(clazz, newTask);
+                }
+            }
+        }
         
-        List<MethodInformation> result = new ArrayList<MethodInformation>(methods.size());
-        for (WeakMethodInformation m : methods)
-        	result.add(new MethodInformation(m));
-        return result.toArray(new MethodInformation[result.size()]);
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for the methods of " + clazz.getName(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new RuntimeException(cause);
+        }
     }
 
-    private static void getProxyableMethods(Set<WeakMethodInformation> methodSet, Class<?> clazz) {
+    /**
+     * Get the proxyable methods declared by the class merged with the cached ones of its superclass, so that 
+     * each class of a hierarchy is only reflected on once however many subclasses get proxied. The methods
+     * declared by the class take precedence over the ones with the same name and parameters in the superclass.  
+     */
+    private static MethodInformation[] getProxyableMethods(Class<?> clazz) {
         if (clazz == Object.class)
-            return;
-        Method[] methods = SecurityActions.getDeclaredMethods(clazz);
-        for (Method m : methods) {
-            int modifiers = m.getModifiers();
-            if (Modifier.isFinal(modifiers))
-                continue;
-            if (Modifier.isPrivate(modifiers))
-                continue;
-            if (Modifier.isStatic(modifiers))
-                continue;
-            if (Modifier.isVolatile(modifiers)) // Bridge method
+            return NO_METHODS;
+        Class<?> superClass = clazz.getSuperclass();
+        MethodInformation[] inherited = superClass == null || superClass == Object.class ? NO_METHODS : getSortedProxyableMethods(superClass);
+        
+        SortedSet<MethodInformation> declared = new TreeSet<MethodInformation>(COMPARATOR);
+        if (REFLECTIVE_SCANNING || !getDeclaredMethodsFromClassFile(declared, clazz)) {
+            Method[] methods = SecurityActions.getDeclaredMethods(clazz);
+            for (Method m : methods) {
+                if (isProxyable(m.getModifiers()))
+                    declared.add(new MethodInformation(m));
+            }
+        }
+        if (declared.size() == 0)
+            return inherited;
+        
+        //Both are sorted, so merge them 
+        List<MethodInformation> result = new ArrayList<MethodInformation>(declared.size() + inherited.length);
+        int i = 0;
+        for (MethodInformation info : declared) {
+            while (i < inherited.length) {
+                int compare = COMPARATOR.compare(inherited[i], info);
+                if (compare > 0)
+                    break;
+                if (compare < 0)
+                    result.add(inherited[i]);
+                i++;
+            }
+            result.add(info);
+        }
+        for ( ; i < inherited.length ; i++)
+            result.add(inherited[i]);
+        return result.toArray(new MethodInformation[result.size()]);
+    }
+    
+    
+    /**
+     * Read the proxyable methods declared by the class from its class file, which unlike reflection does 
+     * not load the types used in the method signatures. 
+     * 
+     * @return false if the class file could not be read, in which case reflection should be used instead
+     */
+    private static boolean getDeclaredMethodsFromClassFile(Set<MethodInformation> declared, Class<?> clazz) {
+        byte[] bytes = BytecodeStore.readClassBytes(clazz);
+        if (bytes == null)
+            return false;
+        ClassFile classFile;
+        try {
+            classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            return false;
+        } catch (RuntimeException e) {
+            //e.g. a constant pool entry this version of javassist does not know about
+            return false;
+        }
+        //Make sure that it is the class file of the class, and not of another one with the same name 
+        if (!classFile.getName().equals(clazz.getName()))
+            return false;
+        
+        //The descriptors used by several methods of the class are shared
+        Map<String, TypeDescriptor> types = new HashMap<String, TypeDescriptor>(); 
+        for (Object o : classFile.getMethods()) {
+            MethodInfo methodInfo = (MethodInfo)o;
+            String name = methodInfo.getName();
+            if (name.equals(MethodInfo.nameInit) || name.equals(MethodInfo.nameClinit))
                 continue;
-                
-            WeakMethodInformation info = new WeakMethodInformation(m);
-            if (methodSet.contains(info))
+            int modifiers = methodInfo.getAccessFlags();
+            if (!isProxyable(modifiers))
                 continue;
-            methodSet.add(info);
+            String descriptor = methodInfo.getDescriptor();
+            
+            List<TypeDescriptor> params = new ArrayList<TypeDescriptor>();
+            int index = 1;
+            while (descriptor.charAt(index) != ')') {
+                int end = getDescriptorEnd(descriptor, index);
+                params.add(getType(types, descriptor.substring(index, end)));
+                index = end;
+            }
+            TypeDescriptor returnType = getType(types, descriptor.substring(index + 1));
+            
+            String[] exceptions = NO_EXCEPTIONS;
+            ExceptionsAttribute exceptionsAttribute = methodInfo.getExceptionsAttribute();
+            String[] exceptionNames = exceptionsAttribute == null ? null : exceptionsAttribute.getExceptions();
+            if (exceptionNames != null && exceptionNames.length > 0) {
+                exceptions = new String[exceptionNames.length];
+                for (int i = 0 ; i < exceptionNames.length ; i++)
+                    exceptions[i] = ClassFileWriterContext.jvmClassName(exceptionNames[i]);
+            }
+            
+            declared.add(new MethodInformation(clazz, name, modifiers, params.toArray(new TypeDescriptor[params.size()]), returnType, exceptions, null));
+        }
+        return true;
+    }
+    
+    /**
+     * Get the index after the end of the type descriptor starting at <code>index</code>
+     */
+    private static int getDescriptorEnd(String descriptor, int index) {
+        while (descriptor.charAt(index) == '[')
+            index++;
+        if (descriptor.charAt(index) == 'L')
+            return descriptor.indexOf(';', index) + 1;
+        return index + 1;
+    }
+    
+    private static TypeDescriptor getType(Map<String, TypeDescriptor> types, String descriptor) {
+        TypeDescriptor type = types.get(descriptor);
+        if (type == null) {
+            type = TypeDescriptor.forDescriptor(descriptor);
+            types.put(descriptor, type);
         }
-        getProxyableMethods(methodSet, clazz.getSuperclass());
+        return type;
     }
     
+    private static boolean isProxyable(int modifiers) {
+        if (Modifier.isFinal(modifiers))
+            return false;
+        if (Modifier.isPrivate(modifiers))
+            return false;
+        if (Modifier.isStatic(modifiers))
+            return false;
+        if (Modifier.isVolatile(modifiers)) // Bridge method
+            return false;
+        return true;
+    }
     
     /**
-     * MethodInformation implementation for caching with a weak reference to the Method object it represents 
-     * to avoid classloader leaks.
+     * The immutable information about a proxyable method. Everything needed for generating the proxy is
+     * computed up front, apart from the Method itself which is only held weakly to avoid classloader leaks.
+     * Instances are shared by all callers. 
+     * 
+     * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+     * @version $Revision: 1.1 $
      */
-    private static class WeakMethodInformation{
+    static class MethodInformation{
         private final MethodPersistentReference method;
-        private final String returnType;
-        private final String params;
+        private final String name;
+        private final int modifiers;
+        private final TypeDescriptor[] params;
+        private final TypeDescriptor returnType;
+        private final String fullSignature;
+        private final String[] exceptions;
         private final int hashCode;
         
-        private WeakMethodInformation(Method method) {
-            this.method = new MethodPersistentReference(method);
-            
-            StringBuilder sb = new StringBuilder();
-            getDescriptor(sb, method.getReturnType());
-            returnType = sb.toString();
-            
-            sb = new StringBuilder();
-            for (Class<?> param : method.getParameterTypes()) {
-                getDescriptor(sb, param);
-            }
-            params = sb.toString();
+        private MethodInformation(Method method) {
+            this(method.getDeclaringClass(), method.getName(), method.getModifiers(), getTypes(method.getParameterTypes()), 
+                    TypeDescriptor.forClass(method.getReturnType()), getInternalNames(method.getExceptionTypes()), method);
+        }
+        
+        /**
+         * @param method the method if it has already been resolved, null otherwise
+         */
+        private MethodInformation(Class<?> declaringClass, String name, int modifiers, TypeDescriptor[] params, TypeDescriptor returnType, String[] exceptions, Method method) {
+            this.method = new MethodPersistentReference(declaringClass, name, params, method);
+            this.name = name;
+            this.modifiers = modifiers;
+            this.params = params;
+            this.returnType = returnType;
+            this.exceptions = exceptions;
             
             int hash = 17;
-            hash = 31 * hash + getName().hashCode();
-            hash = 31 * hash + params.hashCode();
+            hash = 31 * hash + name.hashCode();
+            StringBuilder sb = new StringBuilder("(");
+            for (TypeDescriptor param : params) {
+                sb.append(param.getDescriptor());
+                hash = 31 * hash + param.hashCode();
+            }
+            sb.append(')');
+            sb.append(returnType.getDescriptor());
+            fullSignature = sb.toString();
             hashCode = hash;
         }
         
-        private void getDescriptor(StringBuilder sb, Class<?> clazz) {
-            if (clazz.isArray()) {
-                sb.append('[');
-                getDescriptor(sb, clazz.getComponentType());
-                return;
-            }
-            if (clazz.isPrimitive()) 
-                sb.append(BytecodePrimitive.valueOf(clazz.getName()).getArrayComponentName());
-            else {
-                sb.append('L');
-                sb.append(clazz.getName().replace('.', '/'));
-                sb.append(';');
-            }
+        private static TypeDescriptor[] getTypes(Class<?>[] classes) {
+            TypeDescriptor[] types = new TypeDescriptor[classes.length];
+            for (int i = 0 ; i < classes.length ; i++)
+                types[i] = TypeDescriptor.forClass(classes[i]);
+            return types;
         }
-
-        String getParams() {
-        	return params;
+        
+        private static String[] getInternalNames(Class<?>[] classes) {
+            if (classes.length == 0)
+                return NO_EXCEPTIONS;
+            String[] names = new String[classes.length];
+            for (int i = 0 ; i < classes.length ; i++)
+                names[i] = TypeDescriptor.forClass(classes[i]).getInternalName();
+            return names;
         }
         
+        /**
+         * Get the internal names of the declared exceptions. The array is shared, so callers must not modify it
+         */
+        String[] getExceptions() {
+            return exceptions;
+        }
+
+        /**
+         * Get the method, which is resolved the first time it is needed when the methods were read from the class file
+         */
         Method getMethod() {
             return method.get();
         }
         
+        Class<?> getDeclaringClass() {
+            return method.getDeclaringClass();
+        }
+        
         String getName() {
-            return method.getName();
+            return name;
+        }
+        
+        int getModifiers() {
+            return modifiers;
         }
 
-        String getFullSignature() {
-        	StringBuilder sb = new StringBuilder();
-            getFullSignature(sb);   
-            return sb.toString();
+        /**
+         * Get the descriptors of the parameters. The array is shared, so callers must not modify it
+         */
+        TypeDescriptor[] getParameterTypes() {
+            return params;
+        }
+        
+        TypeDescriptor getReturnType() {
+            return returnType;
         }
         
-        private void getFullSignature(StringBuilder sb) {
-        	sb.append("(");
-        	sb.append(params);
-        	sb.append(")");
-        	sb.append(returnType);
+        String getFullSignature() {
+            return fullSignature;
         }
         
         @Override
         public boolean equals(Object obj) {
-            if (obj.getClass() != this.getClass())
+            if (obj == this)
+                return true;
+            if (obj == null || obj.getClass() != this.getClass())
                 return false;
-            WeakMethodInformation other = (WeakMethodInformation)obj;
-            if (!other.getName().equals(getName()))
+            MethodInformation other = (MethodInformation)obj;
+            if (!other.name.equals(name))
                 return false;
-            if (!other.getParams().equals(params))
-                return false;
-            return true;
+            return Arrays.equals(other.params, params);
         }
 
         @Override
@@ -179,58 +428,6 @@ public class MethodInformationCache {
             return hashCode; 
         }
     }
-    
-    /**
-     * The MethodInformation passed to the client.
-     * It has a hard reference to the Method to avoid reloading it
-     * in case GC happens during its use.
-     * 
-     * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
-     * @version $Revision: 1.1 $
-     */
-    static class MethodInformation{
-    	private final WeakMethodInformation delegate;
-    	
-    	private volatile Method method;
-    	
-    	private volatile String[] exceptions;
-    	
-        public MethodInformation(WeakMethodInformation delegate) {
-	        this.delegate = delegate;
-        }
-
-		public String[] getExceptions() {
-            Class<?>[] exceptionTypes = getMethod().getExceptionTypes();
-            if (exceptionTypes.length == 0)
-                return NO_EXCEPTIONS;
-            if (exceptions == null) {
-                String[] exceptions = new String[exceptionTypes.length];
-                for (int i = 0 ; i < exceptionTypes.length ; i++) {
-                    exceptions[i] = exceptionTypes[i].getName().replace('.', '/');
-                }
-                this.exceptions = exceptions;
-            }
-            return exceptions;
-        }
-
-        Method getMethod() {
-        	if (method == null)
-        		method = delegate.getMethod();
-            return method;
-        }
-        
-        String getName() {
-        	return delegate.getName();
-        }
-        
-        int getModifiers() {
-            return getMethod().getModifiers();
-        }
-
-        String getFullSignature() {
-        	return delegate.getFullSignature();
-        }
-    }
 
     /**
      * Avoid keeping a hard reference to the method in CACHE since that
@@ -238,34 +435,32 @@ public class MethodInformationCache {
      */
     private static class MethodPersistentReference {
     	private final WeakReference<Class<?>> classReference;
-    	private final WeakReference<Class<?>>[] arguments;
+    	private final TypeDescriptor[] arguments;
     	private final String name;
     	
       	private volatile WeakReference<Method> referencedMethod;
 
-       	public MethodPersistentReference(Method m) {
-       		classReference = new WeakReference<Class<?>>(m.getDeclaringClass());
-       		arguments = new WeakReference[m.getParameterTypes().length];
-       		name = m.getName();
-       		referencedMethod = new WeakReference<Method>(m);
+       	public MethodPersistentReference(Class<?> declaringClass, String name, TypeDescriptor[] arguments, Method m) {
+       		classReference = new WeakReference<Class<?>>(declaringClass);
+       		this.arguments = arguments;
+       		this.name = name;
+       		if (m != null)
+       		    referencedMethod = new WeakReference<Method>(m);
     	}
        	
-       	public String getName() {
-       		return name;
-       	}
-    	
     	public Method get() {
-    		Method m = referencedMethod.get();
+    	    WeakReference<Method> ref = referencedMethod;
+    		Method m = ref == null ? null : ref.get();
     		if (m == null)
     		{
     			Class<?> declClass = getDeclaringClass();
-    			Class<?>[] args = getArguments();
     			synchronized (this) {
-    				m = referencedMethod.get();
+    			    ref = referencedMethod;
+    				m = ref == null ? null : ref.get();
 	                if (m != null)
 	                	return m;
 	                try {
-	                    m = SecurityActions.getDeclaredMethod(declClass, name, args);
+	                    m = SecurityActions.getDeclaredMethod(declClass, name, getArguments(declClass));
                     } catch (Exception e) {
 	                    throw new RuntimeException(e);
                     }
@@ -277,22 +472,22 @@ public class MethodInformationCache {
     	}
     	
     	private Class<?> getDeclaringClass(){
-    		return getClassFromWeakReference(classReference);
+    		Class<?> clazz = classReference.get(); 
+    		if (clazz == null)
+    			throw new RuntimeException("Class was already unloaded for method '" + name + "'");
+    		return clazz;
     	}
     	
-    	private Class<?>[] getArguments(){
-    		Class<?>[] args = new Class[arguments.length];
+    	/**
+    	 * Load the parameter types the same way as the declaring class does
+    	 */
+    	private Class<?>[] getArguments(Class<?> declClass) throws ClassNotFoundException {
+    	    ClassLoader loader = SecurityActions.getClassLoader(declClass);
+    		Class<?>[] args = new Class<?>[arguments.length];
     		for (int i = 0 ; i < args.length ; i++) {
-    			args[i] = arguments[i].get();
+    			args[i] = arguments[i].resolve(loader);
     		}
     		return args;
     	}
-    	
-    	private Class<?> getClassFromWeakReference(WeakReference<Class<?>> ref){
-    		Class<?> clazz = ref.get(); 
-    		if (clazz == null)
-    			throw new RuntimeException("Class was already unloaded for method '" + name + "'");
-    		return clazz;
-    	}
     }
 }
@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of {@link ProxyFactory#createProxies(Class, List)}, containing a proxy 
+ * or a failure for each handler, in the order of the handlers.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public final class ProxyBatchResult<T> {
+    
+    private final Object[] proxies;
+    
+    private final Throwable[] failures;
+    
+    private final int failureCount;
+    
+    ProxyBatchResult(Object[] proxies, Throwable[] failures) {
+        this.proxies = proxies;
+        this.failures = failures;
+        int count = 0;
+        for (Throwable failure : failures) {
+            if (failure != null)
+                count++;
+        }
+        failureCount = count;
+    }
+    
+    /**
+     * Get the number of handlers passed in
+     * 
+     * @return the size
+     */
+    public int size() {
+        return proxies.length;
+    }
+    
+    /**
+     * Get the proxy created for a handler
+     * 
+     * @param index the index of the handler
+     * @return the proxy, or null if it could not be created 
+     */
+    @SuppressWarnings("unchecked")
+    public T getProxy(int index) {
+        return (T)proxies[index];
+    }
+    
+    /**
+     * Get the reason a proxy could not be created for a handler
+     * 
+     * @param index the index of the handler
+     * @return the failure, or null if the proxy was created 
+     */
+    public Throwable getFailure(int index) {
+        return failures[index];
+    }
+    
+    /**
+     * Check whether any of the proxies could not be created
+     * 
+     * @return true if there were failures
+     */
+    public boolean hasFailures() {
+        return failureCount > 0;
+    }
+    
+    /**
+     * Get the number of proxies which could not be created
+     * 
+     * @return the number of failures
+     */
+    public int getFailureCount() {
+        return failureCount;
+    }
+    
+    /**
+     * Get the proxies, with null for the ones which could not be created
+     * 
+     * @return an unmodifiable list of the proxies
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getProxies() {
+        List<T> list = new ArrayList<T>(proxies.length);
+        for (Object proxy : proxies)
+            list.add((T)proxy);
+        return Collections.unmodifiableList(list);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates proxy classes at build time, and writes them to a class directory. At runtime
+ * {@link ProxyFactory} first looks for a pregenerated proxy class in the target class's classloader,
+ * and only generates the proxy class if it is not there. This can be run from a build, e.g. with 
+ * the exec-maven-plugin:
+ * <pre>
+ * &lt;plugin&gt;
+ *   &lt;groupId&gt;org.codehaus.mojo&lt;/groupId&gt;
+ *   &lt;artifactId&gt;exec-maven-plugin&lt;/artifactId&gt;
+ *   &lt;executions&gt;
+ *     &lt;execution&gt;
+ *       &lt;phase&gt;process-classes&lt;/phase&gt;
+ *       &lt;goals&gt;&lt;goal&gt;java&lt;/goal&gt;&lt;/goals&gt;
+ *       &lt;configuration&gt;
+ *         &lt;mainClass&gt;org.jboss.javassist.classfilewriter.proxyfactory.ProxyClassGenerator&lt;/mainClass&gt;
+ *         &lt;arguments&gt;
+ *           &lt;argument&gt;${project.build.outputDirectory}&lt;/argument&gt;
+ *           &lt;argument&gt;com.acme.Entity&lt;/argument&gt;
+ *           &lt;argument&gt;com.acme.Order:com.acme.OrderHandler&lt;/argument&gt;
+ *         &lt;/arguments&gt;
+ *       &lt;/configuration&gt;
+ *     &lt;/execution&gt;
+ *   &lt;/executions&gt;
+ * &lt;/plugin&gt;
+ * </pre>
+ * Each proxy is specified as the name of the target class, optionally followed by a colon and the 
+ * name of the handler class. With no handler class, or a handler class keeping the default filters, 
+ * all methods are handled and the proxy calls the target method. If the handler class overrides the 
+ * filters it must be annotated with {@link StableFilters}, and have a constructor taking the target
+ * class, which is used to create a sample handler for evaluating the filters.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public final class ProxyClassGenerator {
+    
+    private ProxyClassGenerator() {
+    }
+    
+    /**
+     * Generate the proxies using the thread context classloader
+     * 
+     * @param args the output directory followed by the proxy specifications
+     * @throws Exception if there was an error
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2)
+            throw new IllegalArgumentException("Usage: ProxyClassGenerator <output directory> <target class>[:<handler class>]...");
+        String[] specs = new String[args.length - 1];
+        System.arraycopy(args, 1, specs, 0, specs.length);
+        
+        List<String> generated = generate(new File(args[0]), SecurityActions.getContextClassLoader(), specs);
+        for (String name : generated)
+            System.out.println("Generated " + name);
+    }
+    
+    /**
+     * Generate the proxies and write them to a class directory
+     * 
+     * @param outputDir the class directory to write the classes to
+     * @param loader the classloader used to load the target and handler classes
+     * @param specs the proxy specifications
+     * @return the names of the generated classes
+     * @throws IllegalArgumentException if a specification is invalid, or a class cannot be proxied 
+     * @throws IOException if the classes could not be written
+     */
+    public static List<String> generate(File outputDir, ClassLoader loader, String... specs) throws IOException {
+        if (outputDir == null)
+            throw new IllegalArgumentException("Null outputDir");
+        if (loader == null)
+            throw new IllegalArgumentException("Null loader");
+        
+        List<String> generated = new ArrayList<String>();
+        for (String spec : specs) {
+            int colon = spec.indexOf(':');
+            Class<?> clazz = loadClass(loader, colon < 0 ? spec : spec.substring(0, colon));
+            Class<?> handlerClass = colon < 0 ? null : loadClass(loader, spec.substring(colon + 1));
+            
+            for (Map.Entry<String, byte[]> entry : generate(clazz, handlerClass).entrySet()) {
+                writeClass(outputDir, entry.getKey(), entry.getValue());
+                generated.add(entry.getKey());
+            }
+        }
+        return generated;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> Map<String, byte[]> generate(Class<T> clazz, Class<?> handlerClass) {
+        if (handlerClass != null && !ProxyHandler.class.isAssignableFrom(handlerClass))
+            throw new IllegalArgumentException(handlerClass.getName() + " is not a " + ProxyHandler.class.getName());
+        if (handlerClass == null || !ProxyFactory.overridesFilters(handlerClass))
+            return ProxyFactory.generateProxyClasses(clazz, handlerClass, null);
+        
+        if (!handlerClass.isAnnotationPresent(StableFilters.class))
+            throw new IllegalArgumentException(handlerClass.getName() + " overrides the filters, so it must be annotated with @" + StableFilters.class.getSimpleName());
+        
+        ProxyHandler<T> sample = (ProxyHandler<T>)newInstance(getHandlerConstructor(clazz, handlerClass), newInstance(clazz));
+        return ProxyFactory.generateProxyClasses(clazz, handlerClass, sample);
+    }
+    
+    private static Constructor<?> getHandlerConstructor(Class<?> clazz, Class<?> handlerClass) {
+        for (Constructor<?> ctor : SecurityActions.getDeclaredConstructors(handlerClass)) {
+            Class<?>[] params = ctor.getParameterTypes();
+            if (params.length == 1 && params[0].isAssignableFrom(clazz))
+                return ctor;
+        }
+        throw new IllegalArgumentException(handlerClass.getName() + " has no constructor taking " + clazz.getName());
+    }
+    
+    private static Object newInstance(Class<?> clazz) {
+        try {
+            return newInstance(SecurityActions.getDeclaredConstructor(clazz));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("No default constuctor " + clazz.getName());
+        }
+    }
+    
+    private static Object newInstance(Constructor<?> ctor, Object... args) {
+        SecurityActions.setAccessible(ctor);
+        try {
+            return ctor.newInstance(args);
+        } catch (Exception e) {
+            throw new RuntimeException("Could not create instance of " + ctor.getDeclaringClass().getName(), e);
+        }
+    }
+    
+    private static Class<?> loadClass(ClassLoader loader, String name) {
+        try {
+            return loader.loadClass(name.trim());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Could not load " + name, e);
+        }
+    }
+    
+    private static void writeClass(File outputDir, String name, byte[] bytes) throws IOException {
+        File file = new File(outputDir, ClassFileWriterContext.jvmClassName(name) + ".class");
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Could not create directory " + dir);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
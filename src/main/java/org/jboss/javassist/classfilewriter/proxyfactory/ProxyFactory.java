@@ -21,13 +21,28 @@
  */
 package org.jboss.javassist.classfilewriter.proxyfactory;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.javassist.classfilewriter.proxyfactory.MethodInformationCache.MethodInformation;
 
@@ -41,35 +56,120 @@ import org.jboss.javassist.classfilewriter.proxyfactory.MethodInformationCache.M
  * @version $Revision: 1.1 $
  */
 public final class ProxyFactory<T> {
+    
+    /** 
+     * System property naming a directory where the generated proxy classes are kept between runs. 
+     * @see #setBytecodeCacheDirectory(File) 
+     */
+    public static final String BYTECODE_CACHE_DIRECTORY_PROPERTY = "org.jboss.javassist.classfilewriter.proxyfactory.bytecodeCacheDirectory";
 
     private static final String PROXY_HANDLER_FIELD_NAME = "_proxy$Handler";
 
     private static final String PROXY_HANDLER_FIELD_TYPE = ProxyHandler.class.getName().replace('.', '/');
 
     private static final String PROXY_HANDLER_SIGNATURE = "L" + PROXY_HANDLER_FIELD_TYPE + ";";
+    
+    private static final String TYPED_PROXY_HANDLER_TYPE = TypedProxyHandler.class.getName().replace('.', '/');
+    
+    private static final String INVOCATION_PROXY_HANDLER_TYPE = InvocationProxyHandler.class.getName().replace('.', '/');
 
-    private static final String SET_PROXY_HANDLER_SIGNATURE = "(L" + ProxyHandler.class.getName().replace('.', '/') + ";)V";
+    private static final String PROXY_CONSTRUCTOR_SIGNATURE = "(" + PROXY_HANDLER_SIGNATURE + ")V";
+
+    private static final String[] INTERFACES = new String[0];
+    
+    private static final String INSTANTIATOR_SUFFIX = "$Instantiator";
+    
+    private static final String[] INSTANTIATOR_INTERFACES = new String[] { ProxyInstantiator.class.getName().replace('.', '/') };
+    
+    private static final String NEW_INSTANCE_SIGNATURE = "(" + PROXY_HANDLER_SIGNATURE + ")Ljava/lang/Object;";
+    
+    private static final String PROXY_SHAPE_FIELD_NAME = "_proxy$Shape";
 
-    private static final String[] INTERFACES = new String[] { ProxyHandlerSetter.class.getName().replace('.', '/') };
+    private static final String PROXY_SHAPE_SIGNATURE = "Ljava/lang/Object;";
+    
+    /** Prefix of the static final fields of the methods holder holding the method passed to the handler from each handled method */
+    private static final String PROXY_METHOD_FIELD_PREFIX = "_proxy$Method";
+    
+    /** Suffix of the class holding the methods passed to the handler, so that they only get resolved once the handler is called */
+    private static final String METHODS_HOLDER_SUFFIX = "$Methods";
+    
+    private static final String PROXY_METHOD_SIGNATURE = "Ljava/lang/reflect/Method;";
+    
+    /** Suffix of the proxy classes dedicated to a singleton handler, followed by a counter */
+    private static final String SINGLETON_SUFFIX = "$Singleton";
+    
+    private static final AtomicInteger SINGLETON_COUNT = new AtomicInteger();
+    
+    
+    /** The field holding the instance called by delegating proxies */
+    private static final String PROXY_TARGET_FIELD_NAME = "_proxy$Target";
     
-    private static final Map<Class<?>, Map<String, WeakReference<Class<?>>>> CACHE = new WeakHashMap<Class<?>, Map<String, WeakReference<Class<?>>>>();
+    /** The static field holding the target invoker of delegating proxies, for the methods they cannot call directly */
+    private static final String PROXY_INVOKER_FIELD_NAME = "_proxy$Invoker";
+    
+    private static final TypeDescriptor OBJECT_TYPE = TypeDescriptor.forClass(Object.class);
+    
+    private static final String PROXY_INVOKER_SIGNATURE = "L" + ClassFileWriterContext.jvmClassName(TargetInvoker.class) + ";";
+    
+    /** Prefix of the methods of delegating proxies calling the target through the target invoker */
+    private static final String TARGET_METHOD_PREFIX = "target$";
+    
+    /** 
+     * Prefix of the volatile instance fields overriding whether the handler is called from each method which can be disabled, 
+     * see {@link ProxyShape#setHandlerEnabled(Object, int, boolean)} 
+     */
+    private static final String PROXY_DISABLED_FIELD_PREFIX = "_proxy$Disabled";
+    
+    /** Prefix of the volatile static fields turning off calling the handler from each method which can be disabled for all proxies of a class */
+    private static final String PROXY_CLASS_DISABLED_FIELD_PREFIX = "_proxy$ClassDisabled";
+    
+    /** Prefix of the methods calling the superclass implementation of each handled method */
+    private static final String SUPER_METHOD_PREFIX = "super$";
+    
+    private static final ConcurrentWeakIdentityMap<Class<?>, ClassProxies> CACHE = new ConcurrentWeakIdentityMap<Class<?>, ClassProxies>();
+
+    /** Proxy classes currently being generated, so that each one only gets generated once */ 
+    private static final ConcurrentMap<ProxyKey, FutureTask<ProxyShape<?>>> IN_FLIGHT = new ConcurrentHashMap<ProxyKey, FutureTask<ProxyShape<?>>>();
+
+    /** The shapes of the proxy classes, for finding them from the proxies */
+    private static final ConcurrentWeakIdentityMap<Class<?>, WeakReference<ProxyShape<?>>> PROXY_SHAPES = new ConcurrentWeakIdentityMap<Class<?>, WeakReference<ProxyShape<?>>>();
+
+    /** Proxy shapes for handler classes annotated with {@link StableFilters} */
+    private static final ConcurrentWeakIdentityMap<Class<?>, ConcurrentWeakIdentityMap<Class<?>, WeakReference<ProxyShape<?>>>> SHAPE_CACHE = new ConcurrentWeakIdentityMap<Class<?>, ConcurrentWeakIdentityMap<Class<?>, WeakReference<ProxyShape<?>>>>();
+
+    private static volatile BytecodeStore bytecodeStore;
+    static {
+        String dir = SecurityActions.getSystemProperty(BYTECODE_CACHE_DIRECTORY_PROPERTY);
+        if (dir != null) {
+            try {
+                bytecodeStore = new BytecodeStore(new File(dir));
+            } catch (IllegalArgumentException e) {
+                //The store is only an optimization, so do not stop the proxies from working
+            }
+        }
+    }
 
     private final Class<T> clazz;
     private final MethodInformation[] methods;
     private final ClassFileWriterContext<T> context;
-    private final byte[] handledFilter;
-    private final byte[] finalCallInHandlerFilter;
+    private final ClassFileWriterContext<ProxyInstantiator> instantiatorContext;
+    private final ClassFileWriterContext<Object> methodsHolderContext;
+    private final List<ClassFileWriterContext<Invocation>> invocationContexts = new ArrayList<ClassFileWriterContext<Invocation>>();
+    private final ProxyFilters filters;
+    private final boolean singleton;
     
 
-    private ProxyFactory(String proxyName, Class<T> clazz, MethodInformation[] methods, byte[] handledFilter, byte[] finalCallInHandlerFilter) {
+    private ProxyFactory(String proxyName, Class<T> clazz, MethodInformation[] methods, ProxyFilters filters, boolean singleton) {
         this.clazz = clazz;
         this.methods = methods;
-        this.handledFilter = handledFilter;
-        this.finalCallInHandlerFilter = finalCallInHandlerFilter;
+        this.filters = filters;
+        this.singleton = singleton;
 
-        // TODO might need an interface on the proxy to set the handler?
         context = new ClassFileWriterContext<T>(proxyName, clazz
                 .getName(), INTERFACES);
+        instantiatorContext = new ClassFileWriterContext<ProxyInstantiator>(getInstantiatorClassName(proxyName), 
+                Object.class.getName(), INSTANTIATOR_INTERFACES);
+        methodsHolderContext = new ClassFileWriterContext<Object>(proxyName + METHODS_HOLDER_SUFFIX, Object.class.getName(), INTERFACES);
     }
 
     /**
@@ -87,243 +187,1369 @@ public final class ProxyFactory<T> {
         if (handler == null)
             throw new IllegalArgumentException("Null handler");
 
+        ProxyShape<T> shape = getProxyShape(clazz, handler.getClass(), handler);
+        return instantiateProxy(shape, handler);
+    }
+    
+    /**
+     * Create a proxy calling a chain of interceptors before the target. The interceptors are compiled into a class 
+     * calling each interceptor directly, which is shared by all proxies of the class with the same interceptors applying 
+     * to each method. The proxy delegates to the target like the ones created by {@link #createDelegatingProxy(Class, ProxyHandler)}, 
+     * so the methods which no interceptor applies to call the target directly. The intercepted methods still pass the 
+     * arguments to the interceptors in an array with the primitives boxed, and get the return value of the target boxed.
+     * <p>
+     * {@link ProxyInterceptor#appliesTo(Method)} is called for each method when creating the proxy. If all the 
+     * interceptor classes are annotated with {@link StableFilters}, this only happens for the first proxy of the 
+     * class with interceptors of those classes, and later proxies reuse the compiled chain straight away.
+     * 
+     * @param clazz the class we want to proxy
+     * @param target the instance to call at the end of the chain
+     * @param interceptors the interceptors in the order they should be called
+     * @return the proxy
+     * @throws IllegalArgumentException if the class is not proxyable, or any of the parameters are null
+     * @throws RuntimeException if there was an error
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T createProxy(Class<T> clazz, T target, List<? extends ProxyInterceptor> interceptors) {
+        if (clazz == null)
+            throw new IllegalArgumentException("Null clazz");
+        if (target == null)
+            throw new IllegalArgumentException("Null target");
+        if (interceptors == null || interceptors.contains(null))
+            throw new IllegalArgumentException("Null interceptors " + interceptors);
+        
+        ProxyInterceptor[] array = interceptors.toArray(new ProxyInterceptor[interceptors.size()]);
+        InterceptorChainFactory.InterceptorsKey key = InterceptorChainFactory.InterceptorsKey.create(array);
+        InterceptorChain prototype = key == null ? null : checkInterceptorCache(clazz, key);
+        if (prototype == null) {
+            checkClassModifiers(clazz);
+            checkDefaultConstructor(clazz);
+            MethodInformation[] methods = MethodInformationCache.getSortedProxyableMethods(clazz);
+            int[][] applying = InterceptorChainFactory.getApplying(array, methods);
+            ProxyFilters filters = ProxyFilters.createIntercepted(methods, applying);
+            ProxyShape<T> shape = checkCache(clazz, filters);
+            if (shape == null)
+                shape = generateProxy(clazz, methods, filters);
+            prototype = shape.getInterceptorChain(applying);
+            if (key != null)
+                getClassProxies(clazz).interceptorChains.put(key, new WeakReference<InterceptorChain>(prototype));
+        }
+        
+        ProxyShape<T> shape = (ProxyShape<T>)prototype.getShape();
+        return instantiateProxy(shape, new InterceptorHandler<T>(target, prototype.bind(array, target)));
+    }
+    
+    private static InterceptorChain checkInterceptorCache(Class<?> clazz, InterceptorChainFactory.InterceptorsKey key) {
+        ClassProxies proxies = CACHE.get(clazz);
+        if (proxies == null)
+            return null;
+        //The chain is referenced by its shape, so it will only go away along with the target class
+        WeakReference<InterceptorChain> chainRef = proxies.interceptorChains.get(key);
+        return chainRef == null ? null : chainRef.get();
+    }
+    
+    /**
+     * Create a proxy which delegates to the instance handled, i.e. {@link ProxyHandler#getInstance()}, rather than 
+     * inheriting the state of the proxied class. The proxy keeps the instance in a final field. The methods which 
+     * are not handled call it directly, and so do the handled methods once the handler has been called, unless the 
+     * handler makes the final call. This makes wrapping an existing object cost one extra call per method.
+     * 
+     * @param clazz the class we want to proxy
+     * @param handler a proxy handler for the instance we want to proxy
+     * @return the proxy
+     * @throws IllegalArgumentException if the class is not proxyable
+     * @throws RuntimeException if there was an error
+     */
+    public static <T> T createDelegatingProxy(Class<T> clazz, ProxyHandler<T> handler) {
+        if (clazz == null)
+            throw new IllegalArgumentException("Null clazz");
+        if (handler == null)
+            throw new IllegalArgumentException("Null handler");
+        
+        return instantiateProxy(getDelegatingProxyShape(clazz, handler), handler);
+    }
+    
+    private static <T> ProxyShape<T> getDelegatingProxyShape(Class<T> clazz, ProxyHandler<T> handler) {
         checkClassModifiers(clazz);
         checkDefaultConstructor(clazz);
         MethodInformation[] methods = MethodInformationCache.getSortedProxyableMethods(clazz);
-        byte[] handledFilter = filterHandledMethods(methods, handler);
-        byte[] finalCallInHandlerFilter = filterFinalCallInHandlerMethods(methods, handler);
-        String proxyName = getProxyClassName(clazz, handledFilter, finalCallInHandlerFilter);
-        
-        Class<? extends T> proxyClass = checkCache(clazz, proxyName);
-        if (proxyClass == null) {
-        	ProxyFactory<T> factory = new ProxyFactory<T>(proxyName, clazz, methods, handledFilter, finalCallInHandlerFilter);
-        	factory.createProxy();
-        	proxyClass = defineClassAndPutInCache(factory, proxyName);
-        }
-
-        return instantiateProxy(proxyClass, methods, handler);
-    }
-    
-    private static <T> Class<? extends T> checkCache(Class<T> clazz, String proxyName){
-    	synchronized (CACHE) {
-        	Map<String, WeakReference<Class<?>>> map = CACHE.get(clazz);
-        	if (map == null)
-        		return null;
-        	WeakReference<Class<?>> proxyClassRef = map.get(proxyName);
-        	if (proxyClassRef == null)
-        		return null;
-        	
-        	Class<?> proxyClass = proxyClassRef.get();
-//        	This can't happen, can it?!?
-//        	if (proxyClass == null) {
-//        		try {
-//	                proxyClass = getClassLoader(clazz).loadClass(proxyName);
-//                } catch (ClassNotFoundException e) {
-//	                throw new RuntimeException("Could not load previously created proxy class " + proxyName, e);
-//                }
-//        	}
-        	return proxyClass.asSubclass(clazz);
-        }
-    }
-    
-    private static <T> Class<? extends T> defineClassAndPutInCache(ProxyFactory<T> factory, String proxyName){
-    	synchronized (CACHE) {
-    		
-    		Class<? extends T>  proxyClass = checkCache(factory.clazz, proxyName);
-    		if (proxyClass != null)
-    			return proxyClass;
-
-            ClassLoader cl = getClassLoader(factory.clazz);
-            if (cl == null)
-                cl = SecurityActions.getSystemClassLoader();
+        ProxyFilters filters = ProxyFilters.create(methods, handler.getClass(), handler).toDelegating();
+        ProxyShape<T> shape = checkCache(clazz, filters);
+        if (shape == null)
+            shape = generateProxy(clazz, methods, filters);
+        return shape;
+    }
+    
+    /**
+     * Create a proxy for a handler which lives as long as the application, e.g. one handling all calls to a 
+     * service. A proxy class is generated just for the handler, which is kept in a <code>static final</code> field 
+     * of the class holding the proxy's methods rather than in an instance field, so that the JIT can treat it as a 
+     * constant and inline the calls to it. Since each call generates a new class, this should only be used for a few long-lived handlers.
+     * 
+     * @param clazz the class we want to proxy
+     * @param handler the proxy handler
+     * @return the proxy
+     * @throws IllegalArgumentException if the class is not proxyable
+     * @throws RuntimeException if there was an error
+     */
+    public static <T> T createSingletonProxy(Class<T> clazz, ProxyHandler<T> handler) {
+        if (clazz == null)
+            throw new IllegalArgumentException("Null clazz");
+        if (handler == null)
+            throw new IllegalArgumentException("Null handler");
+        
+        checkClassModifiers(clazz);
+        checkDefaultConstructor(clazz);
+        MethodInformation[] methods = MethodInformationCache.getSortedProxyableMethods(clazz);
+        ProxyFilters filters = ProxyFilters.create(methods, handler.getClass(), handler);
+        String proxyName = getProxyClassName(clazz, filters) + SINGLETON_SUFFIX + SINGLETON_COUNT.incrementAndGet();
+        ProxyFactory<T> factory = new ProxyFactory<T>(proxyName, clazz, methods, filters, true);
+        factory.createProxy();
+        
+        ClassLoader cl = getClassLoader(clazz);
+        ProtectionDomain domain = clazz.getProtectionDomain();
+        ProxyShape<T> shape;
+        try {
+            Class<? extends T> proxyClass = factory.context.toClass(cl, domain).asSubclass(clazz);
+            shape = new ProxyShape<T>(clazz, proxyName, methods, filters, proxyClass);
+            anchorShape(shape);
+            shape.setInstantiator(factory.instantiatorContext.toClass(cl, domain).newInstance());
+            factory.methodsHolderContext.toClass(cl, domain);
+        } catch (Exception e) {
+            throw new RuntimeException("Could not create singleton proxy for " + clazz.getName(), e);
+        }
+        
+        //Set on the class we defined before any instance exists, the methods holder copies it the first time it is used 
+        try {
+            Field field = SecurityActions.getDeclaredField(shape.getProxyClass(), PROXY_HANDLER_FIELD_NAME);
+            SecurityActions.setAccessible(field);
+            field.set(null, handler);
+        } catch (Exception e) {
+            throw new RuntimeException("Could not store handler in singleton proxy class " + proxyName, e);
+        }
+        return instantiateProxy(shape, handler);
+    }
+    
+    /**
+     * Called by the static initializer of the class holding the methods passed to the handler by a proxy class, 
+     * which runs the first time one of the proxies calls its handler. For proxies passing {@link Invocation}s to the 
+     * handler, this also defines the invocation classes which were not generated at build time. It is only public 
+     * because the proxy classes are in other packages.
+     * 
+     * @param shape the value of the proxy class's shape field
+     * @return the handled methods indexed by their position in the method table, and null for the others
+     * @throws IllegalStateException if the shape has not been stored in the proxy class yet
+     * @throws IllegalArgumentException if <code>shape</code> does not come from a proxy class
+     */
+    public static Method[] getProxyMethods(Object shape) {
+        if (shape == null)
+            throw new IllegalStateException("The methods holder of a proxy class was initialized before ProxyFactory set up the proxy class");
+        if (!(shape instanceof ProxyShape<?>))
+            throw new IllegalArgumentException("Not a proxy shape " + shape);
+        ProxyShape<?> proxyShape = (ProxyShape<?>)shape;
+        if (proxyShape.getFilters().usesInvocations())
+            defineInvocations(proxyShape);
+        return proxyShape.getHandledMethods();
+    }
+    
+    /**
+     * Turn calling the handler on or off for a method of a proxy, without generating a new proxy class. This only
+     * affects <code>proxy</code> itself, and overrides the setting for its class from 
+     * {@link #setHandlerEnabled(Class, Method, boolean)} until {@link #resetHandlerEnabled(Object, Method)} is called. 
+     * It only works for the methods the handler returned true from {@link ProxyHandler#canBeDisabled(Method)} for. While 
+     * it is off the proxy method calls the superclass implementation straight away, in the same way as for the methods 
+     * which are not handled. The generated code reads a volatile field of the proxy and one of its class to check this, 
+     * which the other methods do not pay for.
+     * 
+     * @param proxy a proxy created by this factory
+     * @param method a method handled by the proxy
+     * @param enabled false to stop calling the handler, true to call it again
+     * @throws IllegalArgumentException if any of the parameters are null, <code>proxy</code> is not a proxy, or the 
+     * method is not handled by it or cannot be disabled
+     */
+    public static void setHandlerEnabled(Object proxy, Method method, boolean enabled) {
+        ProxyShape<?> shape = getProxyShape(proxy);
+        shape.setHandlerEnabled(proxy, getMethodIndex(shape, method), enabled);
+    }
+    
+    /**
+     * Make a proxy use the setting of its class from {@link #setHandlerEnabled(Class, Method, boolean)} for a method 
+     * again, after it was switched by {@link #setHandlerEnabled(Object, Method, boolean)}
+     * 
+     * @param proxy a proxy created by this factory
+     * @param method a method handled by the proxy
+     * @throws IllegalArgumentException if any of the parameters are null, <code>proxy</code> is not a proxy, or the 
+     * method is not handled by it or cannot be disabled
+     */
+    public static void resetHandlerEnabled(Object proxy, Method method) {
+        ProxyShape<?> shape = getProxyShape(proxy);
+        shape.resetHandlerEnabled(proxy, getMethodIndex(shape, method));
+    }
+    
+    /**
+     * Check whether the handler is called for a method of a proxy
+     * 
+     * @param proxy a proxy created by this factory
+     * @param method a method handled by the proxy
+     * @return the setting of the proxy if it has been switched by {@link #setHandlerEnabled(Object, Method, boolean)}, 
+     * otherwise the setting of its class
+     * @throws IllegalArgumentException if any of the parameters are null, <code>proxy</code> is not a proxy, or the 
+     * method is not handled by it or cannot be disabled
+     */
+    public static boolean isHandlerEnabled(Object proxy, Method method) {
+        ProxyShape<?> shape = getProxyShape(proxy);
+        return shape.isHandlerEnabled(proxy, getMethodIndex(shape, method));
+    }
+    
+    /**
+     * Turn calling the handler on or off for a method of all the proxies of a proxy class, e.g. to switch tracing for 
+     * the method without finding the proxies. This affects the existing proxies and the ones created later, apart from 
+     * the ones which have been switched themselves by {@link #setHandlerEnabled(Object, Method, boolean)}. Proxies of the 
+     * same target class created for other handler classes or filters have other proxy classes, which are not affected. 
+     * 
+     * @param proxyClass the class of proxies created by this factory, i.e. <code>proxy.getClass()</code>
+     * @param method a method handled by the proxies
+     * @param enabled false to stop calling the handler, true to call it again
+     * @throws IllegalArgumentException if any of the parameters are null, <code>proxyClass</code> is not a proxy class, or the 
+     * method is not handled by it or cannot be disabled
+     */
+    public static void setHandlerEnabled(Class<?> proxyClass, Method method, boolean enabled) {
+        ProxyShape<?> shape = getProxyClassShape(proxyClass);
+        shape.setHandlerEnabled(getMethodIndex(shape, method), enabled);
+    }
+    
+    /**
+     * Check whether the handler is called for a method of the proxies of a proxy class which have not been switched themselves
+     * 
+     * @param proxyClass the class of proxies created by this factory, i.e. <code>proxy.getClass()</code>
+     * @param method a method handled by the proxies
+     * @return true unless it has been turned off by {@link #setHandlerEnabled(Class, Method, boolean)}
+     * @throws IllegalArgumentException if any of the parameters are null, <code>proxyClass</code> is not a proxy class, or the 
+     * method is not handled by it or cannot be disabled
+     */
+    public static boolean isHandlerEnabled(Class<?> proxyClass, Method method) {
+        ProxyShape<?> shape = getProxyClassShape(proxyClass);
+        return shape.isHandlerEnabled(getMethodIndex(shape, method));
+    }
+    
+    private static int getMethodIndex(ProxyShape<?> shape, Method method) {
+        if (method == null)
+            throw new IllegalArgumentException("Null method");
+        return shape.getMethodIndex(method);
+    }
+    
+    /**
+     * Get the shape of the class of a proxy
+     * 
+     * @throws IllegalArgumentException if <code>proxy</code> is null or not a proxy
+     */
+    static ProxyShape<?> getProxyShape(Object proxy) {
+        if (proxy == null)
+            throw new IllegalArgumentException("Null proxy");
+        return getProxyClassShape(proxy.getClass());
+    }
+    
+    /**
+     * Get the shape of a proxy class
+     * 
+     * @throws IllegalArgumentException if <code>proxyClass</code> is null or not a proxy class
+     */
+    private static ProxyShape<?> getProxyClassShape(Class<?> proxyClass) {
+        if (proxyClass == null)
+            throw new IllegalArgumentException("Null proxy class");
+        WeakReference<ProxyShape<?>> shapeRef = PROXY_SHAPES.get(proxyClass);
+        ProxyShape<?> shape = shapeRef == null ? null : shapeRef.get();
+        if (shape == null)
+            throw new IllegalArgumentException(proxyClass.getName() + " is not a proxy");
+        return shape;
+    }
+    
+    /**
+     * Create proxy instances for a list of handlers. The class checks and method lookups are only done once, 
+     * and the filters are only evaluated once per handler class if it has default filters or is annotated with 
+     * {@link StableFilters}. A failure to create one of the proxies does not stop the others from being created.
+     * 
+     * @param clazz the class we want to proxy
+     * @param handlers the proxy handlers for the instances we want to proxy
+     * @return the proxies and failures, in the order of the handlers
+     * @throws IllegalArgumentException if the class or the list of handlers is null
+     */
+    public static <T> ProxyBatchResult<T> createProxies(Class<T> clazz, List<? extends ProxyHandler<T>> handlers) {
+        if (clazz == null)
+            throw new IllegalArgumentException("Null clazz");
+        if (handlers == null)
+            throw new IllegalArgumentException("Null handlers");
+        
+        int size = handlers.size();
+        @SuppressWarnings("unchecked")
+        ProxyShape<T>[] shapes = (ProxyShape<T>[])new ProxyShape<?>[size];
+        Throwable[] failures = new Throwable[size];
+        Map<Class<?>, ProxyShape<T>> stableShapes = new IdentityHashMap<Class<?>, ProxyShape<T>>();
+        MethodInformation[] methods = null;
+        RuntimeException classFailure = null;
+        
+        int i = 0;
+        for (ProxyHandler<T> handler : handlers) {
             try {
-                proxyClass = factory.context.toClass(cl, factory.clazz.getProtectionDomain());
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+                if (handler == null)
+                    throw new IllegalArgumentException("Null handler");
+                Class<?> handlerClass = handler.getClass();
+                ProxyShape<T> shape = stableShapes.get(handlerClass);
+                if (shape == null) {
+                    shape = checkShapeCache(clazz, handlerClass);
+                    boolean stable = shape != null || handlerClass.isAnnotationPresent(StableFilters.class);
+                    if (shape == null) {
+                        if (classFailure != null)
+                            throw classFailure;
+                        if (methods == null) {
+                            try {
+                                checkClassModifiers(clazz);
+                                checkDefaultConstructor(clazz);
+                                methods = MethodInformationCache.getSortedProxyableMethods(clazz);
+                            } catch (RuntimeException e) {
+                                classFailure = e;
+                                throw e;
+                            }
+                        }
+                        shape = resolveProxyShape(clazz, methods, handlerClass, handler);
+                    }
+                    if (stable)
+                        stableShapes.put(handlerClass, shape);
+                }
+                shapes[i] = shape;
+            } catch (RuntimeException e) {
+                failures[i] = e;
+            }
+            i++;
+        }
+        
+        Object[] proxies = new Object[size];
+        i = 0;
+        for (ProxyHandler<T> handler : handlers) {
+            if (shapes[i] != null) {
+                try {
+                    proxies[i] = instantiateProxy(shapes[i], handler);
+                } catch (RuntimeException e) {
+                    failures[i] = e;
+                }
+            }
+            i++;
+        }
+        return new ProxyBatchResult<T>(proxies, failures);
+    }
+    
+    /**
+     * Generate the proxy classes for a set of classes in parallel, e.g. at startup, so that later calls to
+     * {@link #createProxy(Class, ProxyHandler)} do not have to. The proxies are generated with the 
+     * default filters, i.e. all methods are handled and the proxy calls the target method. 
+     * A pool with one thread per core, e.g. <code>Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())</code>,
+     * will use all cores.
+     * 
+     * @param executor the executor to generate the proxy classes with
+     * @param classes the classes we want to proxy
+     * @return a handle to wait for the proxy classes and get timings and failures
+     * @throws IllegalArgumentException if the executor or any of the classes are null
+     */
+    public static ProxyWarmUp warmUp(Executor executor, Collection<? extends Class<?>> classes) {
+        if (executor == null)
+            throw new IllegalArgumentException("Null executor");
+        if (classes == null)
+            throw new IllegalArgumentException("Null classes");
+        
+        if (classes.contains(null))
+            throw new IllegalArgumentException("Null class in " + classes);
+        
+        ProxyWarmUp warmUp = new ProxyWarmUp(classes.size());
+        for (Class<?> clazz : classes)
+            submitWarmUp(executor, warmUp, clazz, null);
+        return warmUp;
+    }
+    
+    /**
+     * Generate the proxy classes for a set of classes in parallel, e.g. at startup, so that later calls to
+     * {@link #createProxy(Class, ProxyHandler)} do not have to. The filters of the prototype handler are used
+     * to generate the proxy class. 
+     * 
+     * @param executor the executor to generate the proxy classes with
+     * @param prototypes the classes we want to proxy, and a prototype handler for each
+     * @return a handle to wait for the proxy classes and get timings and failures
+     * @throws IllegalArgumentException if the executor or any of the classes or prototypes are null
+     */
+    public static ProxyWarmUp warmUp(Executor executor, Map<? extends Class<?>, ? extends ProxyHandler<?>> prototypes) {
+        if (executor == null)
+            throw new IllegalArgumentException("Null executor");
+        if (prototypes == null)
+            throw new IllegalArgumentException("Null prototypes");
+        
+        for (Map.Entry<? extends Class<?>, ? extends ProxyHandler<?>> entry : prototypes.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null)
+                throw new IllegalArgumentException("Null class or prototype in " + prototypes);
+        }
+        
+        ProxyWarmUp warmUp = new ProxyWarmUp(prototypes.size());
+        for (Map.Entry<? extends Class<?>, ? extends ProxyHandler<?>> entry : prototypes.entrySet())
+            submitWarmUp(executor, warmUp, entry.getKey(), entry.getValue());
+        return warmUp;
+    }
+    
+    private static void submitWarmUp(Executor executor, final ProxyWarmUp warmUp, final Class<?> clazz, final ProxyHandler<?> handler) {
+        Runnable task = new Runnable() {
+            @SuppressWarnings("unchecked")
+            public void run() {
+                try {
+                    long start = System.nanoTime();
+                    getProxyShape((Class<Object>)clazz, handler == null ? null : handler.getClass(), (ProxyHandler<Object>)handler);
+                    warmUp.completed(clazz, System.nanoTime() - start);
+                } catch (Throwable t) {
+                    warmUp.failed(clazz, t);
+                }
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            warmUp.failed(clazz, e);
+        }
+    }
+    
+    /**
+     * Prepare a template for creating proxies with handlers of a class which 
+     * does not override {@link ProxyHandler#isHandled(Method)} or {@link ProxyHandler#finalCallInHandler(Method)}.
+     * If the filters are overridden, use {@link #prepare(Class, ProxyHandler)} instead.
+     * 
+     * @param clazz the class we want to proxy
+     * @param handlerClass the class of the handlers that will be used with the template
+     * @return the template
+     * @throws IllegalArgumentException if the class is not proxyable, or the handler class overrides the filters
+     * @throws RuntimeException if there was an error
+     */
+    public static <T> ProxyTemplate<T> prepare(Class<T> clazz, Class<? extends ProxyHandler<T>> handlerClass) {
+        if (clazz == null)
+            throw new IllegalArgumentException("Null clazz");
+        if (handlerClass == null)
+            throw new IllegalArgumentException("Null handlerClass");
+        
+        ProxyShape<T> shape = checkShapeCache(clazz, handlerClass);
+        if (shape == null) {
+            if (overridesFilters(handlerClass))
+                throw new IllegalArgumentException(handlerClass.getName() + " overrides the filters, a sample handler is needed to prepare a template");
+            shape = getProxyShape(clazz, handlerClass, null);
+        }
+        return new ProxyTemplate<T>(shape, handlerClass);
+    }
+
+    /**
+     * Prepare a template for creating proxies with handlers of the same class as the passed in 
+     * sample handler. The filters of the sample handler are used for all proxies created by the template, 
+     * so they must not depend on the state of the handler.
+     * 
+     * @param clazz the class we want to proxy
+     * @param sample a sample proxy handler used to evaluate the filters
+     * @return the template
+     * @throws IllegalArgumentException if the class is not proxyable
+     * @throws RuntimeException if there was an error
+     */
+    public static <T> ProxyTemplate<T> prepare(Class<T> clazz, ProxyHandler<T> sample) {
+        if (clazz == null)
+            throw new IllegalArgumentException("Null clazz");
+        if (sample == null)
+            throw new IllegalArgumentException("Null sample");
+        
+        ProxyShape<T> shape = getProxyShape(clazz, sample.getClass(), sample);
+        return new ProxyTemplate<T>(shape, sample.getClass());
+    }
+    
+    /**
+     * Generate the bytes of the proxy class and its instantiator without defining them. This is used
+     * by {@link ProxyClassGenerator} to create the proxies at build time.
+     * 
+     * @param clazz the class we want to proxy
+     * @param handlerClass the class of the handler, or null if there is none
+     * @param handler the handler to evaluate the filters, or null to use the default filters
+     * @return a map of the generated class names and their bytes
+     * @throws IllegalArgumentException if the class is not proxyable
+     */
+    static <T> Map<String, byte[]> generateProxyClasses(Class<T> clazz, Class<?> handlerClass, ProxyHandler<T> handler) {
+        checkClassModifiers(clazz);
+        checkDefaultConstructor(clazz);
+        MethodInformation[] methods = MethodInformationCache.getSortedProxyableMethods(clazz);
+        ProxyFilters filters = ProxyFilters.create(methods, handlerClass, handler);
+        
+        ProxyFactory<T> factory = new ProxyFactory<T>(getProxyClassName(clazz, filters), clazz, methods, filters, false);
+        factory.createProxy();
+        factory.createInvocations();
+        return factory.getClasses();
+    }
+    
+    /**
+     * Keep the generated proxy classes in a directory, so that they can be reused by later runs, or 
+     * other JVMs on the same host, rather than generating them again. Entries are only used if the bytes 
+     * of the target class hierarchy and of the proxy factory are unchanged. This can also be set with 
+     * the {@link #BYTECODE_CACHE_DIRECTORY_PROPERTY} system property, which is ignored if the directory cannot be used.
+     * <p>
+     * The classes read from the directory are defined in the protection domain of the target class, and the check 
+     * that an entry matches only uses public class bytes, so anybody who can write to the directory can inject code
+     * into that domain. So the directory must only be writable by the current user, and is not used if it is writable 
+     * by the group or other users or is owned by another user. Entries like that are ignored as well. Checking this needs 
+     * Java 7 or later on a file system with POSIX permissions, and the directory is not used elsewhere. Do not point 
+     * this at a directory shared with other users.
+     * 
+     * @param dir the directory, or null to stop using it
+     * @throws IllegalArgumentException if the directory could not be created, or could be written by other users
+     */
+    public static void setBytecodeCacheDirectory(File dir) {
+        bytecodeStore = dir == null ? null : new BytecodeStore(dir);
+    }
+    
+    /**
+     * Get the proxy shape for a class and handler.
+     * 
+     * @param clazz the class we want to proxy
+     * @param handlerClass the class of the handler, or null if there is none
+     * @param handler the handler to evaluate the filters, or null to use the default filters
+     * @return the shape
+     */
+    private static <T> ProxyShape<T> getProxyShape(Class<T> clazz, Class<?> handlerClass, ProxyHandler<T> handler) {
+        //Only handler classes with stable filters ever get put in here, so check it before looking at the annotation
+        ProxyShape<T> shape = handlerClass == null ? null : checkShapeCache(clazz, handlerClass);
+        if (shape != null)
+            return shape;
+        
+        checkClassModifiers(clazz);
+        checkDefaultConstructor(clazz);
+        MethodInformation[] methods = MethodInformationCache.getSortedProxyableMethods(clazz);
+        return resolveProxyShape(clazz, methods, handlerClass, handler);
+    }
+    
+    /**
+     * Evaluate the filters and get the proxy shape for an already checked class
+     */
+    private static <T> ProxyShape<T> resolveProxyShape(Class<T> clazz, MethodInformation[] methods, Class<?> handlerClass, ProxyHandler<T> handler) {
+        ProxyFilters filters = ProxyFilters.create(methods, handlerClass, handler);
+        
+        ProxyShape<T> shape = checkCache(clazz, filters);
+        if (shape == null)
+            shape = generateProxy(clazz, methods, filters);
+        
+        if (handlerClass != null && (handler == null || handlerClass.isAnnotationPresent(StableFilters.class) || !overridesFilters(handlerClass)))
+            putInShapeCache(clazz, handlerClass, shape);
+        return shape;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> ProxyShape<T> checkShapeCache(Class<T> clazz, Class<?> handlerClass) {
+        ConcurrentWeakIdentityMap<Class<?>, WeakReference<ProxyShape<?>>> map = SHAPE_CACHE.get(clazz);
+        if (map == null)
+            return null;
+        WeakReference<ProxyShape<?>> shapeRef = map.get(handlerClass);
+        if (shapeRef == null)
+            return null;
+        return (ProxyShape<T>)shapeRef.get();
+    }
+    
+    private static void putInShapeCache(Class<?> clazz, Class<?> handlerClass, ProxyShape<?> shape) {
+        ConcurrentWeakIdentityMap<Class<?>, WeakReference<ProxyShape<?>>> map = SHAPE_CACHE.get(clazz);
+        if (map == null) {
+            //Weak keys since the handler class might come from a different classloader than the target class
+            map = new ConcurrentWeakIdentityMap<Class<?>, WeakReference<ProxyShape<?>>>();
+            ConcurrentWeakIdentityMap<Class<?>, WeakReference<ProxyShape<?>>> existing = SHAPE_CACHE.putIfAbsent(clazz, map);
+            if (existing != null)
+                map = existing;
+        }
+        map.put(handlerClass, new WeakReference<ProxyShape<?>>(shape));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> ProxyShape<T> checkCache(Class<T> clazz, ProxyFilters filters){
+    	ClassProxies proxies = CACHE.get(clazz);
+    	if (proxies == null)
+    		return null;
+    	WeakReference<ProxyShape<?>> shapeRef = proxies.shapes.get(filters);
+    	if (shapeRef == null)
+    		return null;
+    	
+    	//The shape is referenced by the proxy class, so it will only go away along with the target class
+    	return (ProxyShape<T>)shapeRef.get();
+    }
+    
+    /**
+     * Generate and define the proxy class. Threads asking for the same proxy class wait for the one
+     * generating it, while different proxy classes get generated in parallel.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> ProxyShape<T> generateProxy(final Class<T> clazz, final MethodInformation[] methods, final ProxyFilters filters) {
+        ProxyKey key = new ProxyKey(clazz, filters);
+        FutureTask<ProxyShape<?>> task = IN_FLIGHT.get(key);
+        if (task == null) {
+            FutureTask<ProxyShape<?>> newTask = new FutureTask<ProxyShape<?>>(new Callable<ProxyShape<?>>() {
+                public ProxyShape<?> call() {
+                    //Another thread might have finished generating it since we checked
+                    ProxyShape<T> shape = checkCache(clazz, filters);
+                    if (shape != null)
+                        return shape;
+                    return createProxyClassAndPutInCache(clazz, methods, filters);
+                }
+            });
+            task = IN_FLIGHT.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                try {
+                    newTask.run();
+                } finally {
+                    IN_FLIGHT.remove(key, newTask);
+                }
+            }
+        }
+        
+        try {
+            return (ProxyShape<T>)task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for proxy class for " + clazz.getName(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new RuntimeException(cause);
+        }
+    }
+    
+    /**
+     * Only call this from {@link #generateProxy(Class, MethodInformation[], ProxyFilters)} which makes sure that
+     * the same proxy class does not get defined twice. A proxy class generated at build time by {@link ProxyClassGenerator}
+     * is used if the target class's classloader has one, otherwise the proxy class is generated and defined now. 
+     */
+    private static <T> ProxyShape<T> createProxyClassAndPutInCache(Class<T> clazz, MethodInformation[] methods, ProxyFilters filters){
+    	ClassProxies proxies = getClassProxies(clazz);
+    	
+    	String proxyName = getProxyClassName(clazz, filters);
+    	//Only the plain name can be relied on to mean the same filters in other JVMs and at build time
+    	boolean shared = proxies.claimName(proxyName, filters);
+    	if (!shared)
+    	    proxyName = claimOtherName(proxies, proxyName, filters);
+    	
+        ClassLoader cl = getClassLoader(clazz);
+        Class<? extends T> proxyClass = shared ? loadPregeneratedClass(cl, clazz, proxyName) : null;
+        ProxyShape<T> shape = null;
+        try {
+            if (proxyClass != null) {
+                shape = new ProxyShape<T>(clazz, proxyName, methods, filters, proxyClass);
+                anchorShape(shape);
+                shape.setInstantiator((ProxyInstantiator)cl.loadClass(getInstantiatorClassName(proxyName)).newInstance());
+            } else {
+                BytecodeStore store = shared ? bytecodeStore : null;
+                byte[] fingerprint = store == null ? null : store.getFingerprint(clazz);
+                Map<String, ByteBuffer> stored = fingerprint == null ? null : store.load(proxyName, fingerprint);
+                ProtectionDomain domain = clazz.getProtectionDomain();
+                String instantiatorName = getInstantiatorClassName(proxyName);
+                //Check that the entry is complete before defining anything from it
+                if (stored != null && stored.containsKey(proxyName) && stored.containsKey(instantiatorName) && 
+                        stored.containsKey(proxyName + METHODS_HOLDER_SUFFIX)) {
+                    boolean defined = false;
+                    try {
+                        proxyClass = ClassFileWriterContext.defineClass(cl, proxyName, stored.get(proxyName), domain).asSubclass(clazz);
+                        defined = true;
+                        shape = new ProxyShape<T>(clazz, proxyName, methods, filters, proxyClass);
+                        anchorShape(shape);
+                        shape.setInstantiator((ProxyInstantiator)ClassFileWriterContext.defineClass(cl, instantiatorName, stored.get(instantiatorName), domain).newInstance());
+                        for (Map.Entry<String, ByteBuffer> entry : stored.entrySet()) {
+                            if (!entry.getKey().equals(proxyName) && !entry.getKey().equals(instantiatorName))
+                                ClassFileWriterContext.defineClass(cl, entry.getKey(), entry.getValue(), domain);
+                        }
+                    } catch (Throwable t) {
+                        //The entry is corrupt, so generate the classes instead
+                        proxyClass = null;
+                        if (defined) {
+                            //The classes defined from it cannot be replaced, so use another name and leave the entry alone
+                            proxyName = claimOtherName(proxies, proxyName, filters);
+                            fingerprint = null;
+                        }
+                    }
+                }
+                if (proxyClass == null) {
+                    ProxyFactory<T> factory = new ProxyFactory<T>(proxyName, clazz, methods, filters, false);
+                    factory.createProxy();
+                    proxyClass = factory.context.toClass(cl, domain).asSubclass(clazz);
+                    shape = new ProxyShape<T>(clazz, proxyName, methods, filters, proxyClass);
+                    anchorShape(shape);
+                    shape.setInstantiator(factory.instantiatorContext.toClass(cl, domain).newInstance());
+                    factory.methodsHolderContext.toClass(cl, domain);
+                    if (fingerprint != null)
+                        store.store(proxyName, fingerprint, factory.getClasses());
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    	
+    	proxies.shapes.put(filters, new WeakReference<ProxyShape<?>>(shape));
+    	return shape;
+    }
+    
+    /**
+     * Claim a name for a proxy class which is not used by any other JVM or at build time
+     */
+    private static String claimOtherName(ClassProxies proxies, String baseName, ProxyFilters filters) {
+        String proxyName;
+        for (int i = 1 ; !proxies.claimName(proxyName = baseName + "$" + i, filters) ; i++);
+        return proxyName;
+    }
+    
+    private static ClassProxies getClassProxies(Class<?> clazz) {
+    	ClassProxies proxies = CACHE.get(clazz);
+    	if (proxies == null) {
+    		proxies = new ClassProxies();
+    		ClassProxies existing = CACHE.putIfAbsent(clazz, proxies);
+    		if (existing != null)
+    			proxies = existing;
+    	}
+    	return proxies;
+    }
+    
+    /**
+     * Get the invoker calling the methods of the target class, creating it if needed. There is only one per 
+     * target class. It is kept alive by the proxy shapes using it, so it is only referenced weakly here.
+     */
+    static TargetInvoker getTargetInvoker(Class<?> clazz, MethodInformation[] methods) {
+        ClassProxies proxies = getClassProxies(clazz);
+        TargetInvoker invoker = proxies.getTargetInvoker();
+        if (invoker != null)
+            return invoker;
+        
+        //This only happens once per target class, so just lock
+        synchronized (proxies) {
+            invoker = proxies.getTargetInvoker();
+            if (invoker == null) {
+                invoker = new TargetInvokerFactory(clazz, methods).createTargetInvoker();
+                proxies.targetInvoker = new WeakReference<TargetInvoker>(invoker);
+            }
+        }
+        return invoker;
+    }
+    
+    /**
+     * Load a proxy class generated at build time.
+     * 
+     * @return the proxy class, or null if the classloader does not have it
+     */
+    private static <T> Class<? extends T> loadPregeneratedClass(ClassLoader cl, Class<T> clazz, String proxyName) {
+        //Check the resource first to avoid the cost of a ClassNotFoundException for the normal case
+        if (cl.getResource(ClassFileWriterContext.jvmClassName(proxyName) + ".class") == null)
+            return null;
+        Class<?> proxyClass;
+        try {
+            proxyClass = cl.loadClass(proxyName);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        if (proxyClass.getSuperclass() != clazz)
+            throw new IllegalStateException("Pregenerated proxy " + proxyName + " does not extend " + clazz.getName() + " from " + cl);
+        return proxyClass.asSubclass(clazz);
+    }
+    
+    /**
+     * Store the shape in the proxy class so that it lives exactly as long as the proxy class. The methods 
+     * holder picks up the methods passed to the handler from it, so this must be called as soon as the proxy 
+     * class is defined, before any of the generated classes get instantiated.
+     */
+    private static void anchorShape(ProxyShape<?> shape) {
+        try {
+            Class<?> proxyClass = shape.getProxyClass();
+            Field field = SecurityActions.getDeclaredField(proxyClass, PROXY_SHAPE_FIELD_NAME);
+            SecurityActions.setAccessible(field);
+            field.set(null, shape);
+            PROXY_SHAPES.put(proxyClass, new WeakReference<ProxyShape<?>>(shape));
+            
+            ProxyFilters filters = shape.getFilters();
+            Field[] disabledFields = new Field[filters.size()];
+            Field[] classDisabledFields = new Field[filters.size()];
+            for (int i = 0 ; i < disabledFields.length ; i++) {
+                if (!filters.canBeDisabled(i))
+                    continue;
+                disabledFields[i] = SecurityActions.getDeclaredField(proxyClass, PROXY_DISABLED_FIELD_PREFIX + i);
+                SecurityActions.setAccessible(disabledFields[i]);
+                classDisabledFields[i] = SecurityActions.getDeclaredField(proxyClass, PROXY_CLASS_DISABLED_FIELD_PREFIX + i);
+                SecurityActions.setAccessible(classDisabledFields[i]);
             }
+            shape.setDisabledFields(disabledFields, classDisabledFields);
             
-        	Map<String, WeakReference<Class<?>>> map = CACHE.get(factory.clazz);
-        	if (map == null) {
-        		map = new HashMap<String, WeakReference<Class<?>>>();
-        		CACHE.put(factory.clazz, map);
-        	}
-        	
-        	map.put(proxyName, new WeakReference<Class<?>>(proxyClass));
-        	return proxyClass.asSubclass(factory.clazz);
+            if (filters.isDelegating()) {
+                MethodInformation[] methods = shape.getMethods();
+                for (int i = 0 ; i < methods.length ; i++) {
+                    if (!TargetInvokerFactory.isDirectlyCallable(shape.getTargetClass(), methods[i])) {
+                        field = SecurityActions.getDeclaredField(proxyClass, PROXY_INVOKER_FIELD_NAME);
+                        SecurityActions.setAccessible(field);
+                        field.set(null, shape.getTargetInvoker());
+                        break;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Could not store shape in proxy class " + shape.getProxyName(), e);
         }
     }
     
-    private static ClassLoader getClassLoader(Class<?> clazz) {
+    private static String getInstantiatorClassName(String proxyName) {
+        return proxyName + INSTANTIATOR_SUFFIX;
+    }
+    
+    static ClassLoader getClassLoader(Class<?> clazz) {
         ClassLoader cl = SecurityActions.getClassLoader(clazz);
         if (cl == null)
             cl = SecurityActions.getSystemClassLoader();
         return cl;
     }
     
-    private static <T> T instantiateProxy(Class<? extends T> proxyClass, MethodInformation[] methods, ProxyHandler<T> handler) {
-        try {
-            T proxy = proxyClass.newInstance();
-            ((ProxyHandlerSetter) proxy).setProxyHandler(handler);
-            handler.setMethods(methods);
-            return proxy;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    static <T> T instantiateProxy(ProxyShape<T> shape, ProxyHandler<T> handler) {
+        handler.bind(shape);
+        return shape.getProxyClass().cast(shape.getInstantiator().newInstance(handler));
+    }
+
+    private Map<String, byte[]> getClasses() {
+        Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+        classes.put(context.getName().replace('/', '.'), context.getBytes());
+        classes.put(instantiatorContext.getName().replace('/', '.'), instantiatorContext.getBytes());
+        classes.put(methodsHolderContext.getName().replace('/', '.'), methodsHolderContext.getBytes());
+        for (ClassFileWriterContext<Invocation> invocationContext : invocationContexts)
+            classes.put(invocationContext.getName().replace('/', '.'), invocationContext.getBytes());
+        return classes;
     }
 
     private void createProxy() {
-        createProxyHandlerFieldAndSetter();
+        createProxyHandlerFieldAndConstructor();
 
-        for (int i = 0 ; i < methods.length ; i++)
+        for (int i = 0 ; i < methods.length ; i++) {
             createProxyMethod(i, methods[i]);
+            createSuperMethod(i, methods[i]);
+            createDelegatingMethods(i, methods[i]);
+        }
+        
+        createInstantiator();
+        createMethodsHolder();
+    }
+    
+    /**
+     * Generate the invocation classes along with the proxy, which is only done for the proxies created at build time.
+     * Otherwise they are defined by {@link #defineInvocations(ProxyShape)} the first time the handler is called.
+     */
+    private void createInvocations() {
+        for (int i = 0 ; i < methods.length ; i++) {
+            if (filters.usesInvocations() && filters.isHandled(i))
+                invocationContexts.add(new InvocationFactory(context.getName().replace('/', '.'), clazz, i, methods[i]).createInvocation());
+        }
+    }
+    
+    /**
+     * Define the invocation classes of a proxy class which were not generated at build time. This is called from the 
+     * static initializer of the methods holder, so it only happens once per proxy class.
+     */
+    private static void defineInvocations(ProxyShape<?> shape) {
+        Class<?> clazz = shape.getTargetClass();
+        ClassLoader cl = getClassLoader(clazz);
+        MethodInformation[] methods = shape.getMethods();
+        for (int i = 0 ; i < methods.length ; i++) {
+            if (!shape.getFilters().isHandled(i))
+                continue;
+            String invocationName = InvocationFactory.getInvocationClassName(shape.getProxyName(), i);
+            if (cl.getResource(ClassFileWriterContext.jvmClassName(invocationName) + ".class") != null)
+                continue;
+            try {
+                new InvocationFactory(shape.getProxyName(), clazz, i, methods[i]).createInvocation().toClass(cl, clazz.getProtectionDomain());
+            } catch (Exception e) {
+                throw new RuntimeException("Could not create invocation class for " + methods[i].getName() + " in " + shape.getProxyName(), e);
+            }
+        }
     }
 
-    private void createProxyHandlerFieldAndSetter() {
-        context.createField(Modifier.PRIVATE | Modifier.VOLATILE, PROXY_HANDLER_FIELD_NAME, PROXY_HANDLER_SIGNATURE);
-        context.beginMethod(Modifier.PUBLIC, "setProxyHandler", SET_PROXY_HANDLER_SIGNATURE, null);
+    private void createProxyHandlerFieldAndConstructor() {
+        //Package private so that the methods holder can read it
+        context.createField(Modifier.STATIC, PROXY_SHAPE_FIELD_NAME, PROXY_SHAPE_SIGNATURE);
+        if (singleton) {
+            //Set by createSingletonProxy() and copied into a static final field by the methods holder, the constructor ignores it. 
+            //Package private so that the methods holder can read it
+            context.createField(Modifier.STATIC, PROXY_HANDLER_FIELD_NAME, PROXY_HANDLER_SIGNATURE);
+        } else {
+            context.createField(Modifier.PRIVATE | Modifier.FINAL, PROXY_HANDLER_FIELD_NAME, PROXY_HANDLER_SIGNATURE);
+        }
+        if (filters.isDelegating()) {
+            context.createField(Modifier.PRIVATE | Modifier.FINAL, PROXY_TARGET_FIELD_NAME, getTargetSignature());
+            context.createField(Modifier.PRIVATE | Modifier.STATIC, PROXY_INVOKER_FIELD_NAME, PROXY_INVOKER_SIGNATURE);
+        }
+        context.beginMethod(Modifier.PUBLIC, "<init>", PROXY_CONSTRUCTOR_SIGNATURE, null);
         context.addAload(0);
-        context.addAload(1);
-        context.addPutField(context.getName(), PROXY_HANDLER_FIELD_NAME, PROXY_HANDLER_SIGNATURE);
+        context.addInvokeSpecial(ClassFileWriterContext.jvmClassName(clazz), "<init>", "()V");
+        if (!singleton) {
+            context.addAload(0);
+            context.addAload(1);
+            context.addPutField(context.getName(), PROXY_HANDLER_FIELD_NAME, PROXY_HANDLER_SIGNATURE);
+        }
+        if (filters.isDelegating()) {
+            context.addAload(0);
+            context.addAload(1);
+            context.addInvokeVirtual(PROXY_HANDLER_FIELD_TYPE, "getInstance", "()Ljava/lang/Object;");
+            context.addCheckcast(ClassFileWriterContext.jvmClassName(clazz));
+            context.addPutField(context.getName(), PROXY_TARGET_FIELD_NAME, getTargetSignature());
+        }
         context.addReturn();
         context.endMethod(2);
     }
+    
+    /**
+     * Push the handler onto the stack, which is in a static final field of the methods holder for singleton proxy classes
+     */
+    private void loadHandler() {
+        if (singleton) {
+            context.addGetStatic(methodsHolderContext.getName(), PROXY_HANDLER_FIELD_NAME, PROXY_HANDLER_SIGNATURE);
+        } else {
+            context.addAload(0);
+            context.addGetField(context.getName(), PROXY_HANDLER_FIELD_NAME, PROXY_HANDLER_SIGNATURE);
+        }
+    }
+    
+    /**
+     * Create the instantiator class, which calls the proxy constructor taking the handler
+     */
+    private void createInstantiator() {
+        instantiatorContext.createDefaultConstructor();
+        instantiatorContext.beginMethod(Modifier.PUBLIC, "newInstance", NEW_INSTANCE_SIGNATURE, null);
+        instantiatorContext.addNew(context.getName());
+        instantiatorContext.addDup();
+        instantiatorContext.addAload(1);
+        instantiatorContext.addInvokeSpecial(context.getName(), "<init>", PROXY_CONSTRUCTOR_SIGNATURE);
+        instantiatorContext.addAReturn();
+        instantiatorContext.endMethod(2);
+    }
+    
+    /**
+     * Create the class holding the methods passed to the handler in <code>static final</code> fields, which the JIT 
+     * treats as constants. They are set by its static initializer, so the methods only get resolved, and their 
+     * parameter types loaded, the first time one of the proxies calls the handler. For singleton proxy classes it 
+     * also holds the handler, copied from the proxy class where {@link #createSingletonProxy(Class, ProxyHandler)} 
+     * set it before creating the proxy.
+     */
+    private void createMethodsHolder() {
+        for (int i = 0 ; i < methods.length ; i++) {
+            if (filters.isHandled(i))
+                methodsHolderContext.createField(Modifier.STATIC | Modifier.FINAL, PROXY_METHOD_FIELD_PREFIX + i, PROXY_METHOD_SIGNATURE);
+        }
+        if (singleton)
+            methodsHolderContext.createField(Modifier.STATIC | Modifier.FINAL, PROXY_HANDLER_FIELD_NAME, PROXY_HANDLER_SIGNATURE);
+        methodsHolderContext.beginStaticInitializer();
+        methodsHolderContext.addGetStatic(context.getName(), PROXY_SHAPE_FIELD_NAME, PROXY_SHAPE_SIGNATURE);
+        methodsHolderContext.addInvokeStatic(ClassFileWriterContext.jvmClassName(ProxyFactory.class), "getProxyMethods", "(" + PROXY_SHAPE_SIGNATURE + ")[" + PROXY_METHOD_SIGNATURE);
+        methodsHolderContext.addAstore(0);
+        for (int i = 0 ; i < methods.length ; i++) {
+            if (!filters.isHandled(i))
+                continue;
+            methodsHolderContext.addAload(0);
+            methodsHolderContext.addIconst(i);
+            methodsHolderContext.addAALoad();
+            methodsHolderContext.addPutStatic(methodsHolderContext.getName(), PROXY_METHOD_FIELD_PREFIX + i, PROXY_METHOD_SIGNATURE);
+        }
+        if (singleton) {
+            methodsHolderContext.addGetStatic(context.getName(), PROXY_HANDLER_FIELD_NAME, PROXY_HANDLER_SIGNATURE);
+            methodsHolderContext.addPutStatic(methodsHolderContext.getName(), PROXY_HANDLER_FIELD_NAME, PROXY_HANDLER_SIGNATURE);
+        }
+        methodsHolderContext.addReturn();
+        methodsHolderContext.endMethod(1);
+    }
+    
+    /**
+     * Push the method passed to the handler onto the stack, which initializes the methods holder the first time
+     */
+    private void loadMethod(int methodIndex) {
+        context.addGetStatic(methodsHolderContext.getName(), PROXY_METHOD_FIELD_PREFIX + methodIndex, PROXY_METHOD_SIGNATURE);
+    }
+
+    /**
+     * Create a method calling the superclass implementation of a handled method, so that the handler can 
+     * call it through the super invoker. It is package private, since only the super invoker and the 
+     * invocations, which are in the same package, call it.
+     */
+    private void createSuperMethod(int methodIndex, MethodInformation methodInformation) {
+        if (!filters.isHandled(methodIndex))
+            return;
+        
+        context.beginMethod(0, getSuperMethodName(methodInformation.getName(), methodIndex), methodInformation.getFullSignature(), methodInformation.getExceptions());
+        context.addAload(0);
+        TypeDescriptor[] params = methodInformation.getParameterTypes();
+        int paramIndex = 0;
+        for (int i = 0 ; i < params.length ; i++) {
+            paramIndex++;
+            loadParameter(context, params[i], paramIndex);
+            paramIndex = offsetParam(params[i], paramIndex);
+        }
+        context.addInvokeSpecial(ClassFileWriterContext.jvmClassName(clazz), methodInformation.getName(), methodInformation.getFullSignature());
+        addReturn(methodInformation);
+        context.endMethod(1 + paramIndex);
+    }
+    
+    static String getSuperMethodName(String name, int methodIndex) {
+        return SUPER_METHOD_PREFIX + name + "$" + methodIndex;
+    }
 
     private void createProxyMethod(int methodIndex, MethodInformation methodInformation) {
-    	if (handledFilter[methodIndex] == 0)
+    	if (!filters.isHandled(methodIndex))
     		return;
     	
-        final Method method = methodInformation.getMethod();
-        context.beginMethod(methodInformation.getModifiers(), methodInformation.getName(), methodInformation.getFullSignature(), methodInformation.getExceptions());
+    	if (filters.canBeDisabled(methodIndex)) {
+    	    context.createField(Modifier.PRIVATE | Modifier.VOLATILE, PROXY_DISABLED_FIELD_PREFIX + methodIndex, "I");
+    	    context.createField(Modifier.PRIVATE | Modifier.STATIC | Modifier.VOLATILE, PROXY_CLASS_DISABLED_FIELD_PREFIX + methodIndex, "I");
+    	}
+        context.beginMethod(Modifier.PUBLIC, methodInformation.getName(), methodInformation.getFullSignature(), methodInformation.getExceptions());
 
-        //Call the ProxyHandler.invokeMethod() with the parameters in an array
-        Class<?>[] params = method.getParameterTypes();
+        TypeDescriptor[] params = methodInformation.getParameterTypes();
+        if (filters.canBeDisabled(methodIndex))
+            addDisabledCheck(methodIndex, methodInformation, params);
+        String typedSignature = filters.isTyped() ? getTypedSignature(methodInformation) : null;
+        int paramIndex;
+        if (filters.usesInvocations()) {
+            paramIndex = invokeInvocationHandler(methodIndex, methodInformation);
+        } else if (typedSignature == null) {
+            paramIndex = invokeHandler(methodIndex, params);
+        } else {
+            paramIndex = invokeTypedHandler(methodIndex, params, methodInformation.getReturnType(), typedSignature);
+        }
+        
+        if (!filters.isFinalCallInHandler(methodIndex)) {
+            paramIndex = addFinalCall(methodIndex, methodInformation, params);
+        } else if (typedSignature == null) {
+            //Unbox the return value from the handler if needed
+            castAndUnboxValue(context, methodInformation.getReturnType());
+        }
+        
+        addReturn(methodInformation);
+        //Add an extra local variable each for 'this' and for the Object[] passed to PH.invokeMethod()
+        context.endMethod(2 + paramIndex);
+    }
+    
+    /**
+     * If the handler has been turned off for the method, call the superclass implementation and return, 
+     * otherwise jump past that to the code calling the handler
+     */
+    private void addDisabledCheck(int methodIndex, MethodInformation methodInformation, TypeDescriptor[] params) {
+        //The instance field is 1 when disabled, -1 when enabled and 0 to use the class field, which is 1 when disabled. 
+        //So it is turned off if (instance << 1) + class > 0
+        //ifle, the final call, xreturn
+        int skip = 3 + getFinalCallLength(methodIndex, params) + 1;
+        context.addAload(0);
+        context.addGetField(context.getName(), PROXY_DISABLED_FIELD_PREFIX + methodIndex, "I");
+        context.addIconst(1);
+        context.addIshl();
+        context.addGetStatic(context.getName(), PROXY_CLASS_DISABLED_FIELD_PREFIX + methodIndex, "I");
+        context.addIadd();
+        context.addIfle(skip);
+        addFinalCall(methodIndex, methodInformation, params);
+        addReturn(methodInformation);
+    }
+    
+    /**
+     * Call the method on the target for delegating proxies, otherwise call the superclass implementation. Methods
+     * of the target which cannot be called directly go through the proxy's <code>target$</code> method instead.
+     * 
+     * @return the index of the last parameter
+     */
+    private int addFinalCall(int methodIndex, MethodInformation methodInformation, TypeDescriptor[] params) {
+        boolean direct = isDirectDelegateCall(methodIndex);
+        context.addAload(0);
+        if (direct)
+            context.addGetField(context.getName(), PROXY_TARGET_FIELD_NAME, getTargetSignature());
+        int paramIndex = 0;
+        for (int i = 0 ; i < params.length ; i++) {
+            paramIndex++;
+            loadParameter(context, params[i], paramIndex);
+            paramIndex = offsetParam(params[i], paramIndex);
+        }
+        if (!filters.isDelegating()) {
+            context.addInvokeSpecial(ClassFileWriterContext.jvmClassName(clazz), methodInformation.getName(), methodInformation.getFullSignature());
+        } else if (direct) {
+            context.addInvokeVirtual(ClassFileWriterContext.jvmClassName(clazz), methodInformation.getName(), methodInformation.getFullSignature());
+        } else {
+            context.addInvokeVirtual(context.getName(), TARGET_METHOD_PREFIX + methodInformation.getName() + "$" + methodIndex, methodInformation.getFullSignature());
+        }
+        return paramIndex;
+    }
+    
+    /**
+     * Get the number of bytes of the code added by {@link #addFinalCall(int, MethodInformation, TypeDescriptor[])}
+     */
+    private int getFinalCallLength(int methodIndex, TypeDescriptor[] params) {
+        //aload_0, [getfield], invokespecial/invokevirtual
+        int length = 1 + (isDirectDelegateCall(methodIndex) ? 3 : 0) + 3;
+        int paramIndex = 0;
+        for (int i = 0 ; i < params.length ; i++) {
+            paramIndex++;
+            length += ClassFileWriterContext.getLoadLength(paramIndex);
+            paramIndex = offsetParam(params[i], paramIndex);
+        }
+        return length;
+    }
+    
+    private String getTargetSignature() {
+        return TypeDescriptor.forClass(clazz).getDescriptor();
+    }
+    
+    private boolean isDirectDelegateCall(int methodIndex) {
+        return filters.isDelegating() && TargetInvokerFactory.isDirectlyCallable(clazz, methods[methodIndex]);
+    }
+    
+    /**
+     * For delegating proxies, override the methods which are not handled to call the target, and add the
+     * <code>target$</code> method calling the target through the target invoker for the methods the proxy 
+     * cannot call directly, e.g. protected methods inherited from a class in another package
+     */
+    private void createDelegatingMethods(int methodIndex, MethodInformation methodInformation) {
+        if (!filters.isDelegating())
+            return;
+        
+        TypeDescriptor[] params = methodInformation.getParameterTypes();
+        if (!filters.isHandled(methodIndex)) {
+            context.beginMethod(Modifier.PUBLIC, methodInformation.getName(), methodInformation.getFullSignature(), methodInformation.getExceptions());
+            int paramIndex = addFinalCall(methodIndex, methodInformation, params);
+            addReturn(methodInformation);
+            context.endMethod(1 + paramIndex);
+        }
+        if (isDirectDelegateCall(methodIndex))
+            return;
+        
+        context.beginMethod(Modifier.PUBLIC, TARGET_METHOD_PREFIX + methodInformation.getName() + "$" + methodIndex, methodInformation.getFullSignature(), methodInformation.getExceptions());
+        context.addGetStatic(context.getName(), PROXY_INVOKER_FIELD_NAME, PROXY_INVOKER_SIGNATURE);
+        context.addIconst(methodIndex);
+        context.addAload(0);
+        context.addGetField(context.getName(), PROXY_TARGET_FIELD_NAME, getTargetSignature());
+        context.addAnewArray("java/lang/Object", params.length);
+        int paramIndex = 0;
+        for (int i = 0 ; i < params.length ; i++) {
+            paramIndex++;
+            context.addDup();
+            context.addIconst(i);
+            loadParameter(context, params[i], paramIndex);
+            paramIndex = offsetParam(params[i], paramIndex);
+            boxValue(context, params[i]);
+            context.addAAStore();
+        }
+        context.addInvokeVirtual(ClassFileWriterContext.jvmClassName(TargetInvoker.class), "invoke", "(ILjava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;");
+        castAndUnboxValue(context, methodInformation.getReturnType());
+        addReturn(methodInformation);
+        context.endMethod(1 + paramIndex);
+    }
+    
+    /**
+     * Call the ProxyHandler.invokeMethod() with the parameters in an array, which is also used for the methods of
+     * typed handlers without a typed invoke method
+     * 
+     * @return the index of the last parameter
+     */
+    private int invokeHandler(int methodIndex, TypeDescriptor[] params) {
         context.addAnewArray("java/lang/Object", params.length);
         int paramIndex = 0;
         for (int i = 0 ; i < params.length ; i++) {
             paramIndex++;
             context.addDup();
             context.addIconst(i);
-            loadParameter(params[i], paramIndex);
+            loadParameter(context, params[i], paramIndex);
             paramIndex = offsetParam(params[i], paramIndex);
-            boxValue(params[i]);
+            boxValue(context, params[i]);
             context.addAAStore();
         }
         final int argsArrayIndex = paramIndex + 1;
         context.addAstore(argsArrayIndex);
+        loadHandler();
         context.addAload(0);
-        context.addGetField(context.getName(), PROXY_HANDLER_FIELD_NAME, PROXY_HANDLER_SIGNATURE);
         context.addIconst(methodIndex);
+        loadMethod(methodIndex);
         context.addAload(argsArrayIndex);
-        context.addInvokeVirtual(PROXY_HANDLER_FIELD_TYPE, "invokeMethod", "(I[Ljava/lang/Object;)Ljava/lang/Object;");
-
+        context.addInvokeVirtual(PROXY_HANDLER_FIELD_TYPE, "invokeMethod", 
+                "(Ljava/lang/Object;I" + PROXY_METHOD_SIGNATURE + "[Ljava/lang/Object;)Ljava/lang/Object;");
+        return paramIndex;
+    }
+    
+    /**
+     * Create the invocation for the method and pass it to InvocationProxyHandler.invokeMethod()
+     * 
+     * @return the index of the last parameter
+     */
+    private int invokeInvocationHandler(int methodIndex, MethodInformation methodInformation) {
+        String invocationName = ClassFileWriterContext.jvmClassName(InvocationFactory.getInvocationClassName(context.getName(), methodIndex));
+        TypeDescriptor[] params = methodInformation.getParameterTypes();
+        int paramIndex = 0;
+        for (int i = 0 ; i < params.length ; i++)
+            paramIndex = offsetParam(params[i], paramIndex + 1);
         
-        if (finalCallInHandlerFilter[methodIndex] == 0) {
-            //Call the super implementation of the method
-            context.addAload(0);
-            paramIndex = 0;
-            for (int i = 0 ; i < params.length ; i++) {
-                paramIndex++;
-                loadParameter(params[i], paramIndex);
-                paramIndex = offsetParam(params[i], paramIndex);
-            }
-            context.addInvokeSpecial(ClassFileWriterContext.jvmClassName(clazz), methodInformation.getName(), methodInformation.getFullSignature());
-        } else {
-            //Unbox the return value from the handler if needed
-            castAndUnboxValue(method.getReturnType());
+        //The methods holder defines the invocation classes, so initialize it before the invocation class is resolved 
+        int methodSlot = paramIndex + 1;
+        loadMethod(methodIndex);
+        context.addAstore(methodSlot);
+        loadHandler();
+        context.addCheckcast(INVOCATION_PROXY_HANDLER_TYPE);
+        context.addNew(invocationName);
+        context.addDup();
+        context.addAload(methodSlot);
+        loadHandler();
+        context.addAload(0);
+        paramIndex = 0;
+        for (int i = 0 ; i < params.length ; i++) {
+            paramIndex++;
+            loadParameter(context, params[i], paramIndex);
+            paramIndex = offsetParam(params[i], paramIndex);
         }
+        context.addInvokeSpecial(invocationName, "<init>", InvocationFactory.getConstructorSignature(methodInformation));
+        //So that verifying the proxy method does not load the invocation class
+        context.addCheckcast(InvocationFactory.INVOCATION_TYPE);
+        context.addInvokeVirtual(INVOCATION_PROXY_HANDLER_TYPE, "invokeMethod", "(L" + InvocationFactory.INVOCATION_TYPE + ";)Ljava/lang/Object;");
+        return paramIndex;
+    }
+    
+    /**
+     * Call the TypedProxyHandler method for the signature with the parameters as they are. If the final 
+     * call is in the handler the returned value is left on the stack, otherwise it is discarded.
+     * 
+     * @return the index of the last parameter
+     */
+    private int invokeTypedHandler(int methodIndex, TypeDescriptor[] params, TypeDescriptor returnType, String typedSignature) {
+        loadHandler();
+        context.addCheckcast(TYPED_PROXY_HANDLER_TYPE);
+        context.addAload(0);
+        context.addIconst(methodIndex);
+        loadMethod(methodIndex);
+        int paramIndex = 0;
+        for (int i = 0 ; i < params.length ; i++) {
+            paramIndex++;
+            loadParameter(context, params[i], paramIndex);
+            paramIndex = offsetParam(params[i], paramIndex);
+        }
+        context.addInvokeVirtual(TYPED_PROXY_HANDLER_TYPE, getTypedMethodName(returnType), typedSignature);
         
-        addReturn(method);
-        //Add an extra local variable each for 'this' and for the Object[] passed to PH.invokeMethod()
-        context.endMethod(2 + paramIndex);
+        if (filters.isFinalCallInHandler(methodIndex)) {
+            if (!returnType.isPrimitive() && returnType != OBJECT_TYPE)
+                context.addCheckcast(returnType.getInternalName());
+        } else if (returnType.getSize() == 2) {
+            context.addPop2();
+        } else if (returnType.getPrimitive() != BytecodePrimitive.VOID) {
+            context.addPop();
+        }
+        return paramIndex;
+    }
+    
+    /**
+     * Get the signature of the TypedProxyHandler method to call for a method
+     * 
+     * @return the signature or null if the method's signature is not one of the ones handled by TypedProxyHandler
+     */
+    private static String getTypedSignature(MethodInformation methodInformation) {
+        TypeDescriptor[] params = methodInformation.getParameterTypes();
+        if (params.length > 2)
+            return null;
+        StringBuilder sb = new StringBuilder("(Ljava/lang/Object;I").append(PROXY_METHOD_SIGNATURE);
+        for (TypeDescriptor param : params) {
+            String type = getTypedType(param);
+            if (type == null)
+                return null;
+            sb.append(type);
+        }
+        sb.append(')');
+        TypeDescriptor returnType = methodInformation.getReturnType();
+        if (returnType.getPrimitive() == BytecodePrimitive.VOID) {
+            sb.append('V');
+        } else {
+            String type = getTypedType(returnType);
+            if (type == null)
+                return null;
+            sb.append(type);
+        }
+        return sb.toString();
+    }
+    
+    private static String getTypedType(TypeDescriptor type) {
+        BytecodePrimitive primitive = type.getPrimitive();
+        if (primitive == null)
+            return "Ljava/lang/Object;";
+        if (primitive == BytecodePrimitive.INT || primitive == BytecodePrimitive.LONG || primitive == BytecodePrimitive.DOUBLE)
+            return type.getDescriptor();
+        return null;
+    }
+    
+    private static String getTypedMethodName(TypeDescriptor returnType) {
+        BytecodePrimitive primitive = returnType.getPrimitive();
+        if (primitive == BytecodePrimitive.VOID)
+            return "invokeVoid";
+        if (primitive == BytecodePrimitive.INT)
+            return "invokeInt";
+        if (primitive == BytecodePrimitive.LONG)
+            return "invokeLong";
+        if (primitive == BytecodePrimitive.DOUBLE)
+            return "invokeDouble";
+        return "invokeObject";
     }
 
-    private void boxValue(Class<?> type) {
-        Boxing boxing = Boxing.getUnboxer(type);
+    static void boxValue(ClassFileWriterContext<?> context, TypeDescriptor type) {
+        Boxing boxing = Boxing.getBoxing(type.getPrimitive());
         if (boxing == null)
             return;
         context.addInvokeStatic(boxing.getClassName(), boxing.getBoxMethodName(), boxing.getBoxMethodDescriptor());
     }
     
-    private void castAndUnboxValue(Class<?> type) {
-        if (type.equals(Object.class) || type.equals(Void.TYPE))
+    static void castAndUnboxValue(ClassFileWriterContext<?> context, TypeDescriptor type) {
+        if (type == OBJECT_TYPE || type.getPrimitive() == BytecodePrimitive.VOID)
             return;
 
-         context.addCheckcast(ClassFileWriterContext.jvmClassName(getBoxedType(type)));
-         Boxing unboxer = Boxing.getUnboxer(type);
-         if (unboxer != null)
-         {
-            context.addInvokeVirtual(unboxer.getClassName(), unboxer.getUnboxMethodName(), unboxer.getUnboxMethodDescriptor());
+         Boxing unboxer = Boxing.getBoxing(type.getPrimitive());
+         if (unboxer == null) {
+             context.addCheckcast(type.getInternalName());
+         } else {
+             context.addCheckcast(unboxer.getClassName());
+             context.addInvokeVirtual(unboxer.getClassName(), unboxer.getUnboxMethodName(), unboxer.getUnboxMethodDescriptor());
          }
     }
     
-
-    /**
-     * Get the boxed type
-     * 
-     * @param type the type to box
-     * @return the boxed type name
-     */
-    String getBoxedType(Class<?> type)
-    {
-       Boxing boxing = Boxing.getUnboxer(type);
-       if (boxing != null)
-       {
-          return boxing.getClassName();
-       }
-       return type.getName();
-    }
-
-    
-    private void addReturn(Method method) {
-        Class<?> rtn = method.getReturnType();
-        if (rtn.isPrimitive()) {
-            if (rtn == Void.TYPE) {
-                context.addReturn();
-            } else if (rtn == Double.TYPE) {
-                context.addDReturn();
-            } else if (rtn == Float.TYPE) {
-                context.addFReturn();
-            } else if (rtn == Long.TYPE) {
-                context.addLReturn();
-            } else if (rtn == Boolean.TYPE || rtn == Byte.TYPE || rtn == Character.TYPE || rtn == Integer.TYPE || rtn == Short.TYPE) {
-                context.addIReturn();
-            } else {
-                //Shouldn't happen
-                throw new IllegalArgumentException("Unknown primitive " + rtn);
-            }
-        }
-        else {
+    private void addReturn(MethodInformation methodInformation) {
+        addReturn(context, methodInformation.getReturnType());
+    }
+    
+    static void addReturn(ClassFileWriterContext<?> context, TypeDescriptor rtn) {
+        BytecodePrimitive primitive = rtn.getPrimitive();
+        if (primitive == null) {
             context.addAReturn();
+        } else if (primitive == BytecodePrimitive.VOID) {
+            context.addReturn();
+        } else if (primitive == BytecodePrimitive.DOUBLE) {
+            context.addDReturn();
+        } else if (primitive == BytecodePrimitive.FLOAT) {
+            context.addFReturn();
+        } else if (primitive == BytecodePrimitive.LONG) {
+            context.addLReturn();
+        } else {
+            //boolean, byte, char, int and short
+            context.addIReturn();
         }
-        
     }
     
     /**
      * Long and double take an extra parameter slot
      */
-    private int offsetParam(Class<?> type, int index) {
-        if (type == Double.TYPE || type == Long.TYPE)
-            index++;
-        return index;
+    static int offsetParam(TypeDescriptor type, int index) {
+        return index + type.getSize() - 1;
     }
     
-    private void loadParameter(Class<?> type, int index) {
+    static void loadParameter(ClassFileWriterContext<?> context, TypeDescriptor type, int index) {
         //xLOAD uses 1 based indexing
-        if (!type.isPrimitive()) {
+        BytecodePrimitive primitive = type.getPrimitive();
+        if (primitive == null) {
             context.addAload(index);
-        }else {
-            if (type == Double.TYPE) {
-                context.addDload(index);
-            } else if (type == Float.TYPE) {
-                context.addFload(index);
-            } else if (type == Long.TYPE) {
-                context.addLload(index);
-            } else if (type == Boolean.TYPE || type == Byte.TYPE || type == Character.TYPE || type == Integer.TYPE || type == Short.TYPE) {
-                context.addIload(index);
-            } else {
-                //Shouldn't happen
-                throw new IllegalArgumentException("Unknown primitive " + type);
-            }
+        } else if (primitive == BytecodePrimitive.DOUBLE) {
+            context.addDload(index);
+        } else if (primitive == BytecodePrimitive.FLOAT) {
+            context.addFload(index);
+        } else if (primitive == BytecodePrimitive.LONG) {
+            context.addLload(index);
+        } else if (primitive != BytecodePrimitive.VOID) {
+            //boolean, byte, char, int and short
+            context.addIload(index);
+        } else {
+            //Shouldn't happen
+            throw new IllegalArgumentException("Cannot load a parameter of type " + type);
         }
     }
     
@@ -348,59 +1574,83 @@ public final class ProxyFactory<T> {
         }
     }
 
-    private static String getProxyClassName(Class<?> clazz, byte[] methodFilter, byte[] finalCallInWrapperFilter) {
-    	StringBuilder sb = new StringBuilder(clazz.getName());
-    	sb.append("$$");
-    	ClassNameByteCompressor.appendIdentifier(sb, methodFilter);
-    	sb.append("$");
-    	ClassNameByteCompressor.appendIdentifier(sb, finalCallInWrapperFilter);
-
-    	return sb.toString();
+    private static String getProxyClassName(Class<?> clazz, ProxyFilters filters) {
+    	return clazz.getName() + "$$" + filters.getDigest();
     }
     
-    private static byte[] filterFinalCallInHandlerMethods(MethodInformation[] methods, ProxyHandler<?> handler) {
-    	byte[] handledMethods = new byte[methods.length];
-    	for (int i = 0 ; i < handledMethods.length ; i++) {
-    		handledMethods[i] = handler.finalCallInHandler(methods[i].getMethod())  ? (byte)1 : (byte)0;
-    	}
-    	return handledMethods;
+    static boolean overridesFilters(Class<?> handlerClass) {
+        for (Class<?> current = handlerClass ; current != ProxyHandler.class ; current = current.getSuperclass()) {
+            if (declaresMethod(current, "isHandled") || declaresMethod(current, "finalCallInHandler") || declaresMethod(current, "canBeDisabled"))
+                return true;
+        }
+        return false;
     }
     
+    private static boolean declaresMethod(Class<?> clazz, String name) {
+        try {
+            SecurityActions.getDeclaredMethod(clazz, name, Method.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
     
-    private static byte[] filterHandledMethods(MethodInformation[] methods, ProxyHandler<?> handler) {
-    	byte[] handledMethods = new byte[methods.length];
-    	for (int i = 0 ; i < handledMethods.length ; i++) {
-    		handledMethods[i] = handler.isHandled(methods[i].getMethod()) ? (byte)1 : (byte)0;
-    	}
-    	return handledMethods;
-    }
-
-    private static class ClassNameByteCompressor{
-        private static void appendIdentifier(StringBuilder sb, byte[] bits) {
-        	if (bits.length == 0) {
-        		sb.append("X");
-        		return;
-        	}
-        	
-        	int count = 0;
-        	byte last = bits[0];
-        	for (int i = 0 ; i < bits.length ; i++) {
-        		if (bits[i] == last)
-        			count++;
-        		else {
-        			appendCountAndBit(sb, count, last);
-        			count = 1;
-        			last = bits[i];
-        		}
-        	}
-        	appendCountAndBit(sb, count, last);
-        }
-        
-        private static void appendCountAndBit(StringBuilder sb, int count, byte b) {
-        	if (count > 1) {
-        		sb.append(Integer.toHexString(count));
-        	}
-        	sb.append(b == 0 ? 'Y' : 'Z');
+    /**
+     * Key for the proxies being generated. It has hard references, but only lives while generating the proxy.
+     */
+    private static final class ProxyKey {
+        private final Class<?> clazz;
+        private final ProxyFilters filters;
+        
+        ProxyKey(Class<?> clazz, ProxyFilters filters) {
+            this.clazz = clazz;
+            this.filters = filters;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            if (!(obj instanceof ProxyKey))
+                return false;
+            ProxyKey other = (ProxyKey)obj;
+            return clazz == other.clazz && filters.equals(other.filters);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(clazz) + filters.hashCode();
+        }
+    }
+
+    /**
+     * The proxy classes of a target class, and the names they use
+     */
+    private static final class ClassProxies {
+        final ConcurrentMap<ProxyFilters, WeakReference<ProxyShape<?>>> shapes = new ConcurrentHashMap<ProxyFilters, WeakReference<ProxyShape<?>>>();
+        
+        volatile WeakReference<TargetInvoker> targetInvoker;
+        
+        /** The interceptor chain prototypes for interceptor classes annotated with {@link StableFilters} */
+        final ConcurrentMap<InterceptorChainFactory.InterceptorsKey, WeakReference<InterceptorChain>> interceptorChains = 
+            new ConcurrentHashMap<InterceptorChainFactory.InterceptorsKey, WeakReference<InterceptorChain>>();
+        
+        /** The names are never reused for other filters, even once the proxy class has gone */
+        private final ConcurrentMap<String, ProxyFilters> names = new ConcurrentHashMap<String, ProxyFilters>();
+        
+        /**
+         * Reserve the name for the filters
+         * 
+         * @return true if the name is free or already belongs to the filters, false if other filters have it
+         */
+        boolean claimName(String proxyName, ProxyFilters filters) {
+            ProxyFilters existing = names.putIfAbsent(proxyName, filters);
+            return existing == null || existing.equals(filters);
+        }
+        
+        TargetInvoker getTargetInvoker() {
+            WeakReference<TargetInvoker> ref = targetInvoker;
+            return ref == null ? null : ref.get();
         }
     }
 }
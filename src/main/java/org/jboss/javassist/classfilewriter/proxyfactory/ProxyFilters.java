@@ -0,0 +1,252 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.MethodInformationCache.MethodInformation;
+
+/**
+ * The handled, final call in handler and can be disabled filters of a proxy class, packed into bitsets with one bit 
+ * per method, whether the proxy class calls the typed methods of {@link TypedProxyHandler} or passes 
+ * {@link Invocation}s to an {@link InvocationProxyHandler}, and whether it delegates to the instance handled. The hash 
+ * is worked out up front, since these are used as the keys for the proxy class cache. The methods are kept for the 
+ * digest, but are not part of the key since all the filters of a target class share them.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+final class ProxyFilters {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    /** The number of bytes of the digest used in the proxy name */
+    private static final int DIGEST_LENGTH = 8;
+    
+    private final MethodInformation[] methods;
+    private final int size;
+    private final boolean typed;
+    private final boolean invocations;
+    private final boolean delegating;
+    private final long[] handled;
+    private final long[] finalCallInHandler;
+    private final long[] canBeDisabled;
+    private final int hash;
+    
+    private ProxyFilters(MethodInformation[] methods, boolean typed, boolean invocations, boolean delegating, long[] handled, long[] finalCallInHandler, long[] canBeDisabled) {
+        this.methods = methods;
+        this.size = methods.length;
+        this.typed = typed;
+        this.invocations = invocations;
+        this.delegating = delegating;
+        this.handled = handled;
+        this.finalCallInHandler = finalCallInHandler;
+        this.canBeDisabled = canBeDisabled;
+        this.hash = 31 * (31 * (31 * (31 * (typed ? -size : size) + (invocations ? 1 : 0) + (delegating ? 2 : 0)) + Arrays.hashCode(handled)) + 
+                Arrays.hashCode(finalCallInHandler)) + Arrays.hashCode(canBeDisabled);
+    }
+    
+    /**
+     * Evaluate the filters for the methods
+     * 
+     * @param methods the sorted proxyable methods
+     * @param handlerClass the class of the handler, or null if there is none
+     * @param handler the handler to evaluate the filters, or null to handle all methods and call the super method for all of them.
+     * It is only used if it overrides the filters, so that the methods do not need resolving otherwise
+     * @return the filters
+     */
+    static ProxyFilters create(MethodInformation[] methods, Class<?> handlerClass, ProxyHandler<?> handler) {
+        if (handler != null && !ProxyFactory.overridesFilters(handlerClass))
+            handler = null;
+        boolean typed = handlerClass != null && TypedProxyHandler.class.isAssignableFrom(handlerClass);
+        boolean invocations = handlerClass != null && InvocationProxyHandler.class.isAssignableFrom(handlerClass);
+        long[] handled = new long[words(methods.length)];
+        long[] finalCallInHandler = new long[handled.length];
+        long[] canBeDisabled = new long[handled.length];
+        for (int i = 0 ; i < methods.length ; i++) {
+            if (handler == null) {
+                handled[i >>> 6] |= 1L << i;
+            } else {
+                Method m = methods[i].getMethod();
+                if (handler.isHandled(m)) {
+                    handled[i >>> 6] |= 1L << i;
+                    if (handler.canBeDisabled(m))
+                        canBeDisabled[i >>> 6] |= 1L << i;
+                }
+                if (handler.finalCallInHandler(m))
+                    finalCallInHandler[i >>> 6] |= 1L << i;
+            }
+        }
+        return new ProxyFilters(methods, typed, invocations, false, handled, finalCallInHandler, canBeDisabled);
+    }
+    
+    /**
+     * Get the filters of a proxy calling interceptors, which delegates to the target and handles the methods 
+     * any interceptor applies to. The interceptor chain makes the final call for all of them.
+     * 
+     * @param methods the sorted proxyable methods
+     * @param applying the indexes of the interceptors applying to each method
+     * @return the filters
+     */
+    static ProxyFilters createIntercepted(MethodInformation[] methods, int[][] applying) {
+        long[] handled = new long[words(methods.length)];
+        long[] finalCallInHandler = new long[handled.length];
+        for (int i = 0 ; i < methods.length ; i++) {
+            if (applying[i].length > 0)
+                handled[i >>> 6] |= 1L << i;
+            finalCallInHandler[i >>> 6] |= 1L << i;
+        }
+        return new ProxyFilters(methods, false, false, true, handled, finalCallInHandler, new long[handled.length]);
+    }
+    
+    /**
+     * Get the same filters for a proxy delegating to the instance handled
+     */
+    ProxyFilters toDelegating() {
+        return new ProxyFilters(methods, typed, invocations, true, handled, finalCallInHandler, canBeDisabled);
+    }
+    
+    private static int words(int size) {
+        return (size + 63) >>> 6;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    boolean isTyped() {
+        return typed;
+    }
+    
+    boolean usesInvocations() {
+        return invocations;
+    }
+    
+    boolean isDelegating() {
+        return delegating;
+    }
+    
+    boolean isHandled(int index) {
+        return (handled[index >>> 6] & (1L << index)) != 0;
+    }
+    
+    boolean isFinalCallInHandler(int index) {
+        return (finalCallInHandler[index >>> 6] & (1L << index)) != 0;
+    }
+    
+    boolean canBeDisabled(int index) {
+        return (canBeDisabled[index >>> 6] & (1L << index)) != 0;
+    }
+    
+    /**
+     * Get a fixed length identifier for these filters and the methods they apply to, to use in the proxy class name. 
+     * Including the methods means that a proxy class generated at build time is not picked up once the methods 
+     * of the target class hierarchy have changed. Different filters can in theory get the same identifier, so the 
+     * caller needs to check for that.
+     */
+    String getDigest() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(toBytes(size));
+        digest.update(typed ? (byte)1 : (byte)0);
+        //Only added when set, to keep the names of the other proxy classes unchanged
+        if (invocations)
+            digest.update((byte)1);
+        if (delegating)
+            digest.update((byte)2);
+        for (long word : handled)
+            digest.update(toBytes(word));
+        for (long word : finalCallInHandler)
+            digest.update(toBytes(word));
+        if (!isEmpty(canBeDisabled)) {
+            for (long word : canBeDisabled)
+                digest.update(toBytes(word));
+        }
+        //Everything about the methods which the generated code depends on
+        for (MethodInformation method : methods) {
+            update(digest, method.getDeclaringClass().getName());
+            update(digest, method.getName());
+            update(digest, method.getFullSignature());
+            digest.update(toBytes(method.getModifiers()));
+            for (String exception : method.getExceptions())
+                update(digest, exception);
+        }
+        byte[] bytes = digest.digest();
+        
+        char[] chars = new char[DIGEST_LENGTH * 2];
+        for (int i = 0 ; i < DIGEST_LENGTH ; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+    
+    /**
+     * Add the string followed by a separator, so that consecutive strings cannot run into each other
+     */
+    private static void update(MessageDigest digest, String s) {
+        digest.update(s.getBytes(UTF8));
+        digest.update((byte)0);
+    }
+    
+    private static boolean isEmpty(long[] words) {
+        for (long word : words) {
+            if (word != 0)
+                return false;
+        }
+        return true;
+    }
+    
+    private static byte[] toBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 7 ; i >= 0 ; i--) {
+            bytes[i] = (byte)value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof ProxyFilters))
+            return false;
+        ProxyFilters other = (ProxyFilters)obj;
+        return hash == other.hash && size == other.size && typed == other.typed && invocations == other.invocations && delegating == other.delegating && 
+            Arrays.equals(handled, other.handled) && Arrays.equals(finalCallInHandler, other.finalCallInHandler) && Arrays.equals(canBeDisabled, other.canBeDisabled);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
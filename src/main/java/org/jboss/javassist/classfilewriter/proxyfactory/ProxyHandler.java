@@ -22,8 +22,7 @@
 package org.jboss.javassist.classfilewriter.proxyfactory;
 
 import java.lang.reflect.Method;
-
-import org.jboss.javassist.classfilewriter.proxyfactory.MethodInformationCache.MethodInformation;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Provide a subclass of this to handle proxy calls.
@@ -33,10 +32,17 @@ import org.jboss.javassist.classfilewriter.proxyfactory.MethodInformationCache.M
  */
 public abstract class ProxyHandler<T> {
 
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ProxyHandler, ProxyShape> SHAPE_UPDATER = 
+        AtomicReferenceFieldUpdater.newUpdater(ProxyHandler.class, ProxyShape.class, "shape");
+    
     private final T instance;
     
-    /** The sorted array of methods */
-    private volatile Method[] methods;
+    /** 
+     * The shape of the first proxy created for this handler. It is only written once, and only what is the 
+     * same for all proxy classes of the target class (the method table and target invoker) is used from it 
+     */
+    private volatile ProxyShape<?> shape;
     
     /**
      * Constructor
@@ -50,25 +56,46 @@ public abstract class ProxyHandler<T> {
         this.instance = instance;
     }
     
-    void setMethods(MethodInformation[] methods) {
-    	this.methods = new Method[methods.length];
-    	for (int i = 0 ; i < methods.length ; i++)
-    		this.methods[i] = methods[i].getMethod();
+    /**
+     * Binds the handler to the shape of the first proxy created for it. Creating further proxies for the 
+     * handler only reads the field.
+     * 
+     * @param shape the shape of the proxy being created
+     * @throws IllegalArgumentException if the handler is already used by proxies of another target class
+     */
+    void bind(ProxyShape<?> shape) {
+        ProxyShape<?> current = this.shape;
+        if (current == null) {
+            if (SHAPE_UPDATER.compareAndSet(this, null, shape))
+                return;
+            current = this.shape;
+        }
+        if (current.getTargetClass() != shape.getTargetClass())
+            throw new IllegalArgumentException("Handler is already used by a proxy for " + current.getTargetClass().getName());
+    }
+    
+    ProxyShape<?> getShape() {
+        ProxyShape<?> shape = this.shape;
+        if (shape == null)
+            throw new IllegalStateException("Handler is not used by a proxy");
+        return shape;
     }
     
     /**
-     * Get the instance handled
+     * Get the instance handled. This is public so that delegating proxies can pick it up.
      * 
      * @return the instance
      */
-    protected final T getInstance() {
+    public final T getInstance() {
         return instance;
     }
     
     /**
      * Override to indicate that the method is handled by this handler, so that invokeMethod gets called.
      * Default is that this handler will handle the method. This will only get called when generating the 
-     * proxy, i.e. changing it at runtime has no effect.
+     * proxy, i.e. changing it at runtime has no effect. If the result only depends on the method, 
+     * annotate the handler class with {@link StableFilters} to avoid evaluating it for each proxy. See 
+     * {@link #canBeDisabled(Method)} for stopping calling the handler for a handled method at runtime.
      * 
      * @param m the method we are checking
      * @return true if we are handling this method
@@ -90,15 +117,110 @@ public abstract class ProxyHandler<T> {
         return false;
     }
     
+    /**
+     * Override to allow turning off calling the handler for a handled method at runtime, either for all proxies of 
+     * the proxy class with {@link ProxyFactory#setHandlerEnabled(Class, Method, boolean)} or for a single proxy with 
+     * {@link ProxyFactory#setHandlerEnabled(Object, Method, boolean)}. The proxy method then reads a volatile field
+     * of the proxy and one of its class on each call, so only return true for the methods which need it. Default is that the 
+     * handler cannot be turned off. This will only get called when generating the proxy, like {@link #isHandled(Method)}.
+     * 
+     * @param m the handled method we are checking
+     * @return true if calling the handler can be turned off for the method
+     */
+    protected boolean canBeDisabled(Method m) {
+        return false;
+    }
     
-    public final Object invokeMethod(int index, Object[] args) throws Throwable{
-        Method method = methods[index];
-        if (method == null)
-            throw new IllegalArgumentException("No method in " + instance.getClass().getName() + " with index " + index);
-
+    /**
+     * Called by the proxy methods, which pass in themselves and the index of the method in the method table 
+     * along with the method. Override this rather than {@link #invokeMethod(Object, Method, Object[])} to get the 
+     * proxy, e.g. for {@link #invokeSuper(Object, int, Object[])} when the handler is shared by several proxies, or to 
+     * use {@link #proceed(int, Object[])} without looking up the index. By default this calls 
+     * {@link #invokeMethod(Object, Method, Object[])}.
+     * 
+     * @param proxy the proxy being called, or null if called through {@link #invokeMethod(int, Object[])}
+     * @param index the index of the method
+     * @param method the method being called
+     * @param args the arguments of the call
+     * @return the value of calling the method
+     */
+    public Object invokeMethod(T proxy, int index, Method method, Object[] args) throws Throwable{
         return invokeMethod(instance, method, args);
     }
     
+    /**
+     * Call a method by its index in the method table, without a proxy. The generated proxies use 
+     * {@link #invokeMethod(Object, int, Method, Object[])} instead.
+     * 
+     * @param index the index of the method
+     * @param args the arguments of the call
+     * @return the value of calling the method
+     * @throws IllegalArgumentException if there is no method with the index
+     */
+    public final Object invokeMethod(int index, Object[] args) throws Throwable{
+        return invokeMethod(null, index, getShape().getMethod(index), args);
+    }
+    
+    /**
+     * Call the method on the instance handled. This calls the method directly from generated code, so it
+     * avoids the access checks and the wrapping of exceptions of {@link Method#invoke(Object, Object...)}.
+     * 
+     * @param m the method passed in to {@link #invokeMethod(Object, Method, Object[])}
+     * @param args the arguments of the call
+     * @return the value returned by the method, boxed if it is a primitive
+     * @throws IllegalArgumentException if the method is not proxied by the proxy using this handler
+     * @throws Throwable the exception thrown by the method
+     */
+    protected final Object proceed(Method m, Object[] args) throws Throwable {
+        ProxyShape<?> shape = getShape();
+        return shape.getTargetInvoker().invoke(shape.getMethodIndex(m), instance, args);
+    }
+    
+    /**
+     * Call the method with the given index in the method table on the instance handled
+     * 
+     * @param index the index of the method
+     * @param args the arguments of the call
+     * @return the value returned by the method, boxed if it is a primitive
+     * @throws IllegalArgumentException if there is no method with the index
+     * @throws Throwable the exception thrown by the method
+     * @see #proceed(Method, Object[])
+     */
+    protected final Object proceed(int index, Object[] args) throws Throwable {
+        return getShape().getTargetInvoker().invoke(index, instance, args);
+    }
+    
+    /**
+     * Call the superclass implementation of the method on the proxy, rather than calling the instance handled. This 
+     * is called directly from generated code, like {@link #proceed(Method, Object[])}.
+     * 
+     * @param proxy the proxy passed in to {@link #invokeMethod(Object, int, Method, Object[])}
+     * @param m the method passed in to {@link #invokeMethod(Object, int, Method, Object[])}
+     * @param args the arguments of the call
+     * @return the value returned by the method, boxed if it is a primitive
+     * @throws IllegalArgumentException if <code>proxy</code> is not a proxy, or the method is not proxied by it
+     * @throws Throwable the exception thrown by the method
+     */
+    protected final Object invokeSuper(T proxy, Method m, Object[] args) throws Throwable {
+        ProxyShape<?> shape = ProxyFactory.getProxyShape(proxy);
+        return shape.getSuperInvoker().invoke(shape.getMethodIndex(m), proxy, args);
+    }
+    
+    /**
+     * Call the superclass implementation of the method with the given index in the method table on the proxy
+     * 
+     * @param proxy the proxy passed in to {@link #invokeMethod(Object, int, Method, Object[])}
+     * @param index the index of the method
+     * @param args the arguments of the call
+     * @return the value returned by the method, boxed if it is a primitive
+     * @throws IllegalArgumentException if <code>proxy</code> is not a proxy, or there is no method with the index
+     * @throws Throwable the exception thrown by the method
+     * @see #invokeSuper(Object, Method, Object[])
+     */
+    protected final Object invokeSuper(T proxy, int index, Object[] args) throws Throwable {
+        return ProxyFactory.getProxyShape(proxy).getSuperInvoker().invoke(index, proxy, args);
+    }
+    
     /**
      * Override to handle the method calls
      * 
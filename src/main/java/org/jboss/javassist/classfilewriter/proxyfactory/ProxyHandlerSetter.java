@@ -23,9 +23,12 @@ package org.jboss.javassist.classfilewriter.proxyfactory;
 
 /**
  * 
+ * @deprecated generated proxies no longer implement this, the handler is passed in to 
+ * the proxy constructor by the {@link ProxyInstantiator} and stored in a final field
  * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
  * @version $Revision: 1.1 $
  */
+@Deprecated
 public interface ProxyHandlerSetter {
     @SuppressWarnings("unchecked")
     void setProxyHandler(ProxyHandler handler);
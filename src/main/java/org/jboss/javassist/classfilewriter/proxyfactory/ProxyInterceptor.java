@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.reflect.Method;
+
+/**
+ * Intercepts calls to a proxy created with {@link ProxyFactory#createProxy(Class, Object, java.util.List)}. 
+ * The interceptors are compiled into a chain where each interceptor calls the next one directly rather than 
+ * through a list of interceptors. The arguments are passed along the chain in an <code>Object[]</code> with 
+ * the primitives boxed, and the target's return value comes back boxed.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public interface ProxyInterceptor {
+    
+    /**
+     * Whether this interceptor applies to a method. This is only called when creating the proxy, and 
+     * methods which no interceptors apply to are not proxied. If the result only depends on the method, 
+     * annotate the interceptor class with {@link StableFilters} so that it is only called for the first proxy
+     * of each class.
+     * 
+     * @param m the method
+     * @return true if this interceptor should be called for the method
+     */
+    boolean appliesTo(Method m);
+    
+    /**
+     * Intercept a call. Call <code>chain.proceed(next, args)</code> to call the next interceptor, or 
+     * the target once the last interceptor has been called.
+     * 
+     * @param m the method being called
+     * @param args the arguments of the call
+     * @param chain the chain
+     * @param next identifies the next step of the chain to pass to {@link InterceptorChain#proceed(int, Object[])}
+     * @return the value of calling the method
+     * @throws Throwable any exception
+     */
+    Object intercept(Method m, Object[] args, InterceptorChain chain, int next) throws Throwable;
+}
@@ -0,0 +1,279 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.MethodInformationCache.MethodInformation;
+
+/**
+ * Everything resolved when creating a proxy class, i.e. the sorted methods, the 
+ * filters, the proxy name, the proxy class itself and its instantiator. There is one of these per proxy class,
+ * and it is kept alive by a static field in the proxy class so that the caches can 
+ * refer to it weakly without causing classloader leaks.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+final class ProxyShape<T> {
+    private final Class<T> clazz;
+    private final String proxyName;
+    private final MethodInformation[] methods;
+    /** The methods resolved so far, since resolving them loads their parameter types */
+    private final AtomicReferenceArray<Method> methodTable;
+    private volatile Method[] fullMethodTable;
+    private final ProxyFilters filters;
+    private final Class<? extends T> proxyClass;
+    private volatile ProxyInstantiator instantiator;
+    private volatile TargetInvoker targetInvoker;
+    private volatile TargetInvoker superInvoker;
+    private final ConcurrentMap<InterceptorChainFactory.Key, InterceptorChain> chains = new ConcurrentHashMap<InterceptorChainFactory.Key, InterceptorChain>();
+    private int chainCount;
+    private volatile Field[] disabledFields;
+    private volatile Field[] classDisabledFields;
+
+    ProxyShape(Class<T> clazz, String proxyName, MethodInformation[] methods, ProxyFilters filters, Class<? extends T> proxyClass) {
+        this.clazz = clazz;
+        this.proxyName = proxyName;
+        this.methods = methods;
+        this.methodTable = new AtomicReferenceArray<Method>(methods.length);
+        this.filters = filters;
+        this.proxyClass = proxyClass;
+    }
+
+    Class<T> getTargetClass() {
+        return clazz;
+    }
+
+    String getProxyName() {
+        return proxyName;
+    }
+
+    MethodInformation[] getMethods() {
+        return methods;
+    }
+
+    /**
+     * Get the method with the given index in the method table, resolving it the first time it is needed. The 
+     * same instance is returned to all handlers of this proxy class.
+     * 
+     * @throws IllegalArgumentException if there is no method with the index
+     */
+    Method getMethod(int index) {
+        if (index < 0 || index >= methods.length)
+            throw new IllegalArgumentException("No method in " + clazz.getName() + " with index " + index);
+        Method m = methodTable.get(index);
+        if (m == null) {
+            //Racing threads get the same instance, since the method information caches it 
+            m = methods[index].getMethod();
+            methodTable.set(index, m);
+        }
+        return m;
+    }
+    
+    /**
+     * Get all the methods, resolving the ones which have not been resolved yet. The table is only built once 
+     * and is shared by all callers, so it must not be modified.
+     * 
+     * @return the methods indexed by their position in the method table
+     */
+    Method[] getMethodTable() {
+        Method[] table = fullMethodTable;
+        if (table == null) {
+            //Racing threads build equal tables, so it does not matter which one wins
+            table = new Method[methods.length];
+            for (int i = 0 ; i < table.length ; i++)
+                table[i] = getMethod(i);
+            fullMethodTable = table;
+        }
+        return table;
+    }
+    
+    /**
+     * Get only the handled methods, so that the ones which are not handled do not get resolved
+     * 
+     * @return a new array with the handled methods indexed by their position in the method table, and null for the others
+     */
+    Method[] getHandledMethods() {
+        Method[] table = new Method[methods.length];
+        for (int i = 0 ; i < table.length ; i++) {
+            if (filters.isHandled(i))
+                table[i] = getMethod(i);
+        }
+        return table;
+    }
+
+    /**
+     * Get the index of a method from the method table. Only the method found by its name and parameters 
+     * gets resolved, to check that it really is the same.
+     * 
+     * @throws IllegalArgumentException if the method is not in the method table
+     */
+    int getMethodIndex(Method method) {
+        int index = MethodInformationCache.indexOf(methods, method.getName(), method.getParameterTypes());
+        if (index < 0 || !getMethod(index).equals(method))
+            throw new IllegalArgumentException(method + " is not a proxied method of " + clazz.getName());
+        return index;
+    }
+    
+    /**
+     * Get the invoker for the target class, which is created the first time it is needed
+     */
+    TargetInvoker getTargetInvoker() {
+        TargetInvoker invoker = targetInvoker;
+        if (invoker == null) {
+            invoker = ProxyFactory.getTargetInvoker(clazz, methods);
+            targetInvoker = invoker;
+        }
+        return invoker;
+    }
+
+    /**
+     * Get the invoker calling the superclass implementations of the methods on the proxies, which is created 
+     * the first time it is needed
+     */
+    TargetInvoker getSuperInvoker() {
+        TargetInvoker invoker = superInvoker;
+        if (invoker == null) {
+            //Only once per proxy class, so just lock
+            synchronized (this) {
+                invoker = superInvoker;
+                if (invoker == null) {
+                    invoker = new TargetInvokerFactory(this).createTargetInvoker();
+                    superInvoker = invoker;
+                }
+            }
+        }
+        return invoker;
+    }
+
+    /**
+     * Get the prototype of the interceptor chain class for the interceptors applying to each method, 
+     * creating the class the first time it is needed
+     * 
+     * @param applying the indexes of the interceptors applying to each method
+     */
+    InterceptorChain getInterceptorChain(int[][] applying) {
+        InterceptorChainFactory.Key key = new InterceptorChainFactory.Key(applying);
+        InterceptorChain chain = chains.get(key);
+        if (chain == null) {
+            synchronized (this) {
+                chain = chains.get(key);
+                if (chain == null) {
+                    //Use up the name even if creating the class fails, since it might have got defined
+                    chain = new InterceptorChainFactory(this, applying, chainCount++).createPrototype();
+                    chains.put(key, chain);
+                }
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * Called once the proxy class is defined with the fields turning off the handler for each method which can be disabled
+     * 
+     * @param disabledFields the instance fields, which are 1 when disabled, -1 when enabled and 0 to use the class field  
+     * @param classDisabledFields the static fields, which are 1 when disabled for all the proxies of the class which have not been 
+     * switched themselves
+     */
+    void setDisabledFields(Field[] disabledFields, Field[] classDisabledFields) {
+        this.disabledFields = disabledFields;
+        this.classDisabledFields = classDisabledFields;
+    }
+    
+    /**
+     * Switch the handler for a method of a proxy, overriding the setting of the class
+     */
+    void setHandlerEnabled(Object proxy, int index, boolean enabled) {
+        setDisabledState(getDisabledField(disabledFields, index), proxy, enabled ? -1 : 1);
+    }
+    
+    /**
+     * Make a proxy use the setting of the class for a method again
+     */
+    void resetHandlerEnabled(Object proxy, int index) {
+        setDisabledState(getDisabledField(disabledFields, index), proxy, 0);
+    }
+    
+    boolean isHandlerEnabled(Object proxy, int index) {
+        int state = getDisabledState(getDisabledField(disabledFields, index), proxy);
+        return state == 0 ? isHandlerEnabled(index) : state < 0;
+    }
+    
+    /**
+     * Switch the handler for a method of all the proxies of the class, apart from the ones which have been switched themselves
+     */
+    void setHandlerEnabled(int index, boolean enabled) {
+        setDisabledState(getDisabledField(classDisabledFields, index), null, enabled ? 0 : 1);
+    }
+    
+    boolean isHandlerEnabled(int index) {
+        return getDisabledState(getDisabledField(classDisabledFields, index), null) == 0;
+    }
+    
+    private static void setDisabledState(Field field, Object proxy, int state) {
+        try {
+            field.setInt(proxy, state);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private static int getDisabledState(Field field, Object proxy) {
+        try {
+            return field.getInt(proxy);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private Field getDisabledField(Field[] fields, int index) {
+        Field field = fields[index];
+        if (field == null)
+            throw new IllegalArgumentException(methods[index].getName() + methods[index].getFullSignature() + " is not handled by " + proxyName + " or cannot be disabled");
+        return field;
+    }
+
+    ProxyFilters getFilters() {
+        return filters;
+    }
+
+    Class<? extends T> getProxyClass() {
+        return proxyClass;
+    }
+
+    ProxyInstantiator getInstantiator() {
+        return instantiator;
+    }
+
+    /**
+     * Called once the instantiator class is defined, which only happens after the shape has been stored in the 
+     * proxy class, and before the shape is handed out
+     */
+    void setInstantiator(ProxyInstantiator instantiator) {
+        this.instantiator = instantiator;
+    }
+}
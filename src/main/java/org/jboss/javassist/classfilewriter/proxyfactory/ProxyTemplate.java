@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+/**
+ * A prepared proxy for a class and a handler class, obtained from 
+ * {@link ProxyFactory#prepare(Class, Class)} or {@link ProxyFactory#prepare(Class, ProxyHandler)}.
+ * All the checks, method lookups and filtering have been done already, and the proxy class has 
+ * been defined, so {@link #newProxy(ProxyHandler)} only needs to create the proxy instance.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public final class ProxyTemplate<T> {
+    
+    private final ProxyShape<T> shape;
+    
+    private final Class<?> handlerClass;
+    
+    ProxyTemplate(ProxyShape<T> shape, Class<?> handlerClass) {
+        this.shape = shape;
+        this.handlerClass = handlerClass;
+    }
+    
+    /**
+     * Get the class being proxied
+     * 
+     * @return the class
+     */
+    public Class<T> getTargetClass() {
+        return shape.getTargetClass();
+    }
+    
+    /**
+     * Get the generated proxy class
+     * 
+     * @return the proxy class
+     */
+    public Class<? extends T> getProxyClass() {
+        return shape.getProxyClass();
+    }
+    
+    /**
+     * Get the handler class this template was prepared for
+     * 
+     * @return the handler class
+     */
+    public Class<?> getHandlerClass() {
+        return handlerClass;
+    }
+    
+    /**
+     * Create a proxy instance. The filters of the handler are not consulted, the 
+     * ones resolved when preparing the template are used instead. 
+     * 
+     * @param handler a proxy handler for the instance we want to proxy
+     * @return the proxy
+     * @throws IllegalArgumentException if the handler is null or not of the class this template was prepared for
+     * @throws RuntimeException if there was an error
+     */
+    public T newProxy(ProxyHandler<T> handler) {
+        if (handler == null)
+            throw new IllegalArgumentException("Null handler");
+        if (handler.getClass() != handlerClass)
+            throw new IllegalArgumentException("Template was prepared for " + handlerClass.getName() + ", not " + handler.getClass().getName());
+        return ProxyFactory.instantiateProxy(shape, handler);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle for the proxy classes being generated by {@link ProxyFactory#warmUp(java.util.concurrent.Executor, java.util.Collection)}
+ * or {@link ProxyFactory#warmUp(java.util.concurrent.Executor, Map)}.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public final class ProxyWarmUp {
+    
+    private final CountDownLatch latch;
+    
+    private final ConcurrentMap<Class<?>, Long> timings = new ConcurrentHashMap<Class<?>, Long>();
+    
+    private final ConcurrentMap<Class<?>, Throwable> failures = new ConcurrentHashMap<Class<?>, Throwable>();
+    
+    ProxyWarmUp(int count) {
+        latch = new CountDownLatch(count);
+    }
+    
+    void completed(Class<?> clazz, long nanos) {
+        timings.put(clazz, Long.valueOf(nanos));
+        latch.countDown();
+    }
+    
+    void failed(Class<?> clazz, Throwable failure) {
+        failures.put(clazz, failure);
+        latch.countDown();
+    }
+    
+    /**
+     * Check whether all the proxy classes have been generated or failed
+     * 
+     * @return true if done
+     */
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+    
+    /**
+     * Wait for all the proxy classes to be generated or fail
+     * 
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        latch.await();
+    }
+    
+    /**
+     * Wait for all the proxy classes to be generated or fail
+     * 
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return true if done, false if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return latch.await(timeout, unit);
+    }
+    
+    /**
+     * Get the time taken to resolve the proxy of each class completed so far, including 
+     * looking up the methods, evaluating the filters and generating and defining the proxy class.
+     * 
+     * @return the times in nanoseconds, keyed by target class
+     */
+    public Map<Class<?>, Long> getTimings() {
+        return Collections.unmodifiableMap(new HashMap<Class<?>, Long>(timings));
+    }
+    
+    /**
+     * Get the failures so far
+     * 
+     * @return the failures, keyed by target class
+     */
+    public Map<Class<?>, Throwable> getFailures() {
+        return Collections.unmodifiableMap(new HashMap<Class<?>, Throwable>(failures));
+    }
+}
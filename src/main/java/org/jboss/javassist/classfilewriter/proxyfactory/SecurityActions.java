@@ -80,6 +80,19 @@ class SecurityActions {
         }
     }
     
+    static String getSystemProperty(final String name) {
+        if (System.getSecurityManager() == null)
+            return System.getProperty(name);
+        else {
+            return AccessController.doPrivileged(new PrivilegedAction<String>() {
+                @Override
+                public String run() {
+                    return System.getProperty(name);
+                }
+            });
+        }
+    }
+    
     static ProtectionDomain getProtectionDomain(final Class<?> clazz) {
         if (System.getSecurityManager() == null)
             return clazz.getProtectionDomain();
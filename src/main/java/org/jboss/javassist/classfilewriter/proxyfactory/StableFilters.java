@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Put this on a {@link ProxyHandler} subclass to promise that its 
+ * {@link ProxyHandler#isHandled(java.lang.reflect.Method)}, 
+ * {@link ProxyHandler#finalCallInHandler(java.lang.reflect.Method)} and 
+ * {@link ProxyHandler#canBeDisabled(java.lang.reflect.Method)} decisions only
+ * depend on the method, and never on the state of the handler instance. 
+ * The {@link ProxyFactory} then evaluates the filters once per target class and 
+ * handler class, and reuses the resolved proxy for all later handlers of that class.
+ * <p>
+ * It can also be put on a {@link ProxyInterceptor} class to promise the same for 
+ * {@link ProxyInterceptor#appliesTo(java.lang.reflect.Method)}. When all the interceptors of a proxy are of
+ * such classes, the compiled interceptor chain is reused for all later proxies of the target class with 
+ * interceptors of the same classes in the same order.
+ * <p>
+ * This is not inherited, since a subclass might override the filters. 
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface StableFilters {
+
+}
@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Superclass of the generated classes which call the methods of a target instance directly. There is
+ * one subclass per proxied class, shared by all its proxy classes. This needs to be public for the 
+ * generated subclasses, but is not meant to be used directly. Use {@link ProxyHandler#proceed(Method, Object[])} instead.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public abstract class TargetInvoker {
+    
+    /** The methods which the generated code cannot call, or null for the ones it can */
+    private Method[] reflectiveMethods;
+    
+    protected TargetInvoker() {
+    }
+    
+    void setReflectiveMethods(Method[] reflectiveMethods) {
+        this.reflectiveMethods = reflectiveMethods;
+    }
+    
+    /**
+     * Call a method on the target
+     * 
+     * @param index the index of the method in the method table
+     * @param target the instance to call the method on
+     * @param args the arguments
+     * @return the value returned by the method, boxed if it is a primitive
+     * @throws Throwable the exception thrown by the method
+     */
+    public abstract Object invoke(int index, Object target, Object[] args) throws Throwable;
+    
+    /**
+     * Called by the generated code for the methods it cannot call directly, e.g. protected methods
+     * inherited from a class in another package.
+     */
+    protected final Object invokeReflectively(int index, Object target, Object[] args) throws Throwable {
+        Method method = index >= 0 && index < reflectiveMethods.length ? reflectiveMethods[index] : null;
+        if (method == null)
+            throw new IllegalArgumentException("No method with index " + index + " for " + target.getClass().getName());
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
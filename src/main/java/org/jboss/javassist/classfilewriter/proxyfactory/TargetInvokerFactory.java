@@ -0,0 +1,232 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.MethodInformationCache.MethodInformation;
+
+/**
+ * Generates the {@link TargetInvoker} for a class, or the super invoker for a proxy class which calls the 
+ * <code>super$&lt;name&gt;$&lt;index&gt;</code> methods of the handled methods. The <code>invoke()</code> method is a 
+ * tableswitch on the method index, where each case calls an accessor method which unboxes the arguments and calls the 
+ * method with <code>invokevirtual</code>. Having each case the same size means that the offsets of the tableswitch are 
+ * known up front.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+class TargetInvokerFactory {
+    
+    static final String INVOKER_SUFFIX = "$$Invoker";
+    
+    static final String SUPER_INVOKER_SUFFIX = "$SuperInvoker";
+    
+    private static final String TARGET_INVOKER_TYPE = ClassFileWriterContext.jvmClassName(TargetInvoker.class);
+    
+    private static final String INVOKE_SIGNATURE = "(ILjava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+    
+    private static final String ACCESSOR_PREFIX = "invoke$";
+    
+    private static final String ACCESSOR_SIGNATURE = "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+    
+    /** The size of aload_0, aload_2, aload_3, invokevirtual, areturn */
+    private static final int CASE_LENGTH = 7;
+    
+    /** The tableswitch comes after iload_1 */
+    private static final int SWITCH_PC = 1;
+
+    /** The class whose methods get called */
+    private final Class<?> clazz;
+    private final MethodInformation[] methods;
+    private final String[] names;
+    private final boolean[] direct;
+    private final ClassFileWriterContext<TargetInvoker> context;
+    
+    /**
+     * Constructor for the invoker calling the methods of a target class
+     */
+    TargetInvokerFactory(Class<?> clazz, MethodInformation[] methods) {
+        this.clazz = clazz;
+        this.methods = methods;
+        names = new String[methods.length];
+        direct = new boolean[methods.length];
+        for (int i = 0 ; i < methods.length ; i++) {
+            names[i] = methods[i].getName();
+            direct[i] = isDirectlyCallable(clazz, methods[i]);
+        }
+        context = new ClassFileWriterContext<TargetInvoker>(clazz.getName() + INVOKER_SUFFIX, TargetInvoker.class.getName(), new String[0]);
+    }
+    
+    /**
+     * Constructor for the invoker calling the superclass implementations of the methods of a proxy class. The
+     * methods which are not handled are not overridden by the proxy, so they are called as they are.
+     */
+    TargetInvokerFactory(ProxyShape<?> shape) {
+        this.clazz = shape.getProxyClass();
+        this.methods = shape.getMethods();
+        names = new String[methods.length];
+        direct = new boolean[methods.length];
+        ProxyFilters filters = shape.getFilters();
+        for (int i = 0 ; i < methods.length ; i++) {
+            if (filters.isHandled(i)) {
+                names[i] = ProxyFactory.getSuperMethodName(methods[i].getName(), i);
+                direct[i] = true;
+            } else {
+                names[i] = methods[i].getName();
+                direct[i] = isDirectlyCallable(clazz, methods[i]);
+            }
+        }
+        context = new ClassFileWriterContext<TargetInvoker>(shape.getProxyName() + SUPER_INVOKER_SUFFIX, TargetInvoker.class.getName(), new String[0]);
+    }
+    
+    /**
+     * Generate and define the invoker
+     */
+    TargetInvoker createTargetInvoker() {
+        context.createDefaultConstructor();
+        createInvokeMethod();
+        for (int i = 0 ; i < methods.length ; i++) {
+            if (direct[i])
+                createAccessor(i, methods[i]);
+        }
+        
+        TargetInvoker invoker;
+        try {
+            invoker = context.toClass(ProxyFactory.getClassLoader(clazz), clazz.getProtectionDomain()).newInstance();
+        } catch (Exception e) {
+            throw new RuntimeException("Could not create invoker for " + clazz.getName(), e);
+        }
+        
+        Method[] reflectiveMethods = new Method[methods.length];
+        for (int i = 0 ; i < methods.length ; i++) {
+            if (!direct[i])
+                reflectiveMethods[i] = getAccessibleCopy(methods[i].getMethod());
+        }
+        invoker.setReflectiveMethods(reflectiveMethods);
+        return invoker;
+    }
+    
+    private void createInvokeMethod() {
+        context.beginMethod(Modifier.PUBLIC, "invoke", INVOKE_SIGNATURE, null);
+        if (methods.length > 0)
+            addSwitch();
+        
+        context.addAload(0);
+        context.addIload(1);
+        context.addAload(2);
+        context.addAload(3);
+        context.addInvokeVirtual(TARGET_INVOKER_TYPE, "invokeReflectively", INVOKE_SIGNATURE);
+        context.addAReturn();
+        context.endMethod(4);
+    }
+    
+    /**
+     * Add the switch on the index and the cases for the methods that can be called directly, the
+     * other methods go to the default case following this
+     */
+    private void addSwitch() {
+        context.addIload(1);
+        int switchLength = ClassFileWriterContext.getTableSwitchLength(SWITCH_PC, methods.length);
+        int[] offsets = new int[methods.length];
+        int offset = switchLength;
+        for (int i = 0 ; i < methods.length ; i++) {
+            if (direct[i]) {
+                offsets[i] = offset;
+                offset += CASE_LENGTH;
+            }
+        }
+        int defaultOffset = offset;
+        for (int i = 0 ; i < methods.length ; i++) {
+            if (!direct[i])
+                offsets[i] = defaultOffset;
+        }
+        context.addTableSwitch(SWITCH_PC, defaultOffset, offsets);
+        
+        for (int i = 0 ; i < methods.length ; i++) {
+            if (!direct[i])
+                continue;
+            context.addAload(0);
+            context.addAload(2);
+            context.addAload(3);
+            context.addInvokeVirtual(context.getName(), ACCESSOR_PREFIX + i, ACCESSOR_SIGNATURE);
+            context.addAReturn();
+        }
+    }
+    
+    /**
+     * Create the method which unboxes the arguments, calls the target method and boxes the result
+     */
+    private void createAccessor(int index, MethodInformation methodInformation) {
+        context.beginMethod(Modifier.PUBLIC, ACCESSOR_PREFIX + index, ACCESSOR_SIGNATURE, null);
+        String targetType = ClassFileWriterContext.jvmClassName(clazz);
+        context.addAload(1);
+        context.addCheckcast(targetType);
+        TypeDescriptor[] params = methodInformation.getParameterTypes();
+        for (int i = 0 ; i < params.length ; i++) {
+            context.addAload(2);
+            context.addIconst(i);
+            context.addAALoad();
+            ProxyFactory.castAndUnboxValue(context, params[i]);
+        }
+        context.addInvokeVirtual(targetType, names[index], methodInformation.getFullSignature());
+        TypeDescriptor returnType = methodInformation.getReturnType();
+        if (returnType.getPrimitive() == BytecodePrimitive.VOID)
+            context.addAConstNull();
+        else
+            ProxyFactory.boxValue(context, returnType);
+        context.addAReturn();
+        context.endMethod(3);
+    }
+    
+    /**
+     * The generated classes are in the same package as the target class, so they can call public methods, and 
+     * the others if they are declared by a class in the same package and classloader
+     */
+    static boolean isDirectlyCallable(Class<?> clazz, MethodInformation methodInformation) {
+        if (Modifier.isPublic(methodInformation.getModifiers()))
+            return true;
+        Class<?> declaring = methodInformation.getDeclaringClass();
+        return SecurityActions.getClassLoader(declaring) == SecurityActions.getClassLoader(clazz) && 
+            getPackageName(declaring).equals(getPackageName(clazz));
+    }
+    
+    private static String getPackageName(Class<?> clazz) {
+        String name = clazz.getName();
+        int index = name.lastIndexOf('.');
+        return index < 0 ? "" : name.substring(0, index);
+    }
+    
+    /**
+     * Look up the method again, so that making it accessible does not affect the method table passed to the handlers
+     */
+    private static Method getAccessibleCopy(Method method) {
+        try {
+            Method copy = SecurityActions.getDeclaredMethod(method.getDeclaringClass(), method.getName(), method.getParameterTypes());
+            SecurityActions.setAccessible(copy);
+            return copy;
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
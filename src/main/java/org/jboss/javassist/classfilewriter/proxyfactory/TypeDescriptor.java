@@ -0,0 +1,188 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+/**
+ * The JVM descriptor of a type, with everything needed when generating bytecode computed once. 
+ * It holds no reference to the class itself. The descriptors obtained from classes are canonical, 
+ * as are the ones for primitives and Object read from class files, but the other descriptors read 
+ * from class files must be compared with {@link #equals(Object)}.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+final class TypeDescriptor implements Comparable<TypeDescriptor> {
+    
+    /** The primitive descriptors indexed by the ordinal of their primitive */
+    private static final TypeDescriptor[] PRIMITIVES;
+    static {
+        PRIMITIVES = new TypeDescriptor[BytecodePrimitive.VALUES.length];
+        for (BytecodePrimitive primitive : BytecodePrimitive.VALUES) {
+            PRIMITIVES[primitive.ordinal()] = new TypeDescriptor(primitive.getArrayComponentName(), primitive.getName(), primitive); 
+        }
+    }
+    
+    private static final TypeDescriptor OBJECT = new TypeDescriptor("Ljava/lang/Object;", "java/lang/Object", null);
+    
+    private static final ConcurrentWeakIdentityMap<Class<?>, TypeDescriptor> CACHE = new ConcurrentWeakIdentityMap<Class<?>, TypeDescriptor>(); 
+
+    private final String descriptor;
+    
+    private final String internalName;
+    
+    private final BytecodePrimitive primitive;
+    
+    private final int hashCode;
+    
+    private TypeDescriptor(String descriptor, String internalName, BytecodePrimitive primitive) {
+        this.descriptor = descriptor;
+        this.internalName = internalName;
+        this.primitive = primitive;
+        this.hashCode = descriptor.hashCode();
+    }
+    
+    /**
+     * Get the canonical descriptor of a class
+     * 
+     * @param clazz the class
+     * @return the descriptor
+     */
+    static TypeDescriptor forClass(Class<?> clazz) {
+        BytecodePrimitive primitive = BytecodePrimitive.forClass(clazz);
+        if (primitive != null)
+            return PRIMITIVES[primitive.ordinal()];
+        
+        if (clazz == Object.class)
+            return OBJECT;
+        
+        TypeDescriptor type = CACHE.get(clazz);
+        if (type == null) {
+            String internalName = ClassFileWriterContext.jvmClassName(clazz);
+            type = new TypeDescriptor(clazz.isArray() ? internalName : "L" + internalName + ";", internalName, null);
+            TypeDescriptor existing = CACHE.putIfAbsent(clazz, type);
+            if (existing != null)
+                type = existing;
+        }
+        return type;
+    }
+    
+    /**
+     * Get the descriptor for a descriptor read from a class file
+     * 
+     * @param descriptor the descriptor, e.g. <code>I</code>, <code>Ljava/lang/String;</code> or <code>[J</code>
+     * @return the descriptor
+     */
+    static TypeDescriptor forDescriptor(String descriptor) {
+        if (descriptor.length() == 1) {
+            char c = descriptor.charAt(0);
+            for (BytecodePrimitive primitive : BytecodePrimitive.VALUES) {
+                if (primitive.getArrayComponentName().charAt(0) == c)
+                    return PRIMITIVES[primitive.ordinal()];
+            }
+            throw new IllegalArgumentException("Unknown primitive descriptor " + descriptor);
+        }
+        if (descriptor.equals(OBJECT.descriptor))
+            return OBJECT;
+        if (descriptor.charAt(0) == '[')
+            return new TypeDescriptor(descriptor, descriptor, null);
+        if (descriptor.charAt(0) == 'L' && descriptor.charAt(descriptor.length() - 1) == ';')
+            return new TypeDescriptor(descriptor, descriptor.substring(1, descriptor.length() - 1), null);
+        throw new IllegalArgumentException("Bad descriptor " + descriptor);
+    }
+    
+    /**
+     * Get the class this is the descriptor of
+     * 
+     * @param loader the classloader to load the class from, null for the bootstrap classloader 
+     * @return the class
+     * @throws ClassNotFoundException if the class could not be found
+     */
+    Class<?> resolve(ClassLoader loader) throws ClassNotFoundException {
+        if (primitive != null)
+            return primitive.getPrimitiveClass();
+        return Class.forName(internalName.replace('/', '.'), false, loader);
+    }
+    
+    /**
+     * Get the descriptor, e.g. <code>I</code>, <code>Ljava/lang/String;</code> or <code>[J</code>
+     */
+    String getDescriptor() {
+        return descriptor;
+    }
+    
+    /**
+     * Get the name to use in checkcast instructions, e.g. <code>java/lang/String</code> or <code>[J</code>.
+     * For primitives this is the java name of the type.
+     */
+    String getInternalName() {
+        return internalName;
+    }
+    
+    /**
+     * Get the primitive
+     * 
+     * @return the primitive, or null if this is a reference type
+     */
+    BytecodePrimitive getPrimitive() {
+        return primitive;
+    }
+    
+    boolean isPrimitive() {
+        return primitive != null;
+    }
+    
+    /**
+     * Long and double take two slots
+     */
+    int getSize() {
+        return primitive == BytecodePrimitive.LONG || primitive == BytecodePrimitive.DOUBLE ? 2 : 1;
+    }
+
+    /**
+     * Orders the same way as comparing the descriptor strings
+     */
+    public int compareTo(TypeDescriptor other) {
+        if (other == this)
+            return 0;
+        return descriptor.compareTo(other.descriptor);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj == null || obj.getClass() != TypeDescriptor.class)
+            return false;
+        TypeDescriptor other = (TypeDescriptor)obj;
+        return hashCode == other.hashCode && descriptor.equals(other.descriptor);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return descriptor;
+    }
+}
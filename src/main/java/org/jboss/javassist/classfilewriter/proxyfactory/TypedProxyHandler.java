@@ -0,0 +1,496 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory;
+
+import java.lang.reflect.Method;
+
+/**
+ * A {@link ProxyHandler} which gets called without the arguments being put in an array and without boxing
+ * for proxied methods taking up to two parameters, each of which is an <code>int</code>, <code>long</code>, 
+ * <code>double</code> or a reference, and returning <code>void</code>, <code>int</code>, <code>long</code>,
+ * <code>double</code> or a reference. The <code>invoke</code> method used is named after the return type,
+ * e.g. <code>int foo(long l, String s)</code> results in a call to {@link #invokeInt(Object, int, Method, long, Object)}.
+ * Methods with other signatures are passed straight to {@link ProxyHandler#invokeMethod(Object, int, Method, Object[])}. 
+ * Like that, the typed methods get the proxy and the index of the method in the method table.<p>
+ * 
+ * By default all the <code>invoke</code> methods box the arguments and call 
+ * {@link ProxyHandler#invokeMethod(Object, int, Method, Object[])}, so only the ones for the hot methods need overriding.
+ * If the final call is not in the handler, the value returned is ignored, and the defaults for the primitive
+ * return types return zero if {@link ProxyHandler#invokeMethod(Object, int, Method, Object[])} returns null.<p>
+ * 
+ * Since these methods are public and not final, the proxy calls the overriding methods from its own code, rather 
+ * than going through a call in {@link ProxyHandler} shared by all proxies. So the JIT only sees the handler classes
+ * used with that proxy class, and can inline them into the proxy.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public abstract class TypedProxyHandler<T> extends ProxyHandler<T> {
+
+    /**
+     * Constructor
+     * 
+     * @param instance the instance we want to proxy
+     * @throws IllegalArgumentException if <code>instance</code> is null
+     */
+    protected TypedProxyHandler(T instance) {
+        super(instance);
+    }
+
+    //Called for proxied methods returning void
+    public void invokeVoid(T proxy, int index, Method m) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, int a) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, long a) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, double a) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, Object a) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, int a, int b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, int a, long b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, int a, double b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, int a, Object b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, long a, int b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, long a, long b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, long a, double b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, long a, Object b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, double a, int b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, double a, long b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, double a, double b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, double a, Object b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, Object a, int b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, Object a, long b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, Object a, double b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public void invokeVoid(T proxy, int index, Method m, Object a, Object b) throws Throwable {
+        invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    //Called for proxied methods returning int
+    public int invokeInt(T proxy, int index, Method m) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, int a) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, long a) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, double a) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, Object a) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, int a, int b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, int a, long b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, int a, double b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, int a, Object b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, long a, int b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, long a, long b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, long a, double b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, long a, Object b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, double a, int b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, double a, long b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, double a, double b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, double a, Object b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, Object a, int b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, Object a, long b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, Object a, double b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public int invokeInt(T proxy, int index, Method m, Object a, Object b) throws Throwable {
+        return intValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    //Called for proxied methods returning long
+    public long invokeLong(T proxy, int index, Method m) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, int a) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, long a) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, double a) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, Object a) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, int a, int b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, int a, long b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, int a, double b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, int a, Object b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, long a, int b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, long a, long b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, long a, double b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, long a, Object b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, double a, int b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, double a, long b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, double a, double b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, double a, Object b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, Object a, int b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, Object a, long b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, Object a, double b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public long invokeLong(T proxy, int index, Method m, Object a, Object b) throws Throwable {
+        return longValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    //Called for proxied methods returning double
+    public double invokeDouble(T proxy, int index, Method m) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, int a) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, long a) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, double a) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, Object a) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, int a, int b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, int a, long b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, int a, double b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, int a, Object b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, long a, int b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, long a, long b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, long a, double b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, long a, Object b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, double a, int b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, double a, long b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, double a, double b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, double a, Object b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, Object a, int b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, Object a, long b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, Object a, double b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    public double invokeDouble(T proxy, int index, Method m, Object a, Object b) throws Throwable {
+        return doubleValue(invokeMethod(proxy, index, m, new Object[] {a, b}));
+    }
+
+    //Called for proxied methods returning a reference
+    public Object invokeObject(T proxy, int index, Method m) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, int a) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, long a) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, double a) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, Object a) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, int a, int b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, int a, long b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, int a, double b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, int a, Object b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, long a, int b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, long a, long b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, long a, double b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, long a, Object b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, double a, int b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, double a, long b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, double a, double b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, double a, Object b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, Object a, int b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, Object a, long b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, Object a, double b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    public Object invokeObject(T proxy, int index, Method m, Object a, Object b) throws Throwable {
+        return invokeMethod(proxy, index, m, new Object[] {a, b});
+    }
+
+    //The handler returns null when the proxy makes the final call, and the proxy ignores the value then
+    private static int intValue(Object value) {
+        return value == null ? 0 : ((Integer)value).intValue();
+    }
+
+    private static long longValue(Object value) {
+        return value == null ? 0L : ((Long)value).longValue();
+    }
+
+    private static double doubleValue(Object value) {
+        return value == null ? 0d : ((Double)value).doubleValue();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.support;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+
+/**
+ * Called through reflection by tests which load the proxy factory in their own classloader, to create proxies 
+ * using a bytecode store and to tamper with its entries
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class BytecodeStoreProbe {
+	
+	public static Object createProxy(File dir) {
+		ProxyFactory.setBytecodeCacheDirectory(dir);
+		try {
+			return ProxyFactory.createProxy(StoredBytecodeClass.class, new HandlerNotCallingTarget<StoredBytecodeClass>(new StoredBytecodeClass()));
+		} finally {
+			ProxyFactory.setBytecodeCacheDirectory(null);
+		}
+	}
+	
+	public static int method(Object proxy, int i) {
+		return ((StoredBytecodeClass)proxy).method(i);
+	}
+	
+	/**
+	 * Rewrite the stored entry of a proxy with the bytes of one of its classes replaced
+	 * 
+	 * @param bytes the new bytes of the class, or null to leave the class out of the entry
+	 */
+	@SuppressWarnings("unchecked")
+	public static void replaceStoredClass(File dir, String proxyName, String className, byte[] bytes) throws Exception {
+		Class<?> storeClass = Class.forName(ProxyFactory.class.getPackage().getName() + ".BytecodeStore");
+		Constructor<?> ctor = storeClass.getDeclaredConstructor(File.class);
+		ctor.setAccessible(true);
+		Object store = ctor.newInstance(dir);
+		byte[] fingerprint = (byte[])getMethod(storeClass, "getFingerprint", Class.class).invoke(store, StoredBytecodeClass.class);
+		Map<String, ByteBuffer> stored = (Map<String, ByteBuffer>)getMethod(storeClass, "load", String.class, byte[].class).invoke(store, proxyName, fingerprint);
+		
+		Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+		for (Map.Entry<String, ByteBuffer> entry : stored.entrySet()) {
+			if (!entry.getKey().equals(className)) {
+				byte[] current = new byte[entry.getValue().remaining()];
+				entry.getValue().get(current);
+				classes.put(entry.getKey(), current);
+			} else if (bytes != null) {
+				classes.put(className, bytes);
+			}
+		}
+		getMethod(storeClass, "store", String.class, byte[].class, Map.class).invoke(store, proxyName, fingerprint, classes);
+	}
+	
+	private static Method getMethod(Class<?> clazz, String name, Class<?>... params) throws NoSuchMethodException {
+		Method m = clazz.getDeclaredMethod(name, params);
+		m.setAccessible(true);
+		return m;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.support;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyHandler;
+
+/**
+ * Calls the superclass implementation on the proxy with {@link ProxyHandler#invokeSuper(Object, int, Object[])}
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class HandlerInvokingSuper<T> extends ProxyHandler<T>{
+
+    public List<String> called = new ArrayList<String>();
+    
+    public HandlerInvokingSuper(T instance) {
+        super(instance);
+    }
+    
+    @Override
+    protected boolean finalCallInHandler(Method m) {
+        return true;
+    }
+
+    @Override
+    public Object invokeMethod(T proxy, int index, Method m, Object[] args) throws Throwable {
+        called.add(m.getName());
+        return invokeSuper(proxy, index, args);
+    }
+
+    @Override
+    protected Object invokeMethod(T instance, Method m, Object[] args) throws Throwable {
+        throw new IllegalStateException("Not called by the proxy");
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.support;
+
+import java.lang.reflect.Method;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyHandler;
+
+/**
+ * Calls the target with {@link ProxyHandler#proceed(Method, Object[])}
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class HandlerProceeding<T> extends ProxyHandler<T>{
+
+    public Method m;
+    
+    public HandlerProceeding(T instance) {
+        super(instance);
+    }
+    
+    @Override
+    protected boolean finalCallInHandler(Method m) {
+        return true;
+    }
+
+    @Override
+    protected Object invokeMethod(T instance, Method m, Object[] args) throws Throwable {
+        this.m = m;
+        return proceed(m, args);
+    }
+    
+    public Object proceedWithIndex(int index, Object[] args) throws Throwable {
+        return proceed(index, args);
+    }
+    
+    public Object proceedWithMethod(Method m, Object[] args) throws Throwable {
+        return proceed(m, args);
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.support;
+
+/**
+ * Has more methods than fit in one word of the filter bitsets
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class ManyMethodsClass {
+
+	public int method00(int i) {
+		return i + 0;
+	}
+
+	public int method01(int i) {
+		return i + 1;
+	}
+
+	public int method02(int i) {
+		return i + 2;
+	}
+
+	public int method03(int i) {
+		return i + 3;
+	}
+
+	public int method04(int i) {
+		return i + 4;
+	}
+
+	public int method05(int i) {
+		return i + 5;
+	}
+
+	public int method06(int i) {
+		return i + 6;
+	}
+
+	public int method07(int i) {
+		return i + 7;
+	}
+
+	public int method08(int i) {
+		return i + 8;
+	}
+
+	public int method09(int i) {
+		return i + 9;
+	}
+
+	public int method10(int i) {
+		return i + 10;
+	}
+
+	public int method11(int i) {
+		return i + 11;
+	}
+
+	public int method12(int i) {
+		return i + 12;
+	}
+
+	public int method13(int i) {
+		return i + 13;
+	}
+
+	public int method14(int i) {
+		return i + 14;
+	}
+
+	public int method15(int i) {
+		return i + 15;
+	}
+
+	public int method16(int i) {
+		return i + 16;
+	}
+
+	public int method17(int i) {
+		return i + 17;
+	}
+
+	public int method18(int i) {
+		return i + 18;
+	}
+
+	public int method19(int i) {
+		return i + 19;
+	}
+
+	public int method20(int i) {
+		return i + 20;
+	}
+
+	public int method21(int i) {
+		return i + 21;
+	}
+
+	public int method22(int i) {
+		return i + 22;
+	}
+
+	public int method23(int i) {
+		return i + 23;
+	}
+
+	public int method24(int i) {
+		return i + 24;
+	}
+
+	public int method25(int i) {
+		return i + 25;
+	}
+
+	public int method26(int i) {
+		return i + 26;
+	}
+
+	public int method27(int i) {
+		return i + 27;
+	}
+
+	public int method28(int i) {
+		return i + 28;
+	}
+
+	public int method29(int i) {
+		return i + 29;
+	}
+
+	public int method30(int i) {
+		return i + 30;
+	}
+
+	public int method31(int i) {
+		return i + 31;
+	}
+
+	public int method32(int i) {
+		return i + 32;
+	}
+
+	public int method33(int i) {
+		return i + 33;
+	}
+
+	public int method34(int i) {
+		return i + 34;
+	}
+
+	public int method35(int i) {
+		return i + 35;
+	}
+
+	public int method36(int i) {
+		return i + 36;
+	}
+
+	public int method37(int i) {
+		return i + 37;
+	}
+
+	public int method38(int i) {
+		return i + 38;
+	}
+
+	public int method39(int i) {
+		return i + 39;
+	}
+
+	public int method40(int i) {
+		return i + 40;
+	}
+
+	public int method41(int i) {
+		return i + 41;
+	}
+
+	public int method42(int i) {
+		return i + 42;
+	}
+
+	public int method43(int i) {
+		return i + 43;
+	}
+
+	public int method44(int i) {
+		return i + 44;
+	}
+
+	public int method45(int i) {
+		return i + 45;
+	}
+
+	public int method46(int i) {
+		return i + 46;
+	}
+
+	public int method47(int i) {
+		return i + 47;
+	}
+
+	public int method48(int i) {
+		return i + 48;
+	}
+
+	public int method49(int i) {
+		return i + 49;
+	}
+
+	public int method50(int i) {
+		return i + 50;
+	}
+
+	public int method51(int i) {
+		return i + 51;
+	}
+
+	public int method52(int i) {
+		return i + 52;
+	}
+
+	public int method53(int i) {
+		return i + 53;
+	}
+
+	public int method54(int i) {
+		return i + 54;
+	}
+
+	public int method55(int i) {
+		return i + 55;
+	}
+
+	public int method56(int i) {
+		return i + 56;
+	}
+
+	public int method57(int i) {
+		return i + 57;
+	}
+
+	public int method58(int i) {
+		return i + 58;
+	}
+
+	public int method59(int i) {
+		return i + 59;
+	}
+
+	public int method60(int i) {
+		return i + 60;
+	}
+
+	public int method61(int i) {
+		return i + 61;
+	}
+
+	public int method62(int i) {
+		return i + 62;
+	}
+
+	public int method63(int i) {
+		return i + 63;
+	}
+
+	public int method64(int i) {
+		return i + 64;
+	}
+
+	public int method65(int i) {
+		return i + 65;
+	}
+
+	public int method66(int i) {
+		return i + 66;
+	}
+
+	public int method67(int i) {
+		return i + 67;
+	}
+
+	public int method68(int i) {
+		return i + 68;
+	}
+
+	public int method69(int i) {
+		return i + 69;
+	}
+
+	public int method70(int i) {
+		return i + 70;
+	}
+
+	public int method71(int i) {
+		return i + 71;
+	}
+
+	public int method72(int i) {
+		return i + 72;
+	}
+
+	public int method73(int i) {
+		return i + 73;
+	}
+
+	public int method74(int i) {
+		return i + 74;
+	}
+
+	public int method75(int i) {
+		return i + 75;
+	}
+
+	public int method76(int i) {
+		return i + 76;
+	}
+
+	public int method77(int i) {
+		return i + 77;
+	}
+
+	public int method78(int i) {
+		return i + 78;
+	}
+
+	public int method79(int i) {
+		return i + 79;
+	}
+
+	public int method80(int i) {
+		return i + 80;
+	}
+
+	public int method81(int i) {
+		return i + 81;
+	}
+
+	public int method82(int i) {
+		return i + 82;
+	}
+
+	public int method83(int i) {
+		return i + 83;
+	}
+
+	public int method84(int i) {
+		return i + 84;
+	}
+
+	public int method85(int i) {
+		return i + 85;
+	}
+
+	public int method86(int i) {
+		return i + 86;
+	}
+
+	public int method87(int i) {
+		return i + 87;
+	}
+
+	public int method88(int i) {
+		return i + 88;
+	}
+
+	public int method89(int i) {
+		return i + 89;
+	}
+
+	public int method90(int i) {
+		return i + 90;
+	}
+
+	public int method91(int i) {
+		return i + 91;
+	}
+
+	public int method92(int i) {
+		return i + 92;
+	}
+
+	public int method93(int i) {
+		return i + 93;
+	}
+
+	public int method94(int i) {
+		return i + 94;
+	}
+
+	public int method95(int i) {
+		return i + 95;
+	}
+
+	public int method96(int i) {
+		return i + 96;
+	}
+
+	public int method97(int i) {
+		return i + 97;
+	}
+
+	public int method98(int i) {
+		return i + 98;
+	}
+
+	public int method99(int i) {
+		return i + 99;
+	}
+}
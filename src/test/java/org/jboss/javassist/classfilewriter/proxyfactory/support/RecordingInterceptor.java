@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.support;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.InterceptorChain;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyInterceptor;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class RecordingInterceptor implements ProxyInterceptor {
+
+    private final String name;
+    private final List<String> methodNames;
+    private final List<String> log;
+    public InterceptorChain chain;
+    
+    public RecordingInterceptor(String name, List<String> log, String...methodNames) {
+        this.name = name;
+        this.log = log;
+        this.methodNames = methodNames.length == 0 ? null : Arrays.asList(methodNames);
+    }
+    
+    public boolean appliesTo(Method m) {
+        return methodNames == null || methodNames.contains(m.getName());
+    }
+
+    public Object intercept(Method m, Object[] args, InterceptorChain chain, int next) throws Throwable {
+        this.chain = chain;
+        log.add(name + ":" + m.getName());
+        return chain.proceed(next, args);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.support;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.MethodInformationCache;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyWarmUp;
+
+/**
+ * Called through reflection by tests which load the proxy factory in their own classloader, so that 
+ * they only need to pass around types which do not depend on the classloader
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class ScanningProbe {
+	
+	/**
+	 * Get a description of each of the sorted proxyable methods of a class
+	 */
+	public static List<String> getSortedProxyableMethods(Class<?> clazz) throws Exception {
+		Method getMethods = MethodInformationCache.class.getDeclaredMethod("getSortedProxyableMethods", Class.class);
+		getMethods.setAccessible(true);
+		return describe(Arrays.asList((Object[])getMethods.invoke(null, clazz)));
+	}
+	
+	/**
+	 * Get a description of each of the sorted proxyable methods of a class found by reflecting on every class of 
+	 * its hierarchy, rather than by merging the methods declared by the class with the cached ones of its superclass
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<String> getUnmergedProxyableMethods(Class<?> clazz) throws Exception {
+		Constructor<?> ctor = Class.forName(MethodInformationCache.class.getName() + "$MethodInformation").getDeclaredConstructor(Method.class);
+		ctor.setAccessible(true);
+		Field comparator = MethodInformationCache.class.getDeclaredField("COMPARATOR");
+		comparator.setAccessible(true);
+		
+		Set<Object> methods = new TreeSet<Object>((Comparator<Object>)comparator.get(null));
+		for (Class<?> current = clazz ; current != Object.class ; current = current.getSuperclass()) {
+			for (Method m : current.getDeclaredMethods()) {
+				int modifiers = m.getModifiers();
+				if (Modifier.isFinal(modifiers) || Modifier.isPrivate(modifiers) || Modifier.isStatic(modifiers) || m.isBridge())
+					continue;
+				//Subclasses come first, so the methods they override are not added
+				methods.add(ctor.newInstance(m));
+			}
+		}
+		return describe(methods);
+	}
+	
+	/**
+	 * Get the shared array of the sorted proxyable methods of a class, so that callers can check its identity
+	 */
+	public static Object getMethodsSnapshot(Class<?> clazz) throws Exception {
+		Method getMethods = MethodInformationCache.class.getDeclaredMethod("getSortedProxyableMethods", Class.class);
+		getMethods.setAccessible(true);
+		return getMethods.invoke(null, clazz);
+	}
+	
+	private static List<String> describe(Collection<Object> methods) throws Exception {
+		List<String> result = new ArrayList<String>();
+		for (Object info : methods) {
+			result.add(((Class<?>)call(info, "getDeclaringClass")).getName() + " " + Modifier.toString((Integer)call(info, "getModifiers")) + " " + 
+					call(info, "getName") + call(info, "getFullSignature") + " throws " + Arrays.toString((String[])call(info, "getExceptions")));
+		}
+		return result;
+	}
+	
+	private static Object call(Object o, String name) throws Exception {
+		Method m = o.getClass().getDeclaredMethod(name);
+		m.setAccessible(true);
+		return m.invoke(o);
+	}
+	
+	public static void warmUp(Class<?> clazz) throws Exception {
+		ProxyWarmUp warmUp = ProxyFactory.warmUp(new Executor() {
+			public void execute(Runnable command) {
+				command.run();
+			}
+		}, Collections.singleton(clazz));
+		warmUp.await();
+		if (!warmUp.getFailures().isEmpty())
+			throw new Exception("Warm up failed " + warmUp.getFailures());
+	}
+	
+	public static ScannedClass createProxy() {
+		return ProxyFactory.createProxy(ScannedClass.class, new HandlerNotCallingTarget<ScannedClass>(new ScannedClass()));
+	}
+	
+	public static int count(ScannedClass scanned) {
+		return scanned.count();
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.support;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.InterceptorChain;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyInterceptor;
+import org.jboss.javassist.classfilewriter.proxyfactory.StableFilters;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+@StableFilters
+public class StableInterceptor implements ProxyInterceptor {
+    
+    public static final AtomicInteger APPLIES_TO_CALLS = new AtomicInteger();
+    
+    public Method method;
+
+    public boolean appliesTo(Method m) {
+        APPLIES_TO_CALLS.incrementAndGet();
+        return m.getName().equals("increment");
+    }
+
+    public Object intercept(Method m, Object[] args, InterceptorChain chain, int next) throws Throwable {
+        method = m;
+        return chain.proceed(next, args);
+    }
+}
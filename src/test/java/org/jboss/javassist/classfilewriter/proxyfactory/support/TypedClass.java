@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.support;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class TypedClass {
+	
+	public int add(int a, int b) {
+		return a + b;
+	}
+	
+	public long twice(long l) {
+		return l * 2;
+	}
+	
+	public double half(double d) {
+		return d / 2;
+	}
+	
+	public String repeat(String s, int times) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0 ; i < times ; i++)
+			sb.append(s);
+		return sb.toString();
+	}
+	
+	public void touch() {
+	}
+	
+	public boolean not(boolean b) {
+		return !b;
+	}
+	
+	public int sum(int a, int b, int c) {
+		return a + b + c;
+	}
+}
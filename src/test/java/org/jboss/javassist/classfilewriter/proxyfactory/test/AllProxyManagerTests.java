@@ -39,7 +39,24 @@ import org.junit.runners.Suite.SuiteClasses;
     PrimitiveArrayProxyFactoryCalledByHandlerTestCase.class,
     BoxedArrayProxyFactoryCalledByWrapperTestCase.class,
     BoxedArrayProxyFactoryCalledByHandlerTestCase.class,
-    ProxyAndFilterTestCase.class})
+    ProxyAndFilterTestCase.class,
+    StableFiltersTestCase.class,
+    ProxyTemplateTestCase.class,
+    ConcurrentProxyFactoryTestCase.class,
+    PregeneratedProxyTestCase.class,
+    BytecodeCacheTestCase.class,
+    BatchProxyFactoryTestCase.class,
+    WarmUpTestCase.class,
+    ManyMethodsProxyFactoryTestCase.class,
+    TypedProxyHandlerTestCase.class,
+    ProceedTestCase.class,
+    InvokeSuperTestCase.class,
+    InterceptorChainTestCase.class,
+    InvocationTestCase.class,
+    HandlerEnabledTestCase.class,
+    SingletonProxyTestCase.class,
+    DelegatingProxyTestCase.class,
+    MethodScanningTestCase.class})
 @RunWith(Suite.class)
 public class AllProxyManagerTests {
 
@@ -31,8 +31,10 @@ import static junit.framework.Assert.fail;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 
 import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyHandler;
 import org.jboss.javassist.classfilewriter.proxyfactory.support.CheckedException;
 import org.jboss.javassist.classfilewriter.proxyfactory.support.ChildClass;
 import org.jboss.javassist.classfilewriter.proxyfactory.support.ClassWithInnerClasses;
@@ -40,6 +42,7 @@ import org.jboss.javassist.classfilewriter.proxyfactory.support.CornerCaseClass;
 import org.jboss.javassist.classfilewriter.proxyfactory.support.ExceptionClass;
 import org.jboss.javassist.classfilewriter.proxyfactory.support.FinalClass;
 import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerNotCallingTarget;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.ParentClass;
 import org.jboss.javassist.classfilewriter.proxyfactory.support.PrimitiveClass;
 import org.jboss.javassist.classfilewriter.proxyfactory.support.UncheckedException;
 import org.junit.Test;
@@ -67,6 +70,106 @@ public class BasicProxyFactoryTestCase {
         assertSame(handler, o);
     }
     
+    @Test
+    public void testProxyHandlerPassedToConstructor() throws Exception {
+        PrimitiveClass target = new PrimitiveClass();
+        HandlerNotCallingTarget<PrimitiveClass> handler = new HandlerNotCallingTarget<PrimitiveClass>(target);
+        PrimitiveClass proxy = ProxyFactory.createProxy(PrimitiveClass.class, handler);
+        
+        Field field = proxy.getClass().getDeclaredField("_proxy$Handler");
+        assertTrue(Modifier.isFinal(field.getModifiers()));
+        assertNotNull(proxy.getClass().getConstructor(ProxyHandler.class));
+    }
+    
+    @Test
+    public void testMethodTableSharedByProxies() throws Exception {
+        HandlerNotCallingTarget<PrimitiveClass> handlerA = new HandlerNotCallingTarget<PrimitiveClass>(new PrimitiveClass());
+        HandlerNotCallingTarget<PrimitiveClass> handlerB = new HandlerNotCallingTarget<PrimitiveClass>(new PrimitiveClass());
+        PrimitiveClass proxyA = ProxyFactory.createProxy(PrimitiveClass.class, handlerA);
+        PrimitiveClass proxyB = ProxyFactory.createProxy(PrimitiveClass.class, handlerB);
+        
+        proxyA.test();
+        proxyB.test();
+        assertSame(handlerA.m, handlerB.m);
+        assertEquals(PrimitiveClass.class.getMethod("test"), handlerA.m);
+    }
+    
+    @Test
+    public void testMethodConstantsAreStaticFinal() throws Exception {
+        HandlerNotCallingTarget<PrimitiveClass> handler = new HandlerNotCallingTarget<PrimitiveClass>(new PrimitiveClass());
+        PrimitiveClass proxy = ProxyFactory.createProxy(PrimitiveClass.class, handler);
+        proxy.test();
+        
+        Class<?> holder = Class.forName(proxy.getClass().getName() + "$Methods", false, proxy.getClass().getClassLoader());
+        Field[] fields = holder.getDeclaredFields();
+        assertTrue(fields.length > 0);
+        boolean found = false;
+        for (Field field : fields) {
+            assertTrue(Modifier.isStatic(field.getModifiers()));
+            assertTrue(Modifier.isFinal(field.getModifiers()));
+            assertSame(Method.class, field.getType());
+            field.setAccessible(true);
+            found |= field.get(null) == handler.m;
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testMethodsHolderInitializedBeforeFirstCall() throws Exception {
+        HandlerNotCallingTarget<ParentClass> handler = new HandlerNotCallingTarget<ParentClass>(new ParentClass());
+        ParentClass proxy = ProxyFactory.createProxy(ParentClass.class, handler);
+
+        //The shape is stored in the proxy class before anything can use the methods holder
+        Class.forName(proxy.getClass().getName() + "$Methods", true, proxy.getClass().getClassLoader());
+        proxy.overridden(1, 2);
+        assertEquals("overridden", handler.m.getName());
+    }
+
+    @Test
+    public void testMethodsHolderWithoutShape() throws Exception {
+        try {
+            ProxyFactory.getProxyMethods(null);
+            fail("Should have had error");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testMethodIndexPassedToHandler() throws Throwable {
+        IndexRecordingHandler handler = new IndexRecordingHandler(new PrimitiveClass());
+        PrimitiveClass proxy = ProxyFactory.createProxy(PrimitiveClass.class, handler);
+        
+        proxy.test();
+        Method m = handler.m;
+        assertEquals(PrimitiveClass.class.getMethod("test"), m);
+        handler.m = null;
+        handler.invokeMethod(handler.index, new Object[0]);
+        assertSame(m, handler.m);
+    }
+    
+    @Test
+    public void testHandlerSharedByProxiesOfSameClass() throws Exception {
+        HandlerNotCallingTarget<PrimitiveClass> handler = new HandlerNotCallingTarget<PrimitiveClass>(new PrimitiveClass());
+        PrimitiveClass proxyA = ProxyFactory.createProxy(PrimitiveClass.class, handler);
+        PrimitiveClass proxyB = ProxyFactory.createProxy(PrimitiveClass.class, handler);
+        assertNotSame(proxyA, proxyB);
+        
+        proxyB.test();
+        assertEquals(PrimitiveClass.class.getMethod("test"), handler.m);
+    }
+    
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testHandlerCannotBeSharedByProxiesOfDifferentClasses() throws Exception {
+        HandlerNotCallingTarget<ParentClass> handler = new HandlerNotCallingTarget<ParentClass>(new ChildClass());
+        ProxyFactory.createProxy(ParentClass.class, handler);
+        try {
+            ProxyFactory.createProxy(ChildClass.class, (ProxyHandler)handler);
+            fail("Should have had error");
+        }catch(IllegalArgumentException expected) {
+        }
+    }
+    
     @Test
     public void testNoArgsVoidMethod() throws Exception {
         PrimitiveClass target = new PrimitiveClass();
@@ -232,4 +335,18 @@ public class BasicProxyFactoryTestCase {
 		}
         fail("Should have had unchecked exception");
     }
+    
+    private static class IndexRecordingHandler extends HandlerNotCallingTarget<PrimitiveClass> {
+        int index = -1;
+        
+        IndexRecordingHandler(PrimitiveClass instance) {
+            super(instance);
+        }
+        
+        @Override
+        public Object invokeMethod(PrimitiveClass proxy, int index, Method m, Object[] args) throws Throwable {
+            this.index = index;
+            return super.invokeMethod(proxy, index, m, args);
+        }
+    }
 }
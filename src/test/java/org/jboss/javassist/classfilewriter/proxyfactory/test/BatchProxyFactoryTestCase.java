@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyBatchResult;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyHandler;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.FinalClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerNotCallingTarget;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.SomeClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class BatchProxyFactoryTestCase {
+
+	@Test
+	public void testCreateProxies() throws Exception {
+		List<ProxyHandler<SomeClass>> handlers = new ArrayList<ProxyHandler<SomeClass>>();
+		for (int i = 0 ; i < 5 ; i++)
+			handlers.add(new HandlerNotCallingTarget<SomeClass>(new SomeClass()));
+		handlers.add(new IntMethodHandler(new SomeClass()));
+		
+		ProxyBatchResult<SomeClass> result = ProxyFactory.createProxies(SomeClass.class, handlers);
+		assertEquals(6, result.size());
+		assertFalse(result.hasFailures());
+		
+		for (int i = 0 ; i < 5 ; i++) {
+			SomeClass proxy = result.getProxy(i);
+			assertSame(result.getProxy(0).getClass(), proxy.getClass());
+			assertEquals("A", proxy.method("A"));
+			assertEquals("method", ((HandlerNotCallingTarget<SomeClass>)handlers.get(i)).m.getName());
+		}
+		
+		SomeClass intProxy = result.getProxy(5);
+		assertFalse(intProxy.getClass() == result.getProxy(0).getClass());
+		IntMethodHandler intHandler = (IntMethodHandler)handlers.get(5);
+		assertEquals("B", intProxy.method("B"));
+		assertFalse(intHandler.invoked);
+		assertEquals(3, intProxy.method(3));
+		assertTrue(intHandler.invoked);
+	}
+	
+	@Test
+	public void testFailuresDoNotAbortBatch() throws Exception {
+		List<ProxyHandler<SomeClass>> handlers = new ArrayList<ProxyHandler<SomeClass>>();
+		handlers.add(new HandlerNotCallingTarget<SomeClass>(new SomeClass()));
+		handlers.add(null);
+		handlers.add(new FailingFilterHandler(new SomeClass()));
+		handlers.add(new HandlerNotCallingTarget<SomeClass>(new SomeClass()));
+		
+		ProxyBatchResult<SomeClass> result = ProxyFactory.createProxies(SomeClass.class, handlers);
+		assertEquals(4, result.size());
+		assertTrue(result.hasFailures());
+		assertEquals(2, result.getFailureCount());
+		
+		assertNotNull(result.getProxy(0));
+		assertNull(result.getFailure(0));
+		assertNull(result.getProxy(1));
+		assertTrue(result.getFailure(1) instanceof IllegalArgumentException);
+		assertNull(result.getProxy(2));
+		assertTrue(result.getFailure(2) instanceof UnsupportedOperationException);
+		assertNotNull(result.getProxy(3));
+		assertNull(result.getFailure(3));
+		
+		assertEquals(4, result.getProxies().size());
+		assertNull(result.getProxies().get(1));
+	}
+	
+	@Test
+	public void testUnproxyableClass() throws Exception {
+		List<ProxyHandler<FinalClass>> handlers = new ArrayList<ProxyHandler<FinalClass>>();
+		handlers.add(new HandlerNotCallingTarget<FinalClass>(new FinalClass()));
+		handlers.add(new HandlerNotCallingTarget<FinalClass>(new FinalClass()));
+		
+		ProxyBatchResult<FinalClass> result = ProxyFactory.createProxies(FinalClass.class, handlers);
+		assertEquals(2, result.getFailureCount());
+		assertTrue(result.getFailure(0) instanceof IllegalArgumentException);
+		assertTrue(result.getFailure(1) instanceof IllegalArgumentException);
+	}
+	
+	private static class IntMethodHandler extends ProxyHandler<SomeClass>{
+		boolean invoked;
+		
+		protected IntMethodHandler(SomeClass instance) {
+	        super(instance);
+        }
+
+		@Override
+        protected Object invokeMethod(SomeClass instance, Method m, Object[] args) throws Throwable {
+			invoked = true;
+	        return null;
+        }
+
+		@Override
+        public boolean isHandled(Method m) {
+			return m.getParameterTypes()[0] == Integer.TYPE;
+        }
+	}
+	
+	private static class FailingFilterHandler extends IntMethodHandler{
+		protected FailingFilterHandler(SomeClass instance) {
+	        super(instance);
+        }
+
+		@Override
+        public boolean isHandled(Method m) {
+			throw new UnsupportedOperationException();
+        }
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.BytecodeStoreProbe;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerNotCallingTarget;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.StoredBytecodeClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class BytecodeCacheTestCase {
+
+	@Test
+	public void testGeneratedProxyStored() throws Exception {
+		File dir = File.createTempFile("proxies", "");
+		dir.delete();
+		ProxyFactory.setBytecodeCacheDirectory(dir);
+		try {
+			StoredBytecodeClass target = new StoredBytecodeClass();
+			HandlerNotCallingTarget<StoredBytecodeClass> handler = new HandlerNotCallingTarget<StoredBytecodeClass>(target);
+			StoredBytecodeClass proxy = ProxyFactory.createProxy(StoredBytecodeClass.class, handler);
+			assertEquals(1, proxy.method(1));
+			assertEquals("method", handler.m.getName());
+			
+			File[] files = dir.listFiles();
+			assertEquals(1, files.length);
+			assertTrue(files[0].getName().endsWith(".proxy"));
+			assertTrue(files[0].length() > 0);
+		} finally {
+			ProxyFactory.setBytecodeCacheDirectory(null);
+			for (File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+	}
+	
+	@Test
+	public void testTruncatedEntryRegenerated() throws Exception {
+		File dir = createDirectory();
+		try {
+			String proxyName = createProxy(dir).getClass().getName();
+			File file = getStoredFile(dir);
+			long length = file.length();
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(length / 2);
+			} finally {
+				raf.close();
+			}
+			
+			Object proxy = createProxy(dir);
+			assertEquals(proxyName, proxy.getClass().getName());
+			assertEquals(1, callMethod(proxy, 1));
+			assertEquals(length, getStoredFile(dir).length());
+		} finally {
+			delete(dir);
+		}
+	}
+	
+	@Test
+	public void testPartialEntryRegenerated() throws Exception {
+		File dir = createDirectory();
+		try {
+			Object stored = createProxy(dir);
+			String proxyName = stored.getClass().getName();
+			long length = getStoredFile(dir).length();
+			replaceStoredClass(stored, dir, proxyName + "$Methods", null);
+			assertTrue(getStoredFile(dir).length() < length);
+			
+			Object proxy = createProxy(dir);
+			assertEquals(proxyName, proxy.getClass().getName());
+			assertEquals(1, callMethod(proxy, 1));
+			assertEquals(length, getStoredFile(dir).length());
+		} finally {
+			delete(dir);
+		}
+	}
+	
+	@Test
+	public void testCorruptClassInEntryRegenerated() throws Exception {
+		File dir = createDirectory();
+		try {
+			Object stored = createProxy(dir);
+			String proxyName = stored.getClass().getName();
+			replaceStoredClass(stored, dir, proxyName + "$Instantiator", new byte[] {1, 2, 3});
+			
+			//The proxy class got defined before the instantiator failed, so the new one needs another name 
+			Object proxy = createProxy(dir);
+			assertFalse(proxyName.equals(proxy.getClass().getName()));
+			assertEquals(1, callMethod(proxy, 1));
+		} finally {
+			delete(dir);
+		}
+	}
+	
+	@Test
+	public void testDirectoryWritableByOthersRefused() throws Exception {
+		File dir = createDirectory();
+		try {
+			assertTrue(dir.mkdir());
+			assertTrue(dir.setWritable(true, false));
+			try {
+				ProxyFactory.setBytecodeCacheDirectory(dir);
+				fail("Should have had error");
+			} catch (IllegalArgumentException expected) {
+			}
+		} finally {
+			ProxyFactory.setBytecodeCacheDirectory(null);
+			delete(dir);
+		}
+	}
+	
+	@Test
+	public void testEntryWritableByOthersNotUsed() throws Exception {
+		File dir = createDirectory();
+		try {
+			Object stored = createProxy(dir);
+			String proxyName = stored.getClass().getName();
+			//Defining the proxy from this entry would fail once the proxy class was defined, which would change the name 
+			replaceStoredClass(stored, dir, proxyName + "$Instantiator", new byte[] {1, 2, 3});
+			assertTrue(getStoredFile(dir).setWritable(true, false));
+			
+			Object proxy = createProxy(dir);
+			assertEquals(proxyName, proxy.getClass().getName());
+			assertEquals(1, callMethod(proxy, 1));
+		} finally {
+			delete(dir);
+		}
+	}
+	
+	/**
+	 * Create a proxy in a new classloader, so that it gets defined from the store if it has an entry
+	 */
+	private static Object createProxy(File dir) throws Exception {
+		Class<?> probe = new IsolatingClassLoader(false).loadClass(BytecodeStoreProbe.class.getName());
+		return probe.getMethod("createProxy", File.class).invoke(null, dir);
+	}
+	
+	private static int callMethod(Object proxy, int i) throws Exception {
+		Class<?> probe = proxy.getClass().getClassLoader().loadClass(BytecodeStoreProbe.class.getName());
+		return (Integer)probe.getMethod("method", Object.class, Integer.TYPE).invoke(null, proxy, i);
+	}
+	
+	private static void replaceStoredClass(Object proxy, File dir, String className, byte[] bytes) throws Exception {
+		Class<?> probe = proxy.getClass().getClassLoader().loadClass(BytecodeStoreProbe.class.getName());
+		probe.getMethod("replaceStoredClass", File.class, String.class, String.class, byte[].class).invoke(null, dir, proxy.getClass().getName(), className, bytes);
+	}
+	
+	private static File createDirectory() throws Exception {
+		File dir = File.createTempFile("proxies", "");
+		dir.delete();
+		return dir;
+	}
+	
+	private static File getStoredFile(File dir) {
+		File[] files = dir.listFiles();
+		assertEquals(1, files.length);
+		return files[0];
+	}
+	
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		dir.delete();
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerNotCallingTarget;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.ParentClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class ConcurrentProxyFactoryTestCase {
+	
+	private static final int THREADS = 8;
+
+	@Test
+	public void testConcurrentCreationGivesSameProxyClass() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final CountDownLatch latch = new CountDownLatch(1);
+			List<Future<Class<?>>> futures = new ArrayList<Future<Class<?>>>();
+			for (int i = 0 ; i < THREADS ; i++) {
+				futures.add(executor.submit(new Callable<Class<?>>() {
+					public Class<?> call() throws Exception {
+						latch.await();
+						ParentClass target = new ParentClass();
+						ParentClass proxy = ProxyFactory.createProxy(ParentClass.class, new HandlerNotCallingTarget<ParentClass>(target));
+						return proxy.getClass();
+					}
+				}));
+			}
+			latch.countDown();
+			
+			Class<?> proxyClass = futures.get(0).get();
+			for (Future<Class<?>> future : futures)
+				assertSame(proxyClass, future.get());
+			assertEquals(ParentClass.class, proxyClass.getSuperclass());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
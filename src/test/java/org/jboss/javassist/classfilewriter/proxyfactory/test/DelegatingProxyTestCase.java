@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+
+import java.lang.reflect.Method;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.CounterClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerNotCallingTarget;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerProceeding;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.OtherPackageChildClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.other.OtherPackageParentClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class DelegatingProxyTestCase {
+    
+    @Test
+    public void testHandledMethodCallsTarget() throws Exception {
+        CounterClass target = new CounterClass();
+        HandlerNotCallingTarget<CounterClass> handler = new HandlerNotCallingTarget<CounterClass>(target);
+        CounterClass proxy = ProxyFactory.createDelegatingProxy(CounterClass.class, handler);
+        
+        assertEquals(3, proxy.increment(3));
+        assertEquals("increment", handler.m.getName());
+        assertEquals(3, target.getCount());
+        assertEquals(3, proxy.getCount());
+    }
+    
+    @Test
+    public void testUnhandledMethodCallsTarget() throws Exception {
+        CounterClass target = new CounterClass();
+        HandlerNotCallingTarget<CounterClass> handler = new HandlerNotCallingTarget<CounterClass>(target) {
+            @Override
+            public boolean isHandled(Method m) {
+                return m.getName().equals("increment");
+            }
+        };
+        CounterClass proxy = ProxyFactory.createDelegatingProxy(CounterClass.class, handler);
+        
+        target.increment(5);
+        assertEquals(5, proxy.getCount());
+        assertNull(handler.m);
+        assertEquals(7, proxy.increment(2));
+        assertEquals(7, target.getCount());
+    }
+    
+    @Test
+    public void testFinalCallInHandler() throws Exception {
+        CounterClass target = new CounterClass();
+        HandlerProceeding<CounterClass> handler = new HandlerProceeding<CounterClass>(target);
+        CounterClass proxy = ProxyFactory.createDelegatingProxy(CounterClass.class, handler);
+        
+        assertEquals(4, proxy.increment(4));
+        assertEquals(4, target.getCount());
+    }
+    
+    @Test
+    public void testProtectedMethodFromOtherPackage() throws Exception {
+        HandlerNotCallingTarget<OtherPackageChildClass> handler = new HandlerNotCallingTarget<OtherPackageChildClass>(new OtherPackageChildClass());
+        OtherPackageChildClass proxy = ProxyFactory.createDelegatingProxy(OtherPackageChildClass.class, handler);
+        
+        assertEquals(30, proxy.callProtectedMethod(3));
+        
+        Method method = OtherPackageParentClass.class.getDeclaredMethod("protectedMethod", Integer.TYPE);
+        method.setAccessible(true);
+        assertEquals(40, method.invoke(proxy, 4));
+        assertEquals(method, handler.m);
+    }
+    
+    @Test
+    public void testDisabledHandlerCallsTarget() throws Exception {
+        HandlerNotCallingTarget<OtherPackageChildClass> handler = new HandlerNotCallingTarget<OtherPackageChildClass>(new OtherPackageChildClass()) {
+            @Override
+            protected boolean canBeDisabled(Method m) {
+                return true;
+            }
+        };
+        OtherPackageChildClass proxy = ProxyFactory.createDelegatingProxy(OtherPackageChildClass.class, handler);
+        Method direct = OtherPackageChildClass.class.getMethod("callProtectedMethod", Integer.TYPE);
+        Method indirect = OtherPackageParentClass.class.getDeclaredMethod("protectedMethod", Integer.TYPE);
+        indirect.setAccessible(true);
+        
+        ProxyFactory.setHandlerEnabled(proxy, direct, false);
+        ProxyFactory.setHandlerEnabled(proxy, indirect, false);
+        assertEquals(20, proxy.callProtectedMethod(2));
+        assertEquals(50, indirect.invoke(proxy, 5));
+        assertNull(handler.m);
+    }
+    
+    @Test
+    public void testDelegatingProxyClassSeparate() throws Exception {
+        CounterClass delegating = ProxyFactory.createDelegatingProxy(CounterClass.class, new HandlerNotCallingTarget<CounterClass>(new CounterClass()));
+        CounterClass inheriting = ProxyFactory.createProxy(CounterClass.class, new HandlerNotCallingTarget<CounterClass>(new CounterClass()));
+        assertFalse(delegating.getClass() == inheriting.getClass());
+        
+        assertEquals(1, inheriting.increment(1));
+        assertEquals(0, delegating.getCount());
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.CornerCaseClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerNotCallingTarget;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class HandlerEnabledTestCase {
+    
+    @Test
+    public void testDisableAndEnableHandler() throws Exception {
+        MixedParametersHandler handler = new MixedParametersHandler();
+        CornerCaseClass proxy = ProxyFactory.createProxy(CornerCaseClass.class, handler);
+        MixedParametersHandler otherHandler = new MixedParametersHandler();
+        CornerCaseClass otherProxy = ProxyFactory.createProxy(CornerCaseClass.class, otherHandler);
+        assertSame(proxy.getClass(), otherProxy.getClass());
+        Method method = getMixedParameters();
+        
+        assertTrue(ProxyFactory.isHandlerEnabled(proxy, method));
+        ProxyFactory.setHandlerEnabled(proxy, method, false);
+        assertFalse(ProxyFactory.isHandlerEnabled(proxy, method));
+        assertEquals("12-34-12-5-3", proxy.mixedParameters(12, 34D, 12f, 5L, (short)3));
+        assertNull(handler.m);
+        
+        //Only the proxy it was turned off for is affected
+        assertTrue(ProxyFactory.isHandlerEnabled(otherProxy, method));
+        assertEquals("1-2-3-4-5", otherProxy.mixedParameters(1, 2D, 3f, 4L, (short)5));
+        assertEquals(method, otherHandler.m);
+        
+        ProxyFactory.setHandlerEnabled(proxy, method, true);
+        assertTrue(ProxyFactory.isHandlerEnabled(proxy, method));
+        assertEquals("12-34-12-5-3", proxy.mixedParameters(12, 34D, 12f, 5L, (short)3));
+        assertEquals(method, handler.m);
+    }
+    
+    @Test
+    public void testDifferentHandlerClassesForSameTarget() throws Exception {
+        MixedParametersHandler handler = new MixedParametersHandler();
+        CornerCaseClass proxy = ProxyFactory.createProxy(CornerCaseClass.class, handler);
+        AllMethodsHandler otherHandler = new AllMethodsHandler();
+        CornerCaseClass otherProxy = ProxyFactory.createProxy(CornerCaseClass.class, otherHandler);
+        Method method = getMixedParameters();
+        
+        ProxyFactory.setHandlerEnabled(otherProxy, method, false);
+        assertTrue(ProxyFactory.isHandlerEnabled(proxy, method));
+        assertEquals("12-34-12-5-3", proxy.mixedParameters(12, 34D, 12f, 5L, (short)3));
+        assertEquals(method, handler.m);
+        assertEquals("1-2-3-4-5", otherProxy.mixedParameters(1, 2D, 3f, 4L, (short)5));
+        assertNull(otherHandler.m);
+        
+        handler.m = null;
+        ProxyFactory.setHandlerEnabled(proxy, method, false);
+        ProxyFactory.setHandlerEnabled(otherProxy, method, true);
+        assertEquals("12-34-12-5-3", proxy.mixedParameters(12, 34D, 12f, 5L, (short)3));
+        assertNull(handler.m);
+        assertEquals("1-2-3-4-5", otherProxy.mixedParameters(1, 2D, 3f, 4L, (short)5));
+        assertEquals(method, otherHandler.m);
+    }
+    
+    @Test
+    public void testDisableForProxyClass() throws Exception {
+        Method method = getMixedParameters();
+        ClassSwitchHandler handler = new ClassSwitchHandler();
+        CornerCaseClass proxy = ProxyFactory.createProxy(CornerCaseClass.class, handler);
+        ClassSwitchHandler switchedHandler = new ClassSwitchHandler();
+        CornerCaseClass switchedProxy = ProxyFactory.createProxy(CornerCaseClass.class, switchedHandler);
+        Class<?> proxyClass = proxy.getClass();
+        assertSame(proxyClass, switchedProxy.getClass());
+        
+        //The setting of a proxy overrides the one of its class
+        ProxyFactory.setHandlerEnabled(switchedProxy, method, true);
+        assertTrue(ProxyFactory.isHandlerEnabled(proxyClass, method));
+        ProxyFactory.setHandlerEnabled(proxyClass, method, false);
+        try {
+            assertFalse(ProxyFactory.isHandlerEnabled(proxyClass, method));
+            assertFalse(ProxyFactory.isHandlerEnabled(proxy, method));
+            assertEquals("12-34-12-5-3", proxy.mixedParameters(12, 34D, 12f, 5L, (short)3));
+            assertNull(handler.m);
+            
+            assertTrue(ProxyFactory.isHandlerEnabled(switchedProxy, method));
+            assertEquals("1-2-3-4-5", switchedProxy.mixedParameters(1, 2D, 3f, 4L, (short)5));
+            assertEquals(method, switchedHandler.m);
+            
+            //New proxies of the class start off disabled
+            ClassSwitchHandler newHandler = new ClassSwitchHandler();
+            CornerCaseClass newProxy = ProxyFactory.createProxy(CornerCaseClass.class, newHandler);
+            assertFalse(ProxyFactory.isHandlerEnabled(newProxy, method));
+            assertEquals("5-6-7-8-9", newProxy.mixedParameters(5, 6D, 7f, 8L, (short)9));
+            assertNull(newHandler.m);
+            
+            //Until the proxy is reset it keeps its own setting
+            switchedHandler.m = null;
+            ProxyFactory.resetHandlerEnabled(switchedProxy, method);
+            assertFalse(ProxyFactory.isHandlerEnabled(switchedProxy, method));
+            assertEquals("1-2-3-4-5", switchedProxy.mixedParameters(1, 2D, 3f, 4L, (short)5));
+            assertNull(switchedHandler.m);
+            
+            ProxyFactory.setHandlerEnabled(proxyClass, method, true);
+            assertTrue(ProxyFactory.isHandlerEnabled(newProxy, method));
+            assertEquals("5-6-7-8-9", newProxy.mixedParameters(5, 6D, 7f, 8L, (short)9));
+            assertEquals(method, newHandler.m);
+            assertEquals("12-34-12-5-3", proxy.mixedParameters(12, 34D, 12f, 5L, (short)3));
+            assertEquals(method, handler.m);
+        } finally {
+            ProxyFactory.setHandlerEnabled(proxyClass, method, true);
+        }
+        
+        //Other proxy classes of the same target class are not affected
+        assertTrue(ProxyFactory.isHandlerEnabled(ProxyFactory.createProxy(CornerCaseClass.class, new MixedParametersHandler()), method));
+    }
+    
+    @Test
+    public void testNotAProxyClass() throws Exception {
+        try {
+            ProxyFactory.setHandlerEnabled(CornerCaseClass.class, getMixedParameters(), false);
+            fail("Should have had error");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+    @Test
+    public void testMethodCannotBeDisabled() throws Exception {
+        CornerCaseClass proxy = ProxyFactory.createProxy(CornerCaseClass.class, new HandlerNotCallingTarget<CornerCaseClass>(new CornerCaseClass()));
+        try {
+            ProxyFactory.setHandlerEnabled(proxy, getMixedParameters(), false);
+            fail("Should have had error");
+        } catch (IllegalArgumentException expected) {
+        }
+        
+        //Only the methods which can be disabled check it
+        for (Field field : proxy.getClass().getDeclaredFields()) {
+            assertFalse(field.getName(), field.getName().startsWith("_proxy$Disabled"));
+            assertFalse(field.getName(), field.getName().startsWith("_proxy$ClassDisabled"));
+        }
+        
+        CornerCaseClass otherProxy = ProxyFactory.createProxy(CornerCaseClass.class, new MixedParametersHandler());
+        try {
+            ProxyFactory.isHandlerEnabled(otherProxy, CornerCaseClass.class.getDeclaredMethod("protectedMethod"));
+            fail("Should have had error");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+    @Test
+    public void testMethodNotHandled() throws Exception {
+        CornerCaseClass proxy = ProxyFactory.createProxy(CornerCaseClass.class, new AllMethodsHandler());
+        try {
+            ProxyFactory.setHandlerEnabled(proxy, CornerCaseClass.class.getMethod("finalMethod"), false);
+            fail("Should have had error");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+    @Test
+    public void testNotAProxy() throws Exception {
+        try {
+            ProxyFactory.isHandlerEnabled(new CornerCaseClass(), CornerCaseClass.class.getMethod("finalMethod"));
+            fail("Should have had error");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+    private static Method getMixedParameters() throws NoSuchMethodException {
+        return CornerCaseClass.class.getMethod("mixedParameters", Integer.TYPE, Double.TYPE, Float.TYPE, Long.TYPE, Short.TYPE);
+    }
+    
+    private static class MixedParametersHandler extends HandlerNotCallingTarget<CornerCaseClass> {
+        MixedParametersHandler() {
+            super(new CornerCaseClass());
+        }
+        
+        @Override
+        protected boolean canBeDisabled(Method m) {
+            return m.getName().equals("mixedParameters");
+        }
+    }
+    
+    private static class ClassSwitchHandler extends HandlerNotCallingTarget<CornerCaseClass> {
+        ClassSwitchHandler() {
+            super(new CornerCaseClass());
+        }
+        
+        @Override
+        protected boolean canBeDisabled(Method m) {
+            return m.getName().equals("mixedParameters");
+        }
+    }
+    
+    private static class AllMethodsHandler extends HandlerNotCallingTarget<CornerCaseClass> {
+        AllMethodsHandler() {
+            super(new CornerCaseClass());
+        }
+        
+        @Override
+        protected boolean canBeDisabled(Method m) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.InterceptorChain;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyInterceptor;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.CounterClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.RecordingInterceptor;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.StableInterceptor;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class InterceptorChainTestCase {
+    
+    @Test
+    public void testInterceptorsCalledInOrder() throws Exception {
+        List<String> log = new ArrayList<String>();
+        CounterClass target = new CounterClass();
+        CounterClass proxy = ProxyFactory.createProxy(CounterClass.class, target, 
+                Arrays.asList(new RecordingInterceptor("A", log), new RecordingInterceptor("B", log)));
+        
+        assertEquals(5, proxy.increment(5));
+        assertEquals(5, target.getCount());
+        assertEquals(Arrays.asList("A:increment", "B:increment"), log);
+    }
+    
+    @Test
+    public void testInterceptorSkippedForOtherMethods() throws Exception {
+        List<String> log = new ArrayList<String>();
+        CounterClass target = new CounterClass();
+        CounterClass proxy = ProxyFactory.createProxy(CounterClass.class, target, 
+                Arrays.asList(new RecordingInterceptor("A", log), new RecordingInterceptor("B", log, "increment"), new RecordingInterceptor("C", log)));
+        
+        proxy.increment(3);
+        assertEquals(3, proxy.getCount());
+        assertEquals(Arrays.asList("A:increment", "B:increment", "C:increment", "A:getCount", "C:getCount"), log);
+    }
+    
+    @Test
+    public void testMethodWithoutInterceptorsCallsTarget() throws Exception {
+        List<String> log = new ArrayList<String>();
+        CounterClass target = new CounterClass();
+        CounterClass proxy = ProxyFactory.createProxy(CounterClass.class, target, 
+                Collections.singletonList(new RecordingInterceptor("A", log, "increment")));
+        
+        proxy.increment(2);
+        assertEquals(Collections.singletonList("A:increment"), log);
+        
+        //getCount() is not intercepted, but still reads the count of the target
+        assertEquals(2, proxy.getCount());
+        assertEquals(Collections.singletonList("A:increment"), log);
+        assertEquals(2, target.getCount());
+    }
+    
+    @Test
+    public void testInterceptorChangesArgumentsAndReturnValue() throws Exception {
+        CounterClass target = new CounterClass();
+        ProxyInterceptor doubler = new ProxyInterceptor() {
+            public boolean appliesTo(Method m) {
+                return m.getName().equals("increment");
+            }
+            
+            public Object intercept(Method m, Object[] args, InterceptorChain chain, int next) throws Throwable {
+                Object ret = chain.proceed(next, new Object[] {((Integer)args[0]) * 2});
+                return ((Integer)ret) + 100;
+            }
+        };
+        CounterClass proxy = ProxyFactory.createProxy(CounterClass.class, target, Collections.singletonList(doubler));
+        
+        assertEquals(108, proxy.increment(4));
+        assertEquals(8, target.getCount());
+    }
+    
+    @Test
+    public void testChainClassSharedByProxies() throws Exception {
+        List<String> log = new ArrayList<String>();
+        RecordingInterceptor a = new RecordingInterceptor("A", log, "increment");
+        RecordingInterceptor b = new RecordingInterceptor("B", log, "increment");
+        CounterClass proxyA = ProxyFactory.createProxy(CounterClass.class, new CounterClass(), Collections.singletonList(a));
+        CounterClass proxyB = ProxyFactory.createProxy(CounterClass.class, new CounterClass(), Collections.singletonList(b));
+        
+        assertNull(a.chain);
+        proxyA.increment(1);
+        proxyB.increment(1);
+        assertNotSame(a.chain, b.chain);
+        assertSame(a.chain.getClass(), b.chain.getClass());
+        assertSame(proxyA.getClass(), proxyB.getClass());
+    }
+    
+    @Test
+    public void testStableInterceptorsOnlyCheckedForFirstProxy() throws Exception {
+        StableInterceptor a = new StableInterceptor();
+        StableInterceptor b = new StableInterceptor();
+        CounterClass proxyA = ProxyFactory.createProxy(CounterClass.class, new CounterClass(), Collections.singletonList(a));
+        int calls = StableInterceptor.APPLIES_TO_CALLS.get();
+        assertTrue(calls > 0);
+        
+        CounterClass proxyB = ProxyFactory.createProxy(CounterClass.class, new CounterClass(), Collections.singletonList(b));
+        assertEquals(calls, StableInterceptor.APPLIES_TO_CALLS.get());
+        assertSame(proxyA.getClass(), proxyB.getClass());
+        
+        assertEquals(1, proxyA.increment(1));
+        assertEquals(2, proxyB.increment(2));
+        assertEquals(2, proxyB.getCount());
+        assertSame(a.method, b.method);
+        
+        //Different interceptor classes get checked again
+        List<String> log = new ArrayList<String>();
+        CounterClass proxyC = ProxyFactory.createProxy(CounterClass.class, new CounterClass(), 
+                Arrays.asList(new StableInterceptor(), new RecordingInterceptor("C", log)));
+        proxyC.getCount();
+        assertEquals(Collections.singletonList("C:getCount"), log);
+        assertTrue(StableInterceptor.APPLIES_TO_CALLS.get() > calls);
+    }
+    
+    @Test
+    public void testUnknownStep() throws Throwable {
+        RecordingInterceptor a = new RecordingInterceptor("A", new ArrayList<String>());
+        CounterClass proxy = ProxyFactory.createProxy(CounterClass.class, new CounterClass(), Collections.singletonList(a));
+        proxy.getCount();
+        try {
+            a.chain.proceed(-1, new Object[0]);
+            fail("Should have had error");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+    @Test
+    public void testNullInterceptor() throws Exception {
+        try {
+            ProxyFactory.createProxy(CounterClass.class, new CounterClass(), Collections.<ProxyInterceptor>singletonList(null));
+            fail("Should have had error");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.Arrays;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.Invocation;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.CornerCaseClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.CounterClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerUsingInvocation;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.PrimitiveClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.TypedClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class InvocationTestCase {
+    
+    @Test
+    public void testInvocationClassesDefinedOnFirstCall() throws Exception {
+        HandlerUsingInvocation<PrimitiveClass> handler = new HandlerUsingInvocation<PrimitiveClass>(new PrimitiveClass());
+        PrimitiveClass proxy = ProxyFactory.createProxy(PrimitiveClass.class, handler);
+        String invocationName = proxy.getClass().getName() + "$Invocation";
+        ClassLoader cl = proxy.getClass().getClassLoader();
+        for (int i = 0 ; i < PrimitiveClass.class.getDeclaredMethods().length ; i++) {
+            try {
+                Class.forName(invocationName + i, false, cl);
+                fail("Should not have invocation class " + i);
+            } catch (ClassNotFoundException expected) {
+            }
+        }
+        
+        assertEquals(5, proxy.testInt(5));
+        assertSame(Class.forName(invocationName + handler.invocation.getMethodIndex(), false, cl), handler.invocation.getClass());
+    }
+    
+    @Test
+    public void testPrimitiveAccessors() throws Exception {
+        HandlerUsingInvocation<CornerCaseClass> handler = new HandlerUsingInvocation<CornerCaseClass>(new CornerCaseClass()) {
+            @Override
+            protected void before(Invocation invocation) {
+                assertEquals(12, invocation.getInt(0));
+                assertEquals(34D, invocation.getDouble(1));
+                assertEquals(12f, invocation.getFloat(2));
+                assertEquals(5L, invocation.getLong(3));
+                assertEquals((short)3, invocation.getShort(4));
+                invocation.setInt(0, 99);
+                invocation.setLong(3, 7L);
+                invocation.setShort(4, (short)1);
+            }
+        };
+        CornerCaseClass proxy = ProxyFactory.createProxy(CornerCaseClass.class, handler);
+        
+        assertEquals("99-34-12-7-1", proxy.mixedParameters(12, 34D, 12f, 5L, (short)3));
+        assertEquals("mixedParameters", handler.invocation.getMethod().getName());
+        assertEquals(Arrays.asList((Object)99, 34D, 12f, 7L, (short)1), Arrays.asList(handler.invocation.getArguments()));
+    }
+    
+    @Test
+    public void testObjectAccessors() throws Exception {
+        HandlerUsingInvocation<TypedClass> handler = new HandlerUsingInvocation<TypedClass>(new TypedClass()) {
+            @Override
+            protected void before(Invocation invocation) {
+                if (invocation.getMethod().getName().equals("repeat")) {
+                    assertEquals("a", invocation.getObject(0));
+                    invocation.setObject(0, "b");
+                }
+            }
+        };
+        TypedClass proxy = ProxyFactory.createProxy(TypedClass.class, handler);
+        
+        assertEquals("bbb", proxy.repeat("a", 3));
+        try {
+            handler.invocation.setObject(0, Integer.valueOf(1));
+            fail("Should have had error");
+        } catch (ClassCastException expected) {
+        }
+        
+        assertFalse(proxy.not(true));
+        assertTrue(handler.invocation.getBoolean(0));
+        proxy.touch();
+        assertEquals(0, handler.invocation.getArguments().length);
+    }
+    
+    @Test
+    public void testWrongTypeOrIndex() throws Exception {
+        HandlerUsingInvocation<TypedClass> handler = new HandlerUsingInvocation<TypedClass>(new TypedClass());
+        TypedClass proxy = ProxyFactory.createProxy(TypedClass.class, handler);
+        
+        assertEquals("xx", proxy.repeat("x", 2));
+        Invocation invocation = handler.invocation;
+        assertEquals(2, invocation.getInt(1));
+        try {
+            invocation.getLong(1);
+            fail("Should have had error");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            invocation.getInt(0);
+            fail("Should have had error");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            invocation.getInt(2);
+            fail("Should have had error");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            invocation.setDouble(0, 1D);
+            fail("Should have had error");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+    @Test
+    public void testInvocationClassPerMethod() throws Exception {
+        HandlerUsingInvocation<TypedClass> handler = new HandlerUsingInvocation<TypedClass>(new TypedClass());
+        TypedClass proxy = ProxyFactory.createProxy(TypedClass.class, handler);
+        
+        assertEquals(3, proxy.add(1, 2));
+        Invocation first = handler.invocation;
+        assertEquals(7, proxy.add(3, 4));
+        assertSame(first.getClass(), handler.invocation.getClass());
+        assertEquals(first.getMethodIndex(), handler.invocation.getMethodIndex());
+        
+        assertEquals(4L, proxy.twice(2L));
+        assertFalse(first.getClass() == handler.invocation.getClass());
+        assertEquals(TypedClass.class.getMethod("twice", Long.TYPE), handler.invocation.getMethod());
+    }
+    
+    @Test
+    public void testInvokeSuper() throws Exception {
+        CounterClass target = new CounterClass();
+        HandlerUsingInvocation<CounterClass> handler = new HandlerUsingInvocation<CounterClass>(target);
+        handler.invokeSuper = true;
+        CounterClass proxy = ProxyFactory.createProxy(CounterClass.class, handler);
+        
+        assertEquals(3, proxy.increment(3));
+        assertEquals(3, proxy.getCount());
+        assertEquals(0, target.getCount());
+    }
+    
+    @Test
+    public void testInvokeMethodByIndex() throws Throwable {
+        CounterClass target = new CounterClass();
+        HandlerUsingInvocation<CounterClass> handler = new HandlerUsingInvocation<CounterClass>(target);
+        CounterClass proxy = ProxyFactory.createProxy(CounterClass.class, handler);
+        
+        proxy.increment(1);
+        int index = handler.invocation.getMethodIndex();
+        assertEquals(6, handler.invokeMethod(index, new Object[] {5}));
+        assertEquals(5, handler.invocation.getInt(0));
+        assertEquals(6, target.getCount());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.CheckedException;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.CounterClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.ExceptionClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerInvokingSuper;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.OtherPackageChildClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class InvokeSuperTestCase {
+
+	@Test
+	public void testInvokeSuperUsesProxyState() throws Exception {
+		CounterClass target = new CounterClass();
+		HandlerInvokingSuper<CounterClass> handler = new HandlerInvokingSuper<CounterClass>(target);
+		CounterClass proxy = ProxyFactory.createProxy(CounterClass.class, handler);
+		
+		assertEquals(2, proxy.increment(2));
+		assertEquals(5, proxy.increment(3));
+		assertEquals(5, proxy.getCount());
+		assertEquals(0, target.getCount());
+		assertEquals(Arrays.asList("increment", "increment", "getCount"), handler.called);
+	}
+	
+	@Test
+	public void testInvokeSuperWithSharedHandler() throws Exception {
+		HandlerInvokingSuper<CounterClass> handler = new HandlerInvokingSuper<CounterClass>(new CounterClass());
+		CounterClass proxyA = ProxyFactory.createProxy(CounterClass.class, handler);
+		CounterClass proxyB = ProxyFactory.createProxy(CounterClass.class, handler);
+		CounterClass proxyC = ProxyFactory.createDelegatingProxy(CounterClass.class, handler);
+		
+		assertEquals(2, proxyA.increment(2));
+		assertEquals(3, proxyB.increment(3));
+		assertEquals(4, proxyC.increment(4));
+		assertEquals(7, proxyA.increment(5));
+		assertEquals(7, proxyA.getCount());
+		assertEquals(3, proxyB.getCount());
+		assertEquals(4, proxyC.getCount());
+	}
+	
+	@Test
+	public void testInvokeSuperProtectedMethodFromOtherPackage() throws Exception {
+		HandlerInvokingSuper<OtherPackageChildClass> handler = new HandlerInvokingSuper<OtherPackageChildClass>(new OtherPackageChildClass());
+		OtherPackageChildClass proxy = ProxyFactory.createProxy(OtherPackageChildClass.class, handler);
+		
+		assertEquals(30, proxy.callProtectedMethod(3));
+		assertEquals(Arrays.asList("callProtectedMethod", "protectedMethod"), handler.called);
+	}
+	
+	@Test
+	public void testInvokeSuperThrowsUnwrappedException() throws Exception {
+		HandlerInvokingSuper<ExceptionClass> handler = new HandlerInvokingSuper<ExceptionClass>(new ExceptionClass());
+		ExceptionClass proxy = ProxyFactory.createProxy(ExceptionClass.class, handler);
+		try {
+			proxy.raiseCheckedException();
+			fail("Should have had checked exception");
+		} catch (CheckedException expected) {
+		}
+	}
+	
+	@Test
+	public void testSuperMethodsGenerated() throws Exception {
+		CounterClass proxy = ProxyFactory.createProxy(CounterClass.class, new HandlerInvokingSuper<CounterClass>(new CounterClass()));
+		boolean found = false;
+		for (Method m : proxy.getClass().getDeclaredMethods()) {
+			if (m.getName().startsWith("super$increment$")) {
+				found = true;
+				int modifiers = m.getModifiers();
+				assertFalse(Modifier.isPublic(modifiers) || Modifier.isProtected(modifiers) || Modifier.isPrivate(modifiers));
+			}
+		}
+		assertTrue(found);
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.ScanningProbe;
+
+/**
+ * Loads the proxy factory and support classes itself rather than asking its parent, so that tests get fresh 
+ * copies of the caches, and records which ones got loaded
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+class IsolatingClassLoader extends URLClassLoader {
+	
+	static final String PACKAGE = "org.jboss.javassist.classfilewriter.proxyfactory.";
+	
+	private final boolean hideClassFiles;
+	private final Set<String> loaded = Collections.synchronizedSet(new HashSet<String>());
+	
+	/**
+	 * @param hideClassFiles true to not return the class files of the support classes as resources
+	 */
+	IsolatingClassLoader(boolean hideClassFiles) {
+		super(new URL[] {getLocation(ProxyFactory.class), getLocation(ScanningProbe.class)}, IsolatingClassLoader.class.getClassLoader());
+		this.hideClassFiles = hideClassFiles;
+	}
+	
+	private static URL getLocation(Class<?> clazz) {
+		return clazz.getProtectionDomain().getCodeSource().getLocation();
+	}
+	
+	boolean isLoaded(String name) {
+		return loaded.contains(name);
+	}
+	
+	@Override
+	protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		if (!name.startsWith(PACKAGE))
+			return super.loadClass(name, resolve);
+		Class<?> clazz = findLoadedClass(name);
+		if (clazz == null) {
+			clazz = findClass(name);
+			loaded.add(name);
+		}
+		if (resolve)
+			resolveClass(clazz);
+		return clazz;
+	}
+	
+	@Override
+	public URL getResource(String name) {
+		if (hideClassFiles && name.startsWith(PACKAGE.replace('.', '/') + "support/") && name.endsWith(".class"))
+			return null;
+		return super.getResource(name);
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyHandler;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.ManyMethodsClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class ManyMethodsProxyFactoryTestCase {
+
+	@Test
+	public void testAlternatingFilters() throws Exception {
+		AlternatingHandler evenHandler = new AlternatingHandler(new ManyMethodsClass(), 0);
+		AlternatingHandler oddHandler = new AlternatingHandler(new ManyMethodsClass(), 1);
+		ManyMethodsClass even = ProxyFactory.createProxy(ManyMethodsClass.class, evenHandler);
+		ManyMethodsClass odd = ProxyFactory.createProxy(ManyMethodsClass.class, oddHandler);
+		assertFalse(even.getClass() == odd.getClass());
+		assertSame(even.getClass(), ProxyFactory.createProxy(ManyMethodsClass.class, new AlternatingHandler(new ManyMethodsClass(), 0)).getClass());
+		
+		//The names don't grow with the number of methods
+		int expected = ManyMethodsClass.class.getName().length() + 2 + 16;
+		assertEquals(expected, even.getClass().getName().length());
+		assertEquals(expected, odd.getClass().getName().length());
+		
+		assertEquals(71, even.method70(1));
+		assertTrue(evenHandler.invoked);
+		evenHandler.invoked = false;
+		assertEquals(72, even.method71(1));
+		assertFalse(evenHandler.invoked);
+		
+		assertEquals(71, odd.method70(1));
+		assertFalse(oddHandler.invoked);
+		assertEquals(100, odd.method99(1));
+		assertTrue(oddHandler.invoked);
+	}
+	
+	private static class AlternatingHandler extends ProxyHandler<ManyMethodsClass> {
+		final int remainder;
+		boolean invoked;
+		
+		AlternatingHandler(ManyMethodsClass instance, int remainder) {
+			super(instance);
+			this.remainder = remainder;
+		}
+
+		@Override
+		protected Object invokeMethod(ManyMethodsClass instance, Method m, Object[] args) throws Throwable {
+			invoked = true;
+			return m.invoke(instance, args);
+		}
+
+		@Override
+		public boolean isHandled(Method m) {
+			return Integer.parseInt(m.getName().substring("method".length())) % 2 == remainder;
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.MethodInformationCache;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.ScanningProbe;
+import org.junit.Test;
+
+/**
+ * Checks the methods read from the class files against the ones found by reflection. Each test loads the proxy 
+ * factory and the support classes in a new classloader, so that it can see which classes get loaded and 
+ * switch to reflective scanning. 
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class MethodScanningTestCase {
+	
+	private static final String SCANNED_CLASS = IsolatingClassLoader.PACKAGE + "support.ScannedClass";
+	
+	private static final String SCANNED_PARAMETER = IsolatingClassLoader.PACKAGE + "support.ScannedParameter";
+	
+	private static final String OVERRIDDEN_CLASS = IsolatingClassLoader.PACKAGE + "support.OverriddenClass";
+	
+	private static final String OVERRIDING_CLASS = IsolatingClassLoader.PACKAGE + "support.OverridingClass";
+	
+	@Test
+	public void testScannerMatchesReflection() throws Exception {
+		List<String> scanned = getSortedProxyableMethods(new IsolatingClassLoader(false), false);
+		List<String> reflected = getSortedProxyableMethods(new IsolatingClassLoader(false), true);
+		assertEquals(6, scanned.size());
+		assertEquals(reflected, scanned);
+	}
+	
+	@Test
+	public void testScannerFallsBackWithoutClassBytes() throws Exception {
+		IsolatingClassLoader loader = new IsolatingClassLoader(true);
+		List<String> methods = getSortedProxyableMethods(loader, false);
+		//Only reflection loads the parameter types
+		assertTrue(loader.isLoaded(SCANNED_PARAMETER));
+		assertEquals(getSortedProxyableMethods(new IsolatingClassLoader(false), false), methods);
+	}
+	
+	@Test
+	public void testNoParameterTypesLoadedBeforeFirstHandlerCall() throws Exception {
+		IsolatingClassLoader loader = new IsolatingClassLoader(false);
+		Class<?> probe = loader.loadClass(ScanningProbe.class.getName());
+		
+		probe.getMethod("warmUp", Class.class).invoke(null, loader.loadClass(SCANNED_CLASS));
+		assertFalse(loader.isLoaded(SCANNED_PARAMETER));
+		
+		Object proxy = probe.getMethod("createProxy").invoke(null);
+		assertFalse(loader.isLoaded(SCANNED_PARAMETER));
+		
+		probe.getMethod("count", loader.loadClass(SCANNED_CLASS)).invoke(null, proxy);
+		assertTrue(loader.isLoaded(SCANNED_PARAMETER));
+	}
+	
+	@Test
+	public void testConcurrentFirstLookupsShareSnapshot() throws Exception {
+		IsolatingClassLoader loader = new IsolatingClassLoader(false);
+		final Method getSnapshot = loader.loadClass(ScanningProbe.class.getName()).getMethod("getMethodsSnapshot", Class.class);
+		final Class<?> clazz = loader.loadClass(SCANNED_CLASS);
+		
+		int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for (int i = 0 ; i < threads ; i++) {
+				futures.add(executor.submit(new Callable<Object>() {
+					public Object call() throws Exception {
+						start.await();
+						return getSnapshot.invoke(null, clazz);
+					}
+				}));
+			}
+			start.countDown();
+			
+			Object snapshot = futures.get(0).get(30, TimeUnit.SECONDS);
+			assertNotNull(snapshot);
+			for (Future<Object> future : futures)
+				assertSame(snapshot, future.get(30, TimeUnit.SECONDS));
+			assertSame(snapshot, getSnapshot.invoke(null, clazz));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testFirstLookupsOfDifferentClassesDoNotBlock() throws Exception {
+		final BlockingClassLoader loader = new BlockingClassLoader(SCANNED_CLASS);
+		final Method getSnapshot = loader.loadClass(ScanningProbe.class.getName()).getMethod("getMethodsSnapshot", Class.class);
+		final Class<?> blocked = loader.loadClass(SCANNED_CLASS);
+		final Class<?> other = loader.loadClass(IsolatingClassLoader.PACKAGE + "support.CounterClass");
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Object> blockedLookup = executor.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					return getSnapshot.invoke(null, blocked);
+				}
+			});
+			assertTrue(loader.reading.await(30, TimeUnit.SECONDS));
+			
+			//The scan of the other class completes while the first one is still reading its class file 
+			Future<Object> otherLookup = executor.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					return getSnapshot.invoke(null, other);
+				}
+			});
+			assertNotNull(otherLookup.get(30, TimeUnit.SECONDS));
+			assertFalse(blockedLookup.isDone());
+			
+			loader.release.countDown();
+			assertNotNull(blockedLookup.get(30, TimeUnit.SECONDS));
+		} finally {
+			loader.release.countDown();
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testMergeMatchesUnmergedMethodsFromClassFile() throws Exception {
+		checkMergeMatchesUnmergedMethods(new IsolatingClassLoader(false), false);
+	}
+	
+	@Test
+	public void testMergeMatchesUnmergedMethodsFromReflection() throws Exception {
+		checkMergeMatchesUnmergedMethods(new IsolatingClassLoader(false), true);
+	}
+	
+	@Test
+	public void testMergeMatchesUnmergedMethodsWithoutClassBytes() throws Exception {
+		checkMergeMatchesUnmergedMethods(new IsolatingClassLoader(true), false);
+	}
+	
+	private void checkMergeMatchesUnmergedMethods(IsolatingClassLoader loader, boolean reflective) throws Exception {
+		List<String> merged = getSortedProxyableMethods(loader, reflective, "getSortedProxyableMethods", OVERRIDING_CLASS);
+		List<String> unmerged = getSortedProxyableMethods(loader, reflective, "getUnmergedProxyableMethods", OVERRIDING_CLASS);
+		assertEquals(unmerged, merged);
+		
+		//covariant(), inherited(int), inherited(long), overridden(int), throwing() 
+		assertEquals(5, merged.size());
+		assertTrue(merged.get(0), merged.get(0).startsWith(OVERRIDING_CLASS + " public covariant()"));
+		assertTrue(merged.get(1), merged.get(1).startsWith(OVERRIDDEN_CLASS + " public inherited(I)"));
+		assertTrue(merged.get(2), merged.get(2).startsWith(OVERRIDING_CLASS + " public inherited(J)"));
+		assertTrue(merged.get(3), merged.get(3).startsWith(OVERRIDING_CLASS + " public overridden(I)"));
+		assertEquals(OVERRIDING_CLASS + " public throwing()V throws []", merged.get(4));
+		
+		//The superclass was cached while scanning the subclass 
+		assertEquals(getSortedProxyableMethods(loader, reflective, "getUnmergedProxyableMethods", OVERRIDDEN_CLASS), 
+				getSortedProxyableMethods(loader, reflective, "getSortedProxyableMethods", OVERRIDDEN_CLASS));
+	}
+	
+	private static List<String> getSortedProxyableMethods(IsolatingClassLoader loader, boolean reflective) throws Exception {
+		return getSortedProxyableMethods(loader, reflective, "getSortedProxyableMethods", SCANNED_CLASS);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static List<String> getSortedProxyableMethods(IsolatingClassLoader loader, boolean reflective, String probeMethod, String className) throws Exception {
+		//The property is read when the cache class is initialised
+		if (reflective)
+			System.setProperty(MethodInformationCache.REFLECTIVE_SCANNING_PROPERTY, "true");
+		try {
+			Class.forName(MethodInformationCache.class.getName(), true, loader);
+		} finally {
+			System.clearProperty(MethodInformationCache.REFLECTIVE_SCANNING_PROPERTY);
+		}
+		Class<?> probe = loader.loadClass(ScanningProbe.class.getName());
+		return (List<String>)probe.getMethod(probeMethod, Class.class).invoke(null, loader.loadClass(className));
+	}
+	
+	/**
+	 * Holds up reading the class file of a class until released
+	 */
+	private static class BlockingClassLoader extends IsolatingClassLoader {
+		final CountDownLatch reading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		private final String blockedResource;
+		
+		BlockingClassLoader(String blockedClass) {
+			super(false);
+			blockedResource = blockedClass.replace('.', '/') + ".class";
+		}
+		
+		@Override
+		public URL getResource(String name) {
+			if (name.equals(blockedResource)) {
+				reading.countDown();
+				try {
+					release.await(30, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return super.getResource(name);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyClassGenerator;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyHandler;
+import org.jboss.javassist.classfilewriter.proxyfactory.StableFilters;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerNotCallingTarget;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.PregeneratedClass;
+import org.junit.Test;
+
+/**
+ * Writes the generated proxies into the test classes directory, so that they are found
+ * by the classloader of the target class.
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class PregeneratedProxyTestCase {
+
+	@Test
+	public void testPregeneratedProxyUsed() throws Exception {
+		File dir = getClassesDirectory();
+		List<String> generated = ProxyClassGenerator.generate(dir, PregeneratedClass.class.getClassLoader(), PregeneratedClass.class.getName());
+		assertEquals(3, generated.size());
+		try {
+			PregeneratedClass target = new PregeneratedClass();
+			HandlerNotCallingTarget<PregeneratedClass> handler = new HandlerNotCallingTarget<PregeneratedClass>(target);
+			PregeneratedClass proxy = ProxyFactory.createProxy(PregeneratedClass.class, handler);
+			assertEquals(generated.get(0), proxy.getClass().getName());
+			
+			assertEquals("A", proxy.method("A"));
+			assertEquals("method", handler.m.getName());
+		} finally {
+			delete(dir, generated);
+		}
+	}
+	
+	@Test
+	public void testIncompletePregeneratedProxy() throws Exception {
+		File dir = getClassesDirectory();
+		List<String> generated = ProxyClassGenerator.generate(dir, PregeneratedClass.class.getClassLoader(), 
+				PregeneratedClass.class.getName() + ":" + NotHandlingHandler.class.getName());
+		assertEquals(3, generated.size());
+		
+		//Remove the instantiator so we can tell the pregenerated proxy class was looked up
+		delete(dir, generated.subList(1, 2));
+		try {
+			ProxyFactory.createProxy(PregeneratedClass.class, new NotHandlingHandler(new PregeneratedClass()));
+			fail("Should have had error");
+		} catch (RuntimeException expected) {
+		} finally {
+			delete(dir, generated);
+		}
+	}
+	
+	@Test
+	public void testPregeneratedProxyNameDependsOnMethods() throws Exception {
+		File dir = File.createTempFile("proxies", "");
+		dir.delete();
+		try {
+			String name = generateVersioned(dir, "public int value(int i) { return i; }");
+			assertEquals(name, generateVersioned(dir, "public int value(int i) { return i; }"));
+			//A proxy class generated for another version of the target class must not be picked up
+			assertFalse(name.equals(generateVersioned(dir, "public int value(long l) { return 0; }")));
+			assertFalse(name.equals(generateVersioned(dir, "protected int value(int i) { return i; }")));
+		} finally {
+			deleteAll(dir);
+		}
+	}
+	
+	/**
+	 * Generate the proxy classes for a version of the target class defined in its own classloader
+	 * 
+	 * @return the name of the proxy class
+	 */
+	private String generateVersioned(File dir, String method) throws Exception {
+		final String className = PregeneratedClass.class.getPackage().getName() + ".VersionedClass";
+		ClassPool pool = new ClassPool(true);
+		CtClass ctClass = pool.makeClass(className);
+		ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
+		ctClass.addMethod(CtNewMethod.make(method, ctClass));
+		final byte[] bytes = ctClass.toBytecode();
+		
+		ClassLoader loader = new ClassLoader(PregeneratedProxyTestCase.class.getClassLoader()) {
+			@Override
+			protected Class<?> findClass(String name) throws ClassNotFoundException {
+				if (!name.equals(className))
+					throw new ClassNotFoundException(name);
+				return defineClass(name, bytes, 0, bytes.length);
+			}
+		};
+		return ProxyClassGenerator.generate(dir, loader, className).get(0);
+	}
+	
+	private void deleteAll(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory())
+					deleteAll(file);
+				else
+					file.delete();
+			}
+		}
+		dir.delete();
+	}
+	
+	@Test
+	public void testUnstableHandlerOverridingFilters() throws Exception {
+		try {
+			ProxyClassGenerator.generate(getClassesDirectory(), PregeneratedClass.class.getClassLoader(), 
+					PregeneratedClass.class.getName() + ":" + UnstableHandler.class.getName());
+			fail("Should have had error");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	private File getClassesDirectory() throws Exception {
+		File dir = new File(PregeneratedClass.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		assertTrue(dir.isDirectory());
+		return dir;
+	}
+	
+	private void delete(File dir, List<String> classes) {
+		for (String name : classes)
+			new File(dir, name.replace('.', '/') + ".class").delete();
+	}
+	
+	@StableFilters
+	public static class NotHandlingHandler extends ProxyHandler<PregeneratedClass> {
+		public NotHandlingHandler(PregeneratedClass instance) {
+			super(instance);
+		}
+
+		@Override
+		public boolean isHandled(Method m) {
+			return false;
+		}
+
+		@Override
+		protected Object invokeMethod(PregeneratedClass instance, Method m, Object[] args) {
+			return null;
+		}
+	}
+	
+	public static class UnstableHandler extends NotHandlingHandler {
+		public UnstableHandler(PregeneratedClass instance) {
+			super(instance);
+		}
+	}
+}
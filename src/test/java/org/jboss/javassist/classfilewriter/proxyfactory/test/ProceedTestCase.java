@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+import java.lang.reflect.Method;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.CheckedException;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.ChildClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.ExceptionClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerProceeding;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.OtherPackageChildClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.PrimitiveClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.other.OtherPackageParentClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class ProceedTestCase {
+
+	@Test
+	public void testProceedPrimitives() throws Exception {
+		HandlerProceeding<PrimitiveClass> handler = new HandlerProceeding<PrimitiveClass>(new PrimitiveClass());
+		PrimitiveClass proxy = ProxyFactory.createProxy(PrimitiveClass.class, handler);
+		
+		proxy.test();
+		assertEquals("test", handler.m.getName());
+		assertEquals("abc", proxy.testString("abc"));
+		assertEquals(true, proxy.testBoolean(true));
+		assertEquals((byte)3, proxy.testByte((byte)3));
+		assertEquals('x', proxy.testChar('x'));
+		assertEquals(1.5d, proxy.testDouble(1.5d));
+		assertEquals(2.5f, proxy.testFloat(2.5f));
+		assertEquals(7, proxy.testInt(7));
+		assertEquals(8L, proxy.testLong(8L));
+		assertEquals((short)9, proxy.testShort((short)9));
+	}
+	
+	@Test
+	public void testProceedInheritedMethod() throws Exception {
+		HandlerProceeding<ChildClass> handler = new HandlerProceeding<ChildClass>(new ChildClass());
+		ChildClass proxy = ProxyFactory.createProxy(ChildClass.class, handler);
+		assertEquals("4", proxy.overridden(4, 5));
+		assertEquals(ChildClass.class, handler.m.getDeclaringClass());
+	}
+	
+	@Test
+	public void testProceedProtectedMethodFromOtherPackage() throws Throwable {
+		HandlerProceeding<OtherPackageChildClass> handler = new HandlerProceeding<OtherPackageChildClass>(new OtherPackageChildClass());
+		OtherPackageChildClass proxy = ProxyFactory.createProxy(OtherPackageChildClass.class, handler);
+		assertEquals(30, proxy.callProtectedMethod(3));
+		assertEquals("callProtectedMethod", handler.m.getName());
+		
+		//The invoker cannot call this directly
+		Method m = OtherPackageParentClass.class.getDeclaredMethod("protectedMethod", Integer.TYPE);
+		assertEquals(40, handler.proceedWithMethod(m, new Object[] {4}));
+	}
+	
+	@Test
+	public void testProceedThrowsUnwrappedException() throws Exception {
+		HandlerProceeding<ExceptionClass> handler = new HandlerProceeding<ExceptionClass>(new ExceptionClass());
+		ExceptionClass proxy = ProxyFactory.createProxy(ExceptionClass.class, handler);
+		try {
+			proxy.raiseCheckedException();
+			fail("Should have had checked exception");
+		} catch (CheckedException expected) {
+		}
+	}
+	
+	@Test
+	public void testProceedWithBadIndex() throws Throwable {
+		HandlerProceeding<PrimitiveClass> handler = new HandlerProceeding<PrimitiveClass>(new PrimitiveClass());
+		ProxyFactory.createProxy(PrimitiveClass.class, handler);
+		try {
+			handler.proceedWithIndex(-1, new Object[0]);
+			fail("Should have had error");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+	
+	@Test
+	public void testProceedWithoutProxy() throws Throwable {
+		HandlerProceeding<PrimitiveClass> handler = new HandlerProceeding<PrimitiveClass>(new PrimitiveClass());
+		assertNull(handler.m);
+		try {
+			handler.proceedWithIndex(0, new Object[0]);
+			fail("Should have had error");
+		} catch (IllegalStateException expected) {
+		}
+	}
+}
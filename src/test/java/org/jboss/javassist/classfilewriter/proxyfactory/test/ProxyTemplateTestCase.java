@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.lang.reflect.Method;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyHandler;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyTemplate;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.FinalClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.SomeClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class ProxyTemplateTestCase {
+
+	@Test
+	public void testPrepareWithHandlerClass() throws Exception {
+		ProxyTemplate<SomeClass> template = ProxyFactory.prepare(SomeClass.class, DefaultSomeClassHandler.class);
+		assertSame(SomeClass.class, template.getTargetClass());
+		
+		SomeClass instanceA = new SomeClass();
+		SomeClass instanceB = new SomeClass();
+		DefaultSomeClassHandler handlerA = new DefaultSomeClassHandler(instanceA);
+		DefaultSomeClassHandler handlerB = new DefaultSomeClassHandler(instanceB);
+		SomeClass proxyA = template.newProxy(handlerA);
+		SomeClass proxyB = template.newProxy(handlerB);
+		assertSame(template.getProxyClass(), proxyA.getClass());
+		assertSame(template.getProxyClass(), proxyB.getClass());
+		assertSame(proxyA.getClass(), ProxyFactory.createProxy(SomeClass.class, new DefaultSomeClassHandler(instanceA)).getClass());
+		
+		assertEquals(1, proxyA.method(1));
+		assertTrue(handlerA.invoked);
+		assertFalse(handlerB.invoked);
+		handlerA.invoked = false;
+		
+		assertEquals("B", proxyB.method("B"));
+		assertFalse(handlerA.invoked);
+		assertTrue(handlerB.invoked);
+	}
+	
+	@Test
+	public void testPrepareWithHandlerClassOverridingFilters() throws Exception {
+		try {
+			ProxyFactory.prepare(SomeClass.class, IntMethodSomeClassHandler.class);
+			fail("Should have had error");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+	
+	@Test
+	public void testPrepareWithSampleHandler() throws Exception {
+		ProxyTemplate<SomeClass> template = ProxyFactory.prepare(SomeClass.class, new IntMethodSomeClassHandler(new SomeClass()));
+		
+		IntMethodSomeClassHandler handler = new IntMethodSomeClassHandler(new SomeClass());
+		SomeClass proxy = template.newProxy(handler);
+		assertEquals(1, proxy.method(1));
+		assertTrue(handler.invoked);
+		handler.invoked = false;
+		
+		assertEquals("A", proxy.method("A"));
+		assertFalse(handler.invoked);
+	}
+	
+	@Test
+	public void testWrongHandlerClass() throws Exception {
+		ProxyTemplate<SomeClass> template = ProxyFactory.prepare(SomeClass.class, DefaultSomeClassHandler.class);
+		try {
+			template.newProxy(new IntMethodSomeClassHandler(new SomeClass()));
+			fail("Should have had error");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+	
+	@Test
+	public void testCannotPrepareFinalClass() throws Exception {
+		try {
+			ProxyFactory.prepare(FinalClass.class, new NoopHandler<FinalClass>(new FinalClass()));
+			fail("Should have had error");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+	
+	private static class DefaultSomeClassHandler extends ProxyHandler<SomeClass>{
+		boolean invoked;
+		
+		protected DefaultSomeClassHandler(SomeClass instance) {
+	        super(instance);
+        }
+
+		@Override
+        protected Object invokeMethod(SomeClass instance, Method m, Object[] args) throws Throwable {
+			invoked = true;
+	        return m.invoke(instance, args);
+        }
+	}
+	
+	private static class IntMethodSomeClassHandler extends DefaultSomeClassHandler{
+		protected IntMethodSomeClassHandler(SomeClass instance) {
+	        super(instance);
+        }
+
+		@Override
+        public boolean isHandled(Method m) {
+			return m.getParameterTypes()[0] == Integer.TYPE;
+        }
+	}
+	
+	private static class NoopHandler<T> extends ProxyHandler<T>{
+		protected NoopHandler(T instance) {
+	        super(instance);
+        }
+
+		@Override
+        protected Object invokeMethod(T instance, Method m, Object[] args) {
+	        return null;
+        }
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyHandler;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.CounterClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerNotCallingTarget;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerUsingInvocation;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.PrimitiveClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class SingletonProxyTestCase {
+    
+    @Test
+    public void testHandlerInStaticFinalField() throws Exception {
+        PrimitiveClass target = new PrimitiveClass();
+        HandlerNotCallingTarget<PrimitiveClass> handler = new HandlerNotCallingTarget<PrimitiveClass>(target);
+        PrimitiveClass proxy = ProxyFactory.createSingletonProxy(PrimitiveClass.class, handler);
+        
+        //Set on the proxy class before the proxy was created
+        Field field = proxy.getClass().getDeclaredField("_proxy$Handler");
+        assertTrue(Modifier.isStatic(field.getModifiers()));
+        assertFalse(Modifier.isFinal(field.getModifiers()));
+        field.setAccessible(true);
+        assertSame(handler, field.get(null));
+        
+        proxy.test();
+        assertEquals("test", handler.m.getName());
+        assertSame(target, handler.instance);
+        
+        //Copied into the methods holder when the handler was first called
+        field = Class.forName(proxy.getClass().getName() + "$Methods", false, proxy.getClass().getClassLoader()).getDeclaredField("_proxy$Handler");
+        assertTrue(Modifier.isStatic(field.getModifiers()));
+        assertTrue(Modifier.isFinal(field.getModifiers()));
+        field.setAccessible(true);
+        assertSame(handler, field.get(null));
+    }
+    
+    @Test
+    public void testProxyClassPerHandler() throws Exception {
+        HandlerNotCallingTarget<PrimitiveClass> handlerA = new HandlerNotCallingTarget<PrimitiveClass>(new PrimitiveClass());
+        HandlerNotCallingTarget<PrimitiveClass> handlerB = new HandlerNotCallingTarget<PrimitiveClass>(new PrimitiveClass());
+        PrimitiveClass proxyA = ProxyFactory.createSingletonProxy(PrimitiveClass.class, handlerA);
+        PrimitiveClass proxyB = ProxyFactory.createSingletonProxy(PrimitiveClass.class, handlerB);
+        assertFalse(proxyA.getClass() == proxyB.getClass());
+        
+        proxyA.test();
+        assertEquals("test", handlerA.m.getName());
+        assertEquals(null, handlerB.m);
+    }
+    
+    @Test
+    public void testSingletonWithInvocations() throws Exception {
+        CounterClass target = new CounterClass();
+        HandlerUsingInvocation<CounterClass> handler = new HandlerUsingInvocation<CounterClass>(target);
+        CounterClass proxy = ProxyFactory.createSingletonProxy(CounterClass.class, handler);
+        
+        assertEquals(4, proxy.increment(4));
+        assertEquals(4, target.getCount());
+        assertEquals(4, handler.invocation.getInt(0));
+    }
+    
+    @Test
+    public void testNoPublicHandlerLookup() throws Exception {
+        for (Method method : ProxyFactory.class.getMethods()) {
+            assertFalse(method.getName(), ProxyHandler.class.isAssignableFrom(method.getReturnType()));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyHandler;
+import org.jboss.javassist.classfilewriter.proxyfactory.StableFilters;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.SomeClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class StableFiltersTestCase {
+
+	@Test
+	public void testStableFiltersOnlyEvaluatedOnce() throws Exception {
+		SomeClass instanceA = new SomeClass();
+		SomeClass instanceB = new SomeClass();
+		StableIntMethodHandler handlerA = new StableIntMethodHandler(instanceA);
+		StableIntMethodHandler handlerB = new StableIntMethodHandler(instanceB);
+		
+		SomeClass proxyA = ProxyFactory.createProxy(SomeClass.class, handlerA);
+		assertEquals(2, handlerA.filterCalls);
+		SomeClass proxyB = ProxyFactory.createProxy(SomeClass.class, handlerB);
+		assertEquals(0, handlerB.filterCalls);
+		assertSame(proxyA.getClass(), proxyB.getClass());
+		
+		assertEquals(1, proxyA.method(1));
+		assertTrue(handlerA.invoked);
+		assertFalse(handlerB.invoked);
+		handlerA.invoked = false;
+		
+		assertEquals(2, proxyB.method(2));
+		assertFalse(handlerA.invoked);
+		assertTrue(handlerB.invoked);
+		handlerB.invoked = false;
+		
+		assertEquals("A", proxyB.method("A"));
+		assertFalse(handlerB.invoked);
+	}
+	
+	@Test
+	public void testUnstableFiltersAlwaysEvaluated() throws Exception {
+		SomeClass instanceA = new SomeClass();
+		SomeClass instanceB = new SomeClass();
+		UnstableIntMethodHandler handlerA = new UnstableIntMethodHandler(instanceA);
+		UnstableIntMethodHandler handlerB = new UnstableIntMethodHandler(instanceB);
+		
+		SomeClass proxyA = ProxyFactory.createProxy(SomeClass.class, handlerA);
+		assertEquals(2, handlerA.filterCalls);
+		SomeClass proxyB = ProxyFactory.createProxy(SomeClass.class, handlerB);
+		assertEquals(2, handlerB.filterCalls);
+		assertSame(proxyA.getClass(), proxyB.getClass());
+	}
+	
+	@Test
+	public void testStableFiltersNotInherited() throws Exception {
+		SomeClass instanceA = new SomeClass();
+		SomeClass instanceB = new SomeClass();
+		UnstableIntMethodHandler handlerA = new UnstableIntMethodHandler(instanceA);
+		StringMethodHandler handlerB = new StringMethodHandler(instanceB);
+		
+		SomeClass proxyA = ProxyFactory.createProxy(SomeClass.class, handlerA);
+		SomeClass proxyB = ProxyFactory.createProxy(SomeClass.class, handlerB);
+		assertFalse(proxyA.getClass() == proxyB.getClass());
+		
+		assertEquals("B", proxyB.method("B"));
+		assertTrue(handlerB.invoked);
+		handlerB.invoked = false;
+		assertEquals(3, proxyB.method(3));
+		assertFalse(handlerB.invoked);
+	}
+	
+	private static class UnstableIntMethodHandler extends ProxyHandler<SomeClass>{
+		boolean invoked;
+		int filterCalls;
+		
+		protected UnstableIntMethodHandler(SomeClass instance) {
+	        super(instance);
+        }
+
+		@Override
+        protected Object invokeMethod(SomeClass instance, Method m, Object[] args) throws Throwable {
+			invoked = true;
+	        return m.invoke(instance, args);
+        }
+
+		@Override
+        public boolean isHandled(Method m) {
+			filterCalls++;
+			return m.getParameterTypes()[0] == Integer.TYPE;
+        }
+	}
+	
+	@StableFilters
+	private static class StableIntMethodHandler extends UnstableIntMethodHandler{
+		protected StableIntMethodHandler(SomeClass instance) {
+	        super(instance);
+        }
+	}
+
+	private static class StringMethodHandler extends StableIntMethodHandler{
+		protected StringMethodHandler(SomeClass instance) {
+	        super(instance);
+        }
+
+		@Override
+        public boolean isHandled(Method m) {
+			return m.getParameterTypes()[0] == String.class;
+        }
+	}
+}
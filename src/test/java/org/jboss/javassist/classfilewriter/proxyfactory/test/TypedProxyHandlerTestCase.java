@@ -0,0 +1,211 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.TypedProxyHandler;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.TypedClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class TypedProxyHandlerTestCase {
+
+	@Test
+	public void testTypedMethodsCalled() throws Exception {
+		TypedHandler handler = new TypedHandler(new TypedClass());
+		TypedClass proxy = ProxyFactory.createProxy(TypedClass.class, handler);
+		
+		assertEquals(13, proxy.add(6, 7));
+		assertEquals("add", handler.typed);
+		assertNull(handler.boxed);
+		handler.typed = null;
+		
+		assertEquals(8L, proxy.twice(4L));
+		assertEquals("twice", handler.typed);
+		assertNull(handler.boxed);
+		handler.typed = null;
+		
+		assertEquals(1.5d, proxy.half(3d));
+		assertEquals("half", handler.typed);
+		assertNull(handler.boxed);
+		handler.typed = null;
+		
+		assertEquals("abab", proxy.repeat("ab", 2));
+		assertEquals("repeat", handler.typed);
+		assertNull(handler.boxed);
+		handler.typed = null;
+	}
+	
+	@Test
+	public void testDefaultsBoxArguments() throws Exception {
+		TypedHandler handler = new TypedHandler(new TypedClass());
+		TypedClass proxy = ProxyFactory.createProxy(TypedClass.class, handler);
+		
+		proxy.touch();
+		assertNull(handler.typed);
+		assertEquals("touch", handler.boxed);
+		handler.boxed = null;
+	}
+	
+	@Test
+	public void testOtherSignaturesUseArray() throws Exception {
+		TypedHandler handler = new TypedHandler(new TypedClass());
+		TypedClass proxy = ProxyFactory.createProxy(TypedClass.class, handler);
+		
+		assertFalse(proxy.not(true));
+		assertNull(handler.typed);
+		assertEquals("not", handler.array);
+		assertEquals("not", handler.boxed);
+		handler.boxed = null;
+		
+		assertEquals(6, proxy.sum(1, 2, 3));
+		assertNull(handler.typed);
+		assertEquals("sum", handler.array);
+		assertEquals("sum", handler.boxed);
+	}
+	
+	@Test
+	public void testFinalCallNotInHandler() throws Exception {
+		NotCallingTargetHandler handler = new NotCallingTargetHandler(new TypedClass());
+		TypedClass proxy = ProxyFactory.createProxy(TypedClass.class, handler);
+		
+		assertEquals(3, proxy.add(1, 2));
+		assertTrue(handler.invoked);
+		handler.invoked = false;
+		assertEquals(6L, proxy.twice(3L));
+		assertTrue(handler.invoked);
+	}
+	
+	@Test
+	public void testPrimitiveDefaultsWithDefaultFilters() throws Exception {
+		BoxingHandler handler = new BoxingHandler(new TypedClass());
+		TypedClass proxy = ProxyFactory.createProxy(TypedClass.class, handler);
+		
+		assertEquals(3, proxy.add(1, 2));
+		assertEquals("add", handler.boxed);
+		assertEquals(6L, proxy.twice(3L));
+		assertEquals("twice", handler.boxed);
+		assertEquals(1.5d, proxy.half(3d));
+		assertEquals("half", handler.boxed);
+	}
+	
+	private static class TypedHandler extends TypedProxyHandler<TypedClass> {
+		String typed;
+		String array;
+		String boxed;
+		
+		TypedHandler(TypedClass instance) {
+			super(instance);
+		}
+		
+		@Override
+		public int invokeInt(TypedClass proxy, int index, Method m, int a, int b) throws Throwable {
+			typed = m.getName();
+			return getInstance().add(a, b);
+		}
+		
+		@Override
+		public long invokeLong(TypedClass proxy, int index, Method m, long a) throws Throwable {
+			typed = m.getName();
+			return getInstance().twice(a);
+		}
+		
+		@Override
+		public double invokeDouble(TypedClass proxy, int index, Method m, double a) throws Throwable {
+			typed = m.getName();
+			return getInstance().half(a);
+		}
+		
+		@Override
+		public Object invokeObject(TypedClass proxy, int index, Method m, Object a, int b) throws Throwable {
+			typed = m.getName();
+			return getInstance().repeat((String)a, b);
+		}
+
+		@Override
+		public Object invokeMethod(TypedClass proxy, int index, Method m, Object[] args) throws Throwable {
+			array = m.getName();
+			return super.invokeMethod(proxy, index, m, args);
+		}
+
+		@Override
+		protected Object invokeMethod(TypedClass instance, Method m, Object[] args) throws Throwable {
+			boxed = m.getName();
+			return m.invoke(instance, args);
+		}
+
+		@Override
+		protected boolean finalCallInHandler(Method m) {
+			return true;
+		}
+	}
+	
+	private static class NotCallingTargetHandler extends TypedProxyHandler<TypedClass> {
+		boolean invoked;
+		
+		NotCallingTargetHandler(TypedClass instance) {
+			super(instance);
+		}
+		
+		@Override
+		public int invokeInt(TypedClass proxy, int index, Method m, int a, int b) throws Throwable {
+			invoked = true;
+			return -1;
+		}
+		
+		@Override
+		public long invokeLong(TypedClass proxy, int index, Method m, long a) throws Throwable {
+			invoked = true;
+			return -1;
+		}
+
+		@Override
+		protected Object invokeMethod(TypedClass instance, Method m, Object[] args) throws Throwable {
+			return null;
+		}
+	}
+	
+	private static class BoxingHandler extends TypedProxyHandler<TypedClass> {
+		String boxed;
+		
+		BoxingHandler(TypedClass instance) {
+			super(instance);
+		}
+
+		@Override
+		protected Object invokeMethod(TypedClass instance, Method m, Object[] args) throws Throwable {
+			boxed = m.getName();
+			return null;
+		}
+	}
+}
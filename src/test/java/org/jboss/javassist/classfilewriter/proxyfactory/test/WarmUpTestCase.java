@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.javassist.classfilewriter.proxyfactory.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyFactory;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyHandler;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyTemplate;
+import org.jboss.javassist.classfilewriter.proxyfactory.ProxyWarmUp;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.BoxedClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.ChildClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.ExceptionClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.FinalClass;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerCallingTarget;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.HandlerNotCallingTarget;
+import org.jboss.javassist.classfilewriter.proxyfactory.support.PrimitiveClass;
+import org.junit.Test;
+
+/**
+ * 
+ * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
+ * @version $Revision: 1.1 $
+ */
+public class WarmUpTestCase {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testWarmUpClasses() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Class<?>> classes = new ArrayList<Class<?>>();
+			classes.add(PrimitiveClass.class);
+			classes.add(BoxedClass.class);
+			classes.add(ChildClass.class);
+			classes.add(FinalClass.class);
+			
+			ProxyWarmUp warmUp = ProxyFactory.warmUp(executor, classes);
+			assertTrue(warmUp.await(30, TimeUnit.SECONDS));
+			assertTrue(warmUp.isDone());
+			
+			Map<Class<?>, Long> timings = warmUp.getTimings();
+			assertEquals(3, timings.size());
+			assertTrue(timings.containsKey(PrimitiveClass.class));
+			assertTrue(timings.containsKey(BoxedClass.class));
+			assertTrue(timings.containsKey(ChildClass.class));
+			
+			assertEquals(1, warmUp.getFailures().size());
+			assertTrue(warmUp.getFailures().get(FinalClass.class) instanceof IllegalArgumentException);
+			
+			ProxyTemplate<PrimitiveClass> template = ProxyFactory.prepare(PrimitiveClass.class, (Class)HandlerNotCallingTarget.class);
+			PrimitiveClass proxy = ProxyFactory.createProxy(PrimitiveClass.class, new HandlerNotCallingTarget<PrimitiveClass>(new PrimitiveClass()));
+			assertSame(template.getProxyClass(), proxy.getClass());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testWarmUpPrototypes() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Map<Class<?>, ProxyHandler<?>> prototypes = new HashMap<Class<?>, ProxyHandler<?>>();
+			prototypes.put(ExceptionClass.class, new HandlerCallingTarget<ExceptionClass>(new ExceptionClass(), new Object[0]));
+			
+			ProxyWarmUp warmUp = ProxyFactory.warmUp(executor, prototypes);
+			warmUp.await();
+			assertEquals(1, warmUp.getTimings().size());
+			assertTrue(warmUp.getFailures().isEmpty());
+			
+			ExceptionClass proxy = ProxyFactory.createProxy(ExceptionClass.class, new HandlerCallingTarget<ExceptionClass>(new ExceptionClass(), new Object[0]));
+			ExceptionClass proxy2 = ProxyFactory.prepare(ExceptionClass.class, new HandlerCallingTarget<ExceptionClass>(new ExceptionClass(), new Object[0])).newProxy(
+					new HandlerCallingTarget<ExceptionClass>(new ExceptionClass(), new Object[0]));
+			assertSame(proxy.getClass(), proxy2.getClass());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}